@@ -0,0 +1,46 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import com.blackberry.bdp.klogger.MessageSink;
+
+/**
+ * A sink that discards every message but keeps a running checksum so the JIT can not eliminate the work of producing them.
+ */
+public class ChecksumSink implements MessageSink {
+
+	private long messages;
+	private long checksum;
+
+	@Override
+	public void send(byte[] buffer, int offset, int length) throws Exception {
+		messages++;
+		checksum += length;
+
+		if (length > 0) {
+			checksum += buffer[offset + length - 1];
+		}
+	}
+
+	public long getMessages() {
+		return messages;
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Generates deterministic, newline delimited log data used as benchmark input.
+ */
+public class Corpus {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte[] ASCII = ("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 .:-_[]=/").getBytes(UTF8);
+
+	private static final byte[][] MULTIBYTE = new byte[][]{
+		"\u00E9".getBytes(UTF8),
+		"\u20AC".getBytes(UTF8),
+		"\u4E2D".getBytes(UTF8),
+		"\uD83D\uDE00".getBytes(UTF8)
+	};
+
+	private static final byte[][] INVALID = new byte[][]{
+		new byte[]{(byte) 0xFF},
+		new byte[]{(byte) 0xC3},
+		new byte[]{(byte) 0xE3, (byte) 0x81},
+		new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80},
+		new byte[]{(byte) 0xF0, (byte) 0x80, (byte) 0x80}
+	};
+
+	/**
+	 * The kind of content each generated line holds
+	 */
+	public enum Content {
+		/** Printable ASCII only */
+		ASCII,
+		/** Roughly half of the characters are two, three or four byte UTF-8 sequences */
+		MULTIBYTE,
+		/** ASCII with a malformed UTF-8 sequence roughly every 64 bytes */
+		INVALID
+	}
+
+	private final byte[] bytes;
+	private final int[] lineOffsets;
+	private final int[] lineLengths;
+
+	/**
+	 * Builds a corpus of at least totalBytes bytes made of lines with lineLength bytes of payload each, followed by a newline
+	 * @param content
+	 * @param lineLength
+	 * @param totalBytes
+	 */
+	public Corpus(Content content, int lineLength, int totalBytes) {
+		Random random = new Random(42);
+		int lines = Math.max(1, totalBytes / (lineLength + 1));
+		ByteArrayOutputStream out = new ByteArrayOutputStream(lines * (lineLength + 1));
+
+		lineOffsets = new int[lines];
+		lineLengths = new int[lines];
+
+		for (int i = 0; i < lines; i++) {
+			lineOffsets[i] = out.size();
+			lineLengths[i] = lineLength;
+			appendLine(out, content, lineLength, random);
+			out.write('\n');
+		}
+
+		bytes = out.toByteArray();
+	}
+
+	private static void appendLine(ByteArrayOutputStream out, Content content, int lineLength, Random random) {
+		int written = 0;
+
+		while (written < lineLength) {
+			byte[] sequence = null;
+
+			if (content == Content.MULTIBYTE && random.nextBoolean()) {
+				sequence = MULTIBYTE[random.nextInt(MULTIBYTE.length)];
+			} else {
+				if (content == Content.INVALID && random.nextInt(64) == 0) {
+					sequence = INVALID[random.nextInt(INVALID.length)];
+				}
+			}
+
+			if (sequence != null && written + sequence.length <= lineLength) {
+				out.write(sequence, 0, sequence.length);
+				written += sequence.length;
+			} else {
+				out.write(ASCII[random.nextInt(ASCII.length)]);
+				written++;
+			}
+		}
+	}
+
+	/**
+	 * @return the newline delimited corpus
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of lines in the corpus
+	 */
+	public int getLineCount() {
+		return lineOffsets.length;
+	}
+
+	/**
+	 * @param line
+	 * @return the offset of the line within the corpus bytes
+	 */
+	public int getLineOffset(int line) {
+		return lineOffsets[line];
+	}
+
+	/**
+	 * @param line
+	 * @return the length of the line, excluding the newline
+	 */
+	public int getLineLength(int line) {
+		return lineLengths[line];
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import com.blackberry.bdp.klogger.Configuration;
+import com.blackberry.bdp.klogger.LogReader;
+import com.blackberry.bdp.klogger.MessageSink;
+
+/**
+ * A log reader whose source is an in-memory corpus served in fixed size reads, every call to run() reads the whole corpus once.
+ */
+public class CorpusLogReader extends LogReader {
+
+	private final byte[] corpus;
+	private final int readSize;
+	private int position;
+
+	public CorpusLogReader(Configuration conf, MessageSink sink, byte[] corpus, int readSize) throws Exception {
+		super(conf, sink);
+		this.corpus = corpus;
+		this.readSize = readSize;
+	}
+
+	@Override
+	protected void prepareSource() {
+		position = 0;
+	}
+
+	@Override
+	protected int readSource() {
+		if (position == corpus.length) {
+			return -1;
+		}
+
+		int length = Math.min(Math.min(readSize, getWritableBytes()), corpus.length - position);
+
+		System.arraycopy(corpus, position, bytes, getWriteOffset(), length);
+		position += length;
+
+		return length;
+	}
+
+	@Override
+	protected void finished() {
+	}
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import com.blackberry.bdp.klogger.LineFilter;
+import com.blackberry.bdp.klogger.PrefixMatcher;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of filtering a single line, cycling through the lines of a generated corpus, none of which any rule
+ * matches so that every line is searched to its end.  Compare it with UTF8ValidatorBenchmark, which a dropped line is
+ * spared along with the send.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineFilterBenchmark {
+
+	@Param({"50", "500", "8192"})
+	public int lineSize;
+
+	@Param({"ASCII", "MULTIBYTE"})
+	public Corpus.Content content;
+
+	/**
+	 * How many drop rules there are, one in ten of them a prefix pattern and the rest strings
+	 */
+	@Param({"1", "10", "100"})
+	public int rules;
+
+	private LineFilter filter;
+	private Corpus corpus;
+	private byte[] bytes;
+	private int line;
+
+	@Setup
+	public void setup() throws Exception {
+		String[] names = new String[rules];
+		boolean[] keep = new boolean[rules];
+		byte[][] contains = new byte[rules][];
+		PrefixMatcher[] starts = new PrefixMatcher[rules];
+
+		for (int i = 0; i < rules; i++) {
+			names[i] = "rule" + i;
+
+			if (i % 10 == 9) {
+				starts[i] = new PrefixMatcher("\\d\\d\\d\\d-\\d\\d-\\d\\d DEBUG " + i + "|GET /health" + i);
+			} else {
+				contains[i] = ("healthcheck-" + i + " OK").getBytes(StandardCharsets.UTF_8);
+			}
+		}
+
+		filter = new LineFilter("benchmark", names, keep, contains, starts);
+		corpus = new Corpus(content, lineSize, 1024 * 1024);
+		bytes = corpus.getBytes();
+	}
+
+	@Benchmark
+	public boolean accept() {
+		int current = line;
+
+		if (++line == corpus.getLineCount()) {
+			line = 0;
+		}
+
+		return filter.accept(bytes, corpus.getLineOffset(current), corpus.getLineLength(current), 0);
+	}
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import com.blackberry.bdp.klogger.Configuration;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures LogReader.run() (reading, line splitting, timestamp encoding, UTF-8 validation and sending) over an in-memory
+ * corpus with a discarding sink.
+ *
+ * <p>One operation is a full pass over a corpus of roughly {@link #CORPUS_BYTES} bytes, so bytes per second is the score
+ * multiplied by that figure.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogReaderBenchmark {
+
+	public static final int CORPUS_BYTES = 4 * 1024 * 1024;
+	public static final int MAX_LINE = 64 * 1024;
+
+	/**
+	 * Payload bytes per line, "max" is a line that exactly fills max.line.length including its newline
+	 */
+	@Param({"50", "500", "8192", "max"})
+	public String lineSize;
+
+	@Param({"ASCII", "MULTIBYTE", "INVALID"})
+	public Corpus.Content content;
+
+	@Param({"true", "false"})
+	public boolean encodeTimestamp;
+
+	@Param({"true", "false"})
+	public boolean validateUtf8;
+
+	/**
+	 * Bytes returned by each read of the source, use 1460 to mimic small TCP segments
+	 */
+	@Param({"65536"})
+	public int readSize;
+
+	private CorpusLogReader reader;
+	private ChecksumSink sink;
+
+	@Setup
+	public void setup() throws Exception {
+		int lineLength = lineSize.equals("max") ? MAX_LINE - 1 : Integer.parseInt(lineSize);
+		Corpus corpus = new Corpus(content, lineLength, CORPUS_BYTES);
+
+		sink = new ChecksumSink();
+		reader = new CorpusLogReader(configuration(MAX_LINE, encodeTimestamp, validateUtf8), sink, corpus.getBytes(), readSize);
+	}
+
+	@Benchmark
+	public long readCorpus() {
+		reader.setFinished(false);
+		reader.run();
+
+		return sink.getChecksum();
+	}
+
+	/**
+	 * Creates a configuration for the "benchmark" topic.  The broker list is never contacted as no producer is created.
+	 * @param maxLine
+	 * @param encodeTimestamp
+	 * @param validateUtf8
+	 * @return
+	 * @throws Exception
+	 */
+	public static Configuration configuration(int maxLine, boolean encodeTimestamp, boolean validateUtf8) throws Exception {
+		Properties props = new Properties();
+
+		props.setProperty("metadata.broker.list", "localhost:9092");
+		props.setProperty("client.id", "klogger-benchmarks");
+		props.setProperty("kafka.key", "klogger-benchmarks");
+		props.setProperty("max.line.length", Integer.toString(maxLine));
+		props.setProperty("encode.timestamp", Boolean.toString(encodeTimestamp));
+		props.setProperty("validate.utf8", Boolean.toString(validateUtf8));
+
+		return new Configuration(props, "benchmark");
+	}
+
+}
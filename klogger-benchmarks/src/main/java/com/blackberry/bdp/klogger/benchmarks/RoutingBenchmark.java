@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import com.blackberry.bdp.klogger.ByteTrie;
+import com.blackberry.bdp.klogger.MessageSink;
+import com.blackberry.bdp.klogger.RoutingSink;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of routing a single timestamped line to its topic by tag or by prefix, cycling through lines for
+ * every topic.  Each line is copied into a send buffer first, as LogReader does, and none measures just that copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+	private static final int HEADER_BYTES = 10;
+
+	@Param({"10", "100", "1000"})
+	public int topics;
+
+	@Param({"tag", "prefix", "none"})
+	public String route;
+
+	private ChecksumSink checksum;
+	private MessageSink sink;
+	private byte[][] lines;
+	private byte[] sendBuffer;
+	private int line;
+
+	@Setup
+	public void setup() {
+		byte[][] keys = new byte[topics][];
+		MessageSink[] sinks = new MessageSink[topics];
+		boolean[] strip = new boolean[topics];
+
+		checksum = new ChecksumSink();
+		lines = new byte[topics * 4][];
+
+		for (int i = 0; i < topics; i++) {
+			keys[i] = (route.equals("prefix") ? "<13>application-" + i + ": " : "application-" + i + " ").getBytes(StandardCharsets.UTF_8);
+			sinks[i] = checksum;
+			strip[i] = route.equals("tag");
+		}
+
+		for (int i = 0; i < lines.length; i++) {
+			// Every fourth line matches no route
+			String start = i % 4 == 3 ? "unrouted " : new String(keys[(i * 7919) % topics], StandardCharsets.UTF_8);
+			byte[] payload = (start + "2015-06-01 12:00:00.000 INFO [main] com.example.Service - request " + i + " handled in 12 ms").getBytes(StandardCharsets.UTF_8);
+
+			lines[i] = new byte[HEADER_BYTES + payload.length];
+			System.arraycopy(payload, 0, lines[i], HEADER_BYTES, payload.length);
+		}
+
+		sink = route.equals("none") ? checksum : new RoutingSink(new ByteTrie(keys), sinks, strip, checksum, HEADER_BYTES);
+		sendBuffer = new byte[4096];
+	}
+
+	@Benchmark
+	public long routeLine() throws Exception {
+		byte[] current = lines[line];
+
+		if (++line == lines.length) {
+			line = 0;
+		}
+
+		// A tag is stripped in the send buffer, so each line has to be copied afresh
+		System.arraycopy(current, 0, sendBuffer, 0, current.length);
+		sink.send(sendBuffer, 0, current.length);
+
+		return checksum.getChecksum();
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import com.blackberry.bdp.klogger.Configuration;
+import com.blackberry.bdp.klogger.LogReader;
+import com.blackberry.bdp.klogger.MessageSink;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A log reader whose source is a connected, blocking socket channel, every call to run() reads a given number of bytes.
+ */
+public class SocketChannelLogReader extends LogReader {
+
+	private final SocketChannel channel;
+	private final int bytesPerRun;
+	private ByteBuffer buffer;
+	private int received;
+
+	public SocketChannelLogReader(Configuration conf, MessageSink sink, SocketChannel channel, int bytesPerRun) throws Exception {
+		super(conf, sink);
+		this.channel = channel;
+		this.bytesPerRun = bytesPerRun;
+	}
+
+	@Override
+	protected void prepareSource() {
+		if (buffer == null) {
+			buffer = ByteBuffer.wrap(bytes);
+		}
+
+		received = 0;
+	}
+
+	@Override
+	protected int readSource() throws Exception {
+		if (received == bytesPerRun) {
+			return -1;
+		}
+
+		buffer.clear();
+		buffer.position(getWriteOffset());
+		buffer.limit(getWriteOffset() + Math.min(getWritableBytes(), bytesPerRun - received));
+
+		int length = channel.read(buffer);
+		received += length;
+
+		return length;
+	}
+
+	@Override
+	protected void finished() {
+	}
+
+}
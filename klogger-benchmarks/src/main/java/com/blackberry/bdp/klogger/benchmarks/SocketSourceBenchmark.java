@@ -0,0 +1,143 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import com.blackberry.bdp.klogger.UnixSource;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a loopback TCP connection (what a port source on 127.0.0.1 gets) with a Unix domain socket connection (what a
+ * unix source gets), each carrying a corpus from a writer thread to a LogReader with a discarding sink.
+ *
+ * <p>One operation is a full pass over a corpus of roughly {@link LogReaderBenchmark#CORPUS_BYTES} bytes.  The unix
+ * transport needs Java 16 or later.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketSourceBenchmark {
+
+	@Param({"tcp", "unix"})
+	public String transport;
+
+	@Param({"50", "500", "8192"})
+	public int lineSize;
+
+	/**
+	 * Bytes per write by the sender
+	 */
+	@Param({"4096"})
+	public int writeSize;
+
+	private byte[] corpus;
+	private Path socketPath;
+	private ServerSocketChannel server;
+	private SocketChannel client;
+	private SocketChannel accepted;
+	private ExecutorService writer;
+	private SocketChannelLogReader reader;
+	private ChecksumSink sink;
+
+	@Setup
+	public void setup() throws Exception {
+		corpus = new Corpus(Corpus.Content.ASCII, lineSize, LogReaderBenchmark.CORPUS_BYTES).getBytes();
+
+		if (transport.equals("unix")) {
+			socketPath = Files.createTempDirectory("klogger-benchmarks").resolve("benchmark.sock");
+			server = UnixSource.openServerSocketChannel();
+			server.bind(UnixSource.getSocketAddress(socketPath));
+			client = UnixSource.openSocketChannel();
+			client.connect(UnixSource.getSocketAddress(socketPath));
+		} else {
+			server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			client = SocketChannel.open(server.getLocalAddress());
+		}
+
+		accepted = server.accept();
+		writer = Executors.newSingleThreadExecutor();
+		sink = new ChecksumSink();
+		reader = new SocketChannelLogReader(LogReaderBenchmark.configuration(LogReaderBenchmark.MAX_LINE, true, true), sink, accepted, corpus.length);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		writer.shutdownNow();
+		client.close();
+		accepted.close();
+		server.close();
+
+		if (socketPath != null) {
+			Files.deleteIfExists(socketPath);
+			Files.deleteIfExists(socketPath.getParent());
+		}
+	}
+
+	@Benchmark
+	public long transferCorpus() throws Exception {
+		Future<?> written = writer.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int offset = 0; offset < corpus.length; offset += writeSize) {
+						ByteBuffer buffer = ByteBuffer.wrap(corpus, offset, Math.min(writeSize, corpus.length - offset));
+
+						while (buffer.hasRemaining()) {
+							client.write(buffer);
+						}
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+		});
+
+		reader.setFinished(false);
+		reader.run();
+		written.get();
+
+		return sink.getChecksum();
+	}
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger.benchmarks;
+
+import com.blackberry.bdp.klogger.UTF8Validator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of validating a single line, cycling through the lines of a generated corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UTF8ValidatorBenchmark {
+
+	@Param({"50", "500", "8192", "max"})
+	public String lineSize;
+
+	@Param({"ASCII", "MULTIBYTE", "INVALID"})
+	public Corpus.Content content;
+
+	private UTF8Validator validator;
+	private Corpus corpus;
+	private byte[] bytes;
+	private int line;
+
+	@Setup
+	public void setup() {
+		int lineLength = lineSize.equals("max") ? LogReaderBenchmark.MAX_LINE - 1 : Integer.parseInt(lineSize);
+
+		validator = new UTF8Validator();
+		corpus = new Corpus(content, lineLength, 1024 * 1024);
+		bytes = corpus.getBytes();
+	}
+
+	@Benchmark
+	public int validate() {
+		int current = line;
+
+		if (++line == corpus.getLineCount()) {
+			line = 0;
+		}
+
+		validator.validate(bytes, corpus.getLineOffset(current), corpus.getLineLength(current));
+
+		return validator.getResultLength();
+	}
+
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import com.codahale.metrics.Meter;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sink that packs the messages of a topic into batches, each sent to the topic's sink as a single message.
+ *
+ * <p>A batch is sent when it holds batch.lines messages, when the next message would take it over batch.max.bytes and
+ * batch.linger.ms after its first message was added, whichever is first.  A message too long for an empty batch is sent
+ * in a batch of its own.  Every reader of the topic adds to the same batch.  Each topic has a thread of its own that sends
+ * the batches that have lingered, so a topic whose sink waits for room doesn't hold up the batches of others.  A full
+ * batch is swapped for an empty one and sent without holding up the readers adding to the next, but batches are still
+ * sent one at a time and in order.</p>
+ *
+ * <p>A batch is, in order:</p>
+ * <ul>
+ * <li>the timestamp of its first message, as 0xFE 0x00 and eight byte big endian milliseconds since the epoch, when
+ * encode.timestamp is true and batch.timestamp is batch</li>
+ * <li>with batch.format newline, the messages separated by a newline (there is none after the last)</li>
+ * <li>with batch.format length-prefixed, each message after its length as a four byte big endian integer.  With
+ * batch.timestamp line the timestamp each message would have had without batching is at its start, inside its length</li>
+ * </ul>
+ */
+public class BatchSink implements MessageSink {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BatchSink.class);
+	private static final byte[] TIMESTAMP_MAGIC = new byte[]{(byte) 0xFE, 0x00};
+
+	private static final Map<MessageSink, BatchSink> sinks = new IdentityHashMap<>();
+	private static final Map<String, ScheduledThreadPoolExecutor> lingerers = new HashMap<>();
+
+	private final MessageSink sink;
+	private final int maxLines;
+	private final int maxBytes;
+	private final long lingerMs;
+	private final boolean lengthPrefixed;
+	private final boolean encodeTimestamp;
+	private final int batchBytes;
+	private final BufferPool buffers = new BufferPool(2);
+	private final Object sendOrder = new Object();
+	private final Meter mBatchesSent;
+	private final ScheduledThreadPoolExecutor lingerer;
+	private final Runnable sendLingering = new Runnable() {
+		@Override
+		public void run() {
+			sendLingering();
+		}
+
+	};
+
+	private ByteBuffer batch;
+	private int lines = 0;
+	private ScheduledFuture<?> linger;
+	// Batches are numbered as they fill, and sent in that order
+	private long filled = 0;
+	private long sent = 0;
+
+	/**
+	 * A batch that has been taken to be sent
+	 */
+	private static class FullBatch {
+
+		private final ByteBuffer buffer;
+		private final long number;
+
+		private FullBatch(ByteBuffer buffer, long number) {
+			this.buffer = buffer;
+			this.number = number;
+		}
+
+	}
+
+	/**
+	 * @param sink where batches are sent
+	 * @param topic
+	 * @param maxLines
+	 * @param maxBytes
+	 * @param lingerMs
+	 * @param lengthPrefixed true for batch.format length-prefixed, false for newline
+	 * @param encodeTimestamp true if a batch starts with a timestamp
+	 * @param maxMessageBytes the longest message that will be sent to the batch
+	 */
+	public BatchSink(MessageSink sink, String topic, int maxLines, int maxBytes, long lingerMs, boolean lengthPrefixed, boolean encodeTimestamp, int maxMessageBytes) {
+		this.sink = sink;
+		this.maxLines = maxLines;
+		this.maxBytes = maxBytes;
+		this.lingerMs = lingerMs;
+		this.lengthPrefixed = lengthPrefixed;
+		this.encodeTimestamp = encodeTimestamp;
+
+		// Large enough for any one message, however small batch.max.bytes is
+		batchBytes = Math.max(maxBytes, TIMESTAMP_MAGIC.length + 8 + 4 + maxMessageBytes);
+		batch = buffers.take(batchBytes);
+		mBatchesSent = MetricRegistrySingleton.getInstance().getMetricsRegistry().meter("klogger:topics:" + topic + ":batches sent");
+
+		synchronized (sinks) {
+			ScheduledThreadPoolExecutor topicLingerer = lingerers.get(topic);
+
+			if (topicLingerer == null) {
+				topicLingerer = new ScheduledThreadPoolExecutor(1, Threads.factory("klogger-batch-linger-" + topic));
+				// Most batches are sent before they linger, their tasks would pile up until they were due
+				topicLingerer.setRemoveOnCancelPolicy(true);
+				lingerers.put(topic, topicLingerer);
+			}
+
+			lingerer = topicLingerer;
+		}
+	}
+
+	/**
+	 * Returns the batch sink that sends to a sink, creating it if required
+	 * @param conf a configuration with batch.lines greater than 1
+	 * @param sink the topic's sink
+	 * @return
+	 */
+	public static BatchSink get(Configuration conf, MessageSink sink) {
+		synchronized (sinks) {
+			BatchSink batchSink = sinks.get(sink);
+
+			if (batchSink == null) {
+				batchSink = new BatchSink(sink,
+					 conf.getTopicName(),
+					 conf.getBatchLines(),
+					 conf.getBatchMaxBytes(),
+					 conf.getBatchLingerMs(),
+					 conf.getBatchFormat().equals("length-prefixed"),
+					 conf.isEncodeTimestamp() && conf.getBatchTimestamp().equals("batch"),
+					 LogReader.getSendBufferSize(conf));
+				sinks.put(sink, batchSink);
+
+				LOG.info("Batching up to {} lines or {} bytes of {} for up to {} ms", conf.getBatchLines(), conf.getBatchMaxBytes(), conf.getTopicName(), conf.getBatchLingerMs());
+			}
+
+			return batchSink;
+		}
+	}
+
+	@Override
+	public void send(byte[] buffer, int offset, int length) throws Exception {
+		FullBatch previous = null;
+		FullBatch full = null;
+
+		synchronized (this) {
+			int recordBytes = (lengthPrefixed ? 4 : lines > 0 ? 1 : 0) + length;
+
+			if (lines > 0 && batch.position() + recordBytes > maxBytes) {
+				previous = takeBatch();
+			}
+
+			if (lines == 0) {
+				if (encodeTimestamp) {
+					batch.put(TIMESTAMP_MAGIC);
+					batch.putLong(System.currentTimeMillis());
+				}
+
+				linger = lingerer.schedule(sendLingering, lingerMs, TimeUnit.MILLISECONDS);
+			}
+
+			if (lengthPrefixed) {
+				batch.putInt(length);
+			} else if (lines > 0) {
+				batch.put((byte) '\n');
+			}
+
+			batch.put(buffer, offset, length);
+
+			if (++lines == maxLines) {
+				full = takeBatch();
+			}
+		}
+
+		// Every batch that was taken has to be sent, or the ones after it would wait for it forever
+		try {
+			if (previous != null) {
+				sendBatch(previous);
+			}
+		} finally {
+			if (full != null) {
+				sendBatch(full);
+			}
+		}
+	}
+
+	/**
+	 * Swaps the batch for an empty one, with the lock held
+	 */
+	private FullBatch takeBatch() {
+		FullBatch full = new FullBatch(batch, filled++);
+
+		batch = buffers.take(batchBytes);
+		lines = 0;
+
+		if (linger != null) {
+			linger.cancel(false);
+			linger = null;
+		}
+
+		return full;
+	}
+
+	/**
+	 * Sends a batch once the batches taken before it have been sent, without the lock held
+	 */
+	private void sendBatch(FullBatch full) throws Exception {
+		boolean interrupted = false;
+
+		synchronized (sendOrder) {
+			while (sent != full.number) {
+				try {
+					sendOrder.wait();
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+		}
+
+		try {
+			sink.send(full.buffer.array(), 0, full.buffer.position());
+			mBatchesSent.mark();
+		} finally {
+			buffers.give(full.buffer);
+
+			synchronized (sendOrder) {
+				sent++;
+				sendOrder.notifyAll();
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return how many batches of the topic are waiting to be sent when they have lingered, for tests
+	 */
+	int getLingering() {
+		return lingerer.getQueue().size();
+	}
+
+	/**
+	 * Sends the batch that has lingered for batch.linger.ms
+	 */
+	private void sendLingering() {
+		FullBatch full;
+
+		synchronized (this) {
+			// Sent already, and maybe another started, if the task was cancelled after it started
+			if (linger == null || linger.getDelay(TimeUnit.NANOSECONDS) > 0) {
+				return;
+			}
+
+			full = takeBatch();
+		}
+
+		try {
+			sendBatch(full);
+		} catch (Exception e) {
+			LOG.error("Unable to send a batch: ", e);
+		}
+	}
+
+}
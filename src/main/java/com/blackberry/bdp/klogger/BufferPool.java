@@ -0,0 +1,104 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of heap byte buffers, grouped by capacity, that can be used from any thread.
+ *
+ * <p>Buffers that are given back while the pool already holds the maximum number of buffers of that capacity are left
+ * for the garbage collector.</p>
+ */
+public class BufferPool {
+
+	private final ConcurrentHashMap<Integer, Buffers> pools = new ConcurrentHashMap<>();
+	private final int maxPooled;
+
+	/**
+	 * @param maxPooled the maximum number of idle buffers of each capacity to keep
+	 */
+	public BufferPool(int maxPooled) {
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * Returns a cleared buffer of the requested capacity, allocating one if none are pooled
+	 * @param capacity
+	 * @return
+	 */
+	public ByteBuffer take(int capacity) {
+		ByteBuffer buffer = getBuffers(capacity).poll();
+
+		if (buffer == null) {
+			return ByteBuffer.allocate(capacity);
+		}
+
+		buffer.clear();
+
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool, it must not be used by the caller afterwards
+	 * @param buffer
+	 */
+	public void give(ByteBuffer buffer) {
+		getBuffers(buffer.capacity()).offer(buffer);
+	}
+
+	private Buffers getBuffers(int capacity) {
+		Buffers buffers = pools.get(capacity);
+
+		if (buffers == null) {
+			pools.putIfAbsent(capacity, new Buffers());
+			buffers = pools.get(capacity);
+		}
+
+		return buffers;
+	}
+
+	private class Buffers {
+
+		private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+
+		private ByteBuffer poll() {
+			ByteBuffer buffer = queue.poll();
+
+			if (buffer != null) {
+				size.decrementAndGet();
+			}
+
+			return buffer;
+		}
+
+		private void offer(ByteBuffer buffer) {
+			if (size.incrementAndGet() > maxPooled) {
+				size.decrementAndGet();
+				return;
+			}
+
+			queue.offer(buffer);
+		}
+
+	}
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds which of a set of byte strings is the longest prefix of a message, walking the message a byte at a time through a
+ * trie compiled once into flat arrays, so that matching neither allocates nor decodes it.
+ *
+ * <p>Each node's edges are kept sorted by byte and found with a binary search, which keeps a trie of hundreds of keys
+ * small while nodes with a single edge (most of them) cost one comparison.  A trie is immutable and may be shared by
+ * any number of threads.</p>
+ */
+public class ByteTrie {
+
+	// The edges of node n are firstEdge[n] to firstEdge[n + 1], labels[e] is the byte of edge e and targets[e] its node
+	private final int[] firstEdge;
+	private final byte[] labels;
+	private final int[] targets;
+	// The index of the key that ends at each node, or -1
+	private final int[] values;
+	private final int[] keyLengths;
+
+	/**
+	 * Compiles a trie
+	 * @param keys the keys, whose indexes match() returns
+	 * @throws IllegalArgumentException if a key is empty or appears twice
+	 */
+	public ByteTrie(byte[][] keys) {
+		List<TreeMap<Integer, Integer>> edges = new ArrayList<>();
+		List<Integer> ends = new ArrayList<>();
+
+		edges.add(new TreeMap<Integer, Integer>());
+		ends.add(-1);
+		keyLengths = new int[keys.length];
+
+		for (int k = 0; k < keys.length; k++) {
+			if (keys[k].length == 0) {
+				throw new IllegalArgumentException("empty key");
+			}
+
+			int node = 0;
+
+			for (byte b : keys[k]) {
+				Integer child = edges.get(node).get(b & 0xff);
+
+				if (child == null) {
+					child = edges.size();
+					edges.get(node).put(b & 0xff, child);
+					edges.add(new TreeMap<Integer, Integer>());
+					ends.add(-1);
+				}
+
+				node = child;
+			}
+
+			if (ends.get(node) >= 0) {
+				throw new IllegalArgumentException("duplicate key " + k);
+			}
+
+			ends.set(node, k);
+			keyLengths[k] = keys[k].length;
+		}
+
+		firstEdge = new int[edges.size() + 1];
+		labels = new byte[edges.size() - 1];
+		targets = new int[edges.size() - 1];
+		values = new int[edges.size()];
+
+		int edge = 0;
+
+		for (int n = 0; n < edges.size(); n++) {
+			firstEdge[n] = edge;
+			values[n] = ends.get(n);
+
+			// In ascending order of the unsigned byte
+			for (Map.Entry<Integer, Integer> entry : edges.get(n).entrySet()) {
+				labels[edge] = (byte) (int) entry.getKey();
+				targets[edge] = entry.getValue();
+				edge++;
+			}
+		}
+
+		firstEdge[edges.size()] = edge;
+	}
+
+	/**
+	 * Finds the longest key that the message starts with
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return the index of the key, or -1 if the message starts with none of them
+	 */
+	public int match(byte[] bytes, int offset, int length) {
+		int node = 0;
+		int found = -1;
+
+		for (int i = offset; i < offset + length; i++) {
+			node = child(node, bytes[i] & 0xff);
+
+			if (node < 0) {
+				break;
+			}
+
+			if (values[node] >= 0) {
+				found = values[node];
+			}
+		}
+
+		return found;
+	}
+
+	private int child(int node, int b) {
+		int low = firstEdge[node];
+		int high = firstEdge[node + 1] - 1;
+
+		if (low == high) {
+			return (labels[low] & 0xff) == b ? targets[low] : -1;
+		}
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int label = labels[middle] & 0xff;
+
+			if (label < b) {
+				low = middle + 1;
+			} else if (label > b) {
+				high = middle - 1;
+			} else {
+				return targets[middle];
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param key the index of a key
+	 * @return its length
+	 */
+	public int getKeyLength(int key) {
+		return keyLengths[key];
+	}
+
+}
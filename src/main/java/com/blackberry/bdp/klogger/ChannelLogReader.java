@@ -0,0 +1,175 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a non-blocking TCP or Unix domain socket connection whenever its NioSelector finds it readable.
+ *
+ * <p>The read buffer is only held while a partial line is waiting for the rest of it, idle connections give it back to the
+ * pool, and the buffer of a multiline event only while the event is pending.  The send buffer and UTF-8 validator belong to the selector thread.</p>
+ */
+public class ChannelLogReader extends LogReader {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ChannelLogReader.class);
+
+	private final SocketChannel channel;
+	private final int sendBufferSize;
+	private ByteBuffer readBuffer;
+
+	public ChannelLogReader(Source source, SocketChannel channel) throws Exception {
+		super(source.getConf(), source.getSink());
+		LOG.info("Created new {} for connection {} on {}", this.getClass().getName(), channel.getRemoteAddress(), source);
+		this.channel = channel;
+		this.sendBufferSize = getSendBufferSize(source.getConf());
+	}
+
+	@Override
+	protected void prepareSource() throws Exception {
+		channel.configureBlocking(false);
+	}
+
+	@Override
+	protected int readSource() throws Exception {
+		readBuffer.clear();
+		readBuffer.position(getWriteOffset());
+		readBuffer.limit(getWriteOffset() + getWritableBytes());
+
+		bytesRead = channel.read(readBuffer);
+
+		return bytesRead;
+	}
+
+	/**
+	 * Reads what is available from the connection and sends every message that is now complete
+	 * @param buffers the pool to take the read and send buffers from
+	 * @param utf8Validator the validator of the calling thread
+	 * @return false when the connection has been closed or failed and the reader should be closed
+	 */
+	public boolean read(BufferPool buffers, UTF8Validator utf8Validator) {
+		if (readBuffer == null) {
+			// There are no unconsumed bytes, so it does not matter which buffer they are read into
+			readBuffer = buffers.take(maxLine).order(ByteOrder.nativeOrder());
+			setReadBuffer(readBuffer);
+		}
+
+		ByteBuffer sendBuffer = buffers.take(sendBufferSize);
+
+		setSendBuffer(sendBuffer);
+		setEventBuffers(buffers);
+		setUtf8Validator(utf8Validator);
+
+		try {
+			if (!readOnce()) {
+				sendEvent();
+				return false;
+			}
+
+			return true;
+		} catch (Throwable t) {
+			LOG.error("An error has occured: ", t);
+			return false;
+		} finally {
+			buffers.give(sendBuffer);
+
+			if (getUnconsumedBytes() == 0) {
+				buffers.give(readBuffer);
+				readBuffer = null;
+				setReadBuffer(null);
+			}
+		}
+	}
+
+	/**
+	 * Sends the pending multiline event if it is due
+	 * @param buffers the pool to take the send buffer from
+	 * @param utf8Validator the validator of the calling thread
+	 * @return how many milliseconds are left until the pending event is due, or 0 if there is none
+	 */
+	public long sendEventIfDue(BufferPool buffers, UTF8Validator utf8Validator) {
+		if (!isEventPending()) {
+			return 0;
+		}
+
+		long waitMs = getEventDueMs() - System.currentTimeMillis();
+
+		if (waitMs > 0) {
+			return waitMs;
+		}
+
+		ByteBuffer sendBuffer = buffers.take(sendBufferSize);
+
+		setSendBuffer(sendBuffer);
+		setUtf8Validator(utf8Validator);
+
+		try {
+			sendEvent();
+		} catch (Throwable t) {
+			LOG.error("An error has occured: ", t);
+		} finally {
+			buffers.give(sendBuffer);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @return true if the connection has a multiline event that has not been sent yet
+	 */
+	public boolean hasPendingEvent() {
+		return isEventPending();
+	}
+
+	/**
+	 * Closes the connection and gives back the read buffer
+	 * @param buffers
+	 */
+	public void close(BufferPool buffers) {
+		if (readBuffer != null) {
+			buffers.give(readBuffer);
+			readBuffer = null;
+			setReadBuffer(null);
+		}
+
+		finished();
+
+		LOG.info("Reading source for topic {} is finished", conf.getTopicName());
+	}
+
+	@Override
+	protected void finished() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.error("Error trying to close socket: ", e);
+		}
+	}
+
+	/**
+	 * @return the channel
+	 */
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The positions of every file source that shares a file.positions.persist.cache.dir, kept in a single append only log.
+ *
+ * <p>Updates are only held in memory until they are group committed, every file.positions.commit.ms, with one write and one
+ * fsync however many files have moved on.  Each record is a line of "crc position key path", where key is the file key
+ * (inode) of the file the position belongs to or "-", and a position of -1 forgets the path.  A torn or corrupt record is
+ * skipped when the log is read, so a crash loses at most the positions that were not committed yet.  The log is compacted
+ * into a new one, which is fsynced and atomically renamed over it, when it is read and whenever it has grown to many
+ * times the size of the positions it holds.</p>
+ */
+public class CheckpointStore implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CheckpointStore.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String LOG_NAME = "checkpoints.log";
+	private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+	private static final Map<Path, CheckpointStore> stores = new HashMap<>();
+
+	private final Path directory;
+	private final long commitMs;
+	private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+	private final Map<String, Checkpoint> pending = new LinkedHashMap<>();
+	private final Object commitLock = new Object();
+	private FileChannel channel;
+	private long logBytes;
+
+	/**
+	 * A position and the key of the file it belongs to
+	 */
+	public static class Checkpoint {
+
+		private final long position;
+		private final String fileKey;
+
+		public Checkpoint(long position, String fileKey) {
+			this.position = position;
+			this.fileKey = fileKey;
+		}
+
+		/**
+		 * @return the position
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		/**
+		 * @return the fileKey, null when the position doesn't belong to a particular file
+		 */
+		public String getFileKey() {
+			return fileKey;
+		}
+
+	}
+
+	/**
+	 * Opens the store in a directory, reading its log
+	 * @param directory
+	 * @param commitMs how often the committer thread, if started, commits
+	 * @throws IOException
+	 */
+	public CheckpointStore(Path directory, long commitMs) throws IOException {
+		this.directory = directory;
+		this.commitMs = commitMs;
+
+		Path log = directory.resolve(LOG_NAME);
+
+		Files.createDirectories(directory);
+
+		if (Files.exists(log)) {
+			read(log);
+		}
+
+		compact();
+
+		LOG.info("Read {} positions from {}", checkpoints.size(), log);
+	}
+
+	/**
+	 * Returns the shared store of a directory, opening it and starting its committer thread if needed
+	 * @param directory
+	 * @param commitMs how often positions are committed, only used when the store is opened
+	 * @return
+	 * @throws IOException
+	 */
+	public static CheckpointStore get(String directory, long commitMs) throws IOException {
+		Path path = Paths.get(directory).toAbsolutePath().normalize();
+
+		synchronized (stores) {
+			CheckpointStore store = stores.get(path);
+
+			if (store == null) {
+				final CheckpointStore opened = new CheckpointStore(path, commitMs);
+
+				Threads.start(opened, "klogger-checkpoint-committer");
+
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						opened.commitQuietly();
+					}
+
+				}, "klogger-checkpoint-shutdown"));
+
+				stores.put(path, opened);
+				store = opened;
+			}
+
+			return store;
+		}
+	}
+
+	private void read(Path log) throws IOException {
+		String[] lines = new String(Files.readAllBytes(log), UTF8).split("\n", -1);
+		int skipped = 0;
+
+		// The last piece is not terminated by a newline, it is empty unless a write was torn
+		for (int i = 0; i < lines.length - 1; i++) {
+			String[] fields = lines[i].split(" ", 4);
+
+			try {
+				if (fields.length != 4 || Long.parseLong(fields[0], 16) != crc(fields[1] + " " + fields[2] + " " + fields[3])) {
+					skipped++;
+					continue;
+				}
+
+				long position = Long.parseLong(fields[1]);
+
+				if (position < 0) {
+					checkpoints.remove(fields[3]);
+				} else {
+					checkpoints.put(fields[3], new Checkpoint(position, fields[2].equals("-") ? null : fields[2]));
+				}
+			} catch (NumberFormatException nfe) {
+				skipped++;
+			}
+		}
+
+		if (skipped > 0 || !lines[lines.length - 1].isEmpty()) {
+			LOG.warn("Skipped {} corrupt and {} torn records of {}", skipped, lines[lines.length - 1].isEmpty() ? 0 : 1, log);
+		}
+	}
+
+	private static long crc(String data) {
+		CRC32 crc = new CRC32();
+
+		crc.update(data.getBytes(UTF8));
+		return crc.getValue();
+	}
+
+	private static byte[] record(String file, Checkpoint checkpoint) {
+		String data = checkpoint.getPosition() + " " + (checkpoint.getFileKey() == null ? "-" : checkpoint.getFileKey()) + " " + file;
+
+		return (Long.toHexString(crc(data)) + " " + data + "\n").getBytes(UTF8);
+	}
+
+	/**
+	 * @param file
+	 * @return the last position recorded for a file, or null if there is none
+	 */
+	public synchronized Checkpoint get(String file) {
+		return checkpoints.get(file);
+	}
+
+	/**
+	 * @param fileKey
+	 * @return the files whose last recorded position belongs to the file with a key, and their checkpoints
+	 */
+	public synchronized Map<String, Checkpoint> getByFileKey(String fileKey) {
+		Map<String, Checkpoint> found = new HashMap<>();
+
+		for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+			if (fileKey.equals(entry.getValue().getFileKey())) {
+				found.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Records the position of a file, which is committed with the next group
+	 * @param file
+	 * @param position
+	 * @param fileKey the key of the file the position belongs to, or null
+	 */
+	public synchronized void update(String file, long position, String fileKey) {
+		Checkpoint checkpoint = new Checkpoint(position, fileKey);
+
+		checkpoints.put(file, checkpoint);
+		pending.put(file, checkpoint);
+	}
+
+	/**
+	 * Forgets the position of a file, for when it is no longer read
+	 * @param file
+	 */
+	public synchronized void remove(String file) {
+		if (checkpoints.remove(file) != null) {
+			pending.put(file, new Checkpoint(-1, null));
+		}
+	}
+
+	/**
+	 * Writes and fsyncs every position recorded since the last commit
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		synchronized (commitLock) {
+			Map<String, Checkpoint> group;
+			int live;
+
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return;
+				}
+
+				group = new LinkedHashMap<>(pending);
+				pending.clear();
+				live = checkpoints.size();
+			}
+
+			int length = 0;
+			byte[][] records = new byte[group.size()][];
+			int i = 0;
+
+			for (Map.Entry<String, Checkpoint> entry : group.entrySet()) {
+				records[i] = record(entry.getKey(), entry.getValue());
+				length += records[i++].length;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+
+			for (byte[] record : records) {
+				buffer.put(record);
+			}
+
+			buffer.flip();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			channel.force(false);
+			logBytes += length;
+
+			LOG.debug("Committed {} positions ({} bytes)", group.size(), length);
+
+			// Records are roughly the same size, so the positions held take up about this much
+			if (logBytes > Math.max(MIN_COMPACT_BYTES, 4L * live * length / group.size())) {
+				compact();
+			}
+		}
+	}
+
+	private void commitQuietly() {
+		try {
+			commit();
+		} catch (IOException ioe) {
+			LOG.error("Unable to commit positions to {}: ", directory, ioe);
+		}
+	}
+
+	/**
+	 * Replaces the log with one that holds every position once, fsynced and atomically renamed over the old log
+	 */
+	private void compact() throws IOException {
+		synchronized (commitLock) {
+			Path log = directory.resolve(LOG_NAME);
+			Path compacted = directory.resolve(LOG_NAME + ".tmp");
+			ByteBuffer buffer;
+
+			synchronized (this) {
+				// Everything pending is in checkpoints, so it is committed by the compacted log
+				pending.clear();
+
+				int length = 0;
+				byte[][] records = new byte[checkpoints.size()][];
+				int i = 0;
+
+				for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+					records[i] = record(entry.getKey(), entry.getValue());
+					length += records[i++].length;
+				}
+
+				buffer = ByteBuffer.allocate(length);
+
+				for (byte[] record : records) {
+					buffer.put(record);
+				}
+
+				buffer.flip();
+			}
+
+			int length = buffer.remaining();
+
+			try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+
+				out.force(true);
+			}
+
+			Files.move(compacted, log, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			syncDirectory();
+
+			if (channel != null) {
+				channel.close();
+			}
+
+			channel = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			logBytes = length;
+
+			LOG.debug("Compacted {} to {} bytes", log, length);
+		}
+	}
+
+	/**
+	 * Makes the rename durable, where the platform allows a directory to be opened
+	 */
+	private void syncDirectory() {
+		try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+			dir.force(true);
+		} catch (IOException ioe) {
+			LOG.trace("Unable to fsync directory {}: {}", directory, ioe);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(commitMs);
+			} catch (InterruptedException ie) {
+				LOG.warn("Interrupted while waiting to commit positions", ie);
+			}
+
+			commitQuietly();
+		}
+	}
+
+}
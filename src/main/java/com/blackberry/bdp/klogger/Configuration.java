@@ -16,7 +16,9 @@
 package com.blackberry.bdp.klogger;
 
 import com.blackberry.bdp.common.props.Parser;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,8 +27,10 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import com.blackberry.bdp.krackle.producer.ProducerConfiguration;
 import javax.security.auth.login.LoginContext;
@@ -61,6 +65,36 @@ import javax.security.auth.login.LoginContext;
  * </tr>
  *
  * <tr>
+ * <td>producers.per.topic</td>
+ * <td>1</td>
+ * <td>How many producers, each with its own key, readers of a topic are spread over</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>key.field</td>
+ * <td></td>
+ * <td>The index, from 0, of the field of each message whose hash picks the producer it is sent to (see KeyExtractor)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>key.delimiter</td>
+ * <td>a space</td>
+ * <td>The byte that separates the fields for key.field</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>key.bytes</td>
+ * <td></td>
+ * <td>The range of bytes, from-to, of each message whose hash picks the producer it is sent to</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>key.regex</td>
+ * <td></td>
+ * <td>A regular expression, the key.regex.group (1) of whose first match in each message picks the producer it is sent to</td>
+ * </tr>
+ *
+ * <tr>
  * <td>max.line.length</td>
  * <td>64 * 1024</td>
  * <td>The maximum length of a log line to send to Kafka</td>
@@ -72,12 +106,169 @@ import javax.security.auth.login.LoginContext;
  * <td>Whether or not to encode the timestamp in front of the log line</td>
  * </tr>
  *
+ * </table>
+ *
+ * <p>The following properties can be overwritten for a specific topic by using the following property pattern:
+ * source.&lt;<i>topic</i>&gt.&lt;<i>property</i>&gt</p>
+ *
+ * <table border="1">
+ *
+ * <tr>
+ * <th>property</th>
+ * <th>default</th>
+ * <th>description</th>
+ * </tr>
+ *
  * <tr>
  * <td>validate.utf8</td>
  * <td>true</td>
  * <td>If this is set to true, then all incoming log lines will be validated to ensure that they are correctly encoded in UTF-8. Invalid bytes will be replaced by the replacement character (U+FFFD)</td>
  * </tr>
  *
+ * <tr>
+ * <td>framing</td>
+ * <td>delimiter</td>
+ * <td>How messages are separated: delimiter (by line.delimiter), length-prefixed (each message follows its length as a four byte big endian integer) or octet-counting (RFC 6587 syslog: the length in decimal and a space, messages without a length are framed by line.delimiter)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>line.delimiter</td>
+ * <td>lf</td>
+ * <td>What separates messages: lf (a newline), crlf (a newline, stripping a carriage return before it), nul (a zero byte) or any other sequence of bytes, where \n, \r, \t, \0, \\ and \xHH escapes are supported</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>multiline.start</td>
+ * <td></td>
+ * <td>A prefix pattern (see PrefixMatcher) for the lines that start an event, a line that doesn't match it is joined to the event before it.  At most one of multiline.start and multiline.continuation can be set</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>multiline.continuation</td>
+ * <td></td>
+ * <td>A prefix pattern (see PrefixMatcher) for the lines that continue an event, a line that doesn't match it starts a new one</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>multiline.max.bytes</td>
+ * <td>65536</td>
+ * <td>The longest an event may grow, a line that would take it over this starts a new one</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>multiline.max.wait.ms</td>
+ * <td>1000</td>
+ * <td>The longest an event waits for more lines before it is sent</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>batch.lines</td>
+ * <td>1</td>
+ * <td>When greater than 1, up to this many messages are packed into each message sent to Kafka (see BatchSink for the format)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>batch.max.bytes</td>
+ * <td>65536</td>
+ * <td>The longest a batch may grow, a message that would take it over this goes in the next one</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>batch.linger.ms</td>
+ * <td>100</td>
+ * <td>The longest a batch waits for more messages before it is sent</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>batch.format</td>
+ * <td>length-prefixed</td>
+ * <td>How messages are packed: length-prefixed (each after its length as a four byte big endian integer) or newline (separated by newlines)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>batch.timestamp</td>
+ * <td>batch</td>
+ * <td>With encode.timestamp, whether a batch has one timestamp at its start (batch) or each message in it has its own (line, length-prefixed batches only)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>filter.&lt;rule&gt;.contains</td>
+ * <td></td>
+ * <td>A string that messages the rule matches contain (see LineFilter)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>filter.&lt;rule&gt;.start</td>
+ * <td></td>
+ * <td>A prefix pattern (see PrefixMatcher) that messages the rule matches start with</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>filter.&lt;rule&gt;.action</td>
+ * <td>drop</td>
+ * <td>drop drops the messages the rule matches, keep drops the messages no keep rule matches</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>spill.dir</td>
+ * <td></td>
+ * <td>When set, messages the producer has no room for are spilled to segment files in a directory of the topic's name in this directory, and replayed in order once it catches up, instead of being dropped (see SpillSink)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>spill.max.bytes</td>
+ * <td>1073741824</td>
+ * <td>The most the topic's spilled messages may take up, the oldest segments are deleted to make room beyond that</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>spill.segment.bytes</td>
+ * <td>67108864</td>
+ * <td>How large a spill segment grows before a new one is started, less than spill.max.bytes</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>spill.fsync.ms</td>
+ * <td>1000</td>
+ * <td>How often spilled messages are fsynced</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>spill.queue.messages</td>
+ * <td>1000</td>
+ * <td>How many messages wait in memory for the producer before any are spilled</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>shed.priority</td>
+ * <td>0</td>
+ * <td>When greater than 0, the source sheds load once LoadShedder's level reaches it, so priority 1 sources shed first, and 0 never sheds (see SheddingSink)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>shed.keep.one.in</td>
+ * <td>10</td>
+ * <td>While shedding, one in this many of the source's messages are sent</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>shed.sample</td>
+ * <td>count</td>
+ * <td>count keeps every nth message, hash keeps the messages whose key (or whole message, without a key) hashes to one of n buckets</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>shed.threshold</td>
+ * <td>0.5</td>
+ * <td>Global.  The share of time senders wait for the busiest producer at or above which the shed level goes up, it goes down below half of it</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>shed.check.ms</td>
+ * <td>1000</td>
+ * <td>Global.  How often the shed level is checked</td>
+ * </tr>
+ *
  * </table>
  *
  */
@@ -88,9 +279,40 @@ public class Configuration extends ProducerConfiguration {
 	private static final Logger LOG = LoggerFactory.getLogger(Configuration.class);
 	private String clientId = InetAddress.getLocalHost().getHostName();
 	private String kafkaKey = InetAddress.getLocalHost().getHostName();
+	private int producersPerTopic = 1;
+	private int keyField = -1;
+	private byte keyDelimiter = ' ';
+	private int keyBytesFrom = -1;
+	private int keyBytesTo = -1;
+	private Pattern keyRegex;
+	private int keyRegexGroup = 1;
 	private int maxLineLength = 64 * 1024;
 	private boolean encodeTimestamp = true;
 	private boolean validateUtf8 = true;
+	private String framing = "delimiter";
+	private String lineDelimiterName = "lf";
+	private byte[] lineDelimiter;
+	private boolean stripCarriageReturn;
+	private PrefixMatcher multilineStart;
+	private PrefixMatcher multilineContinuation;
+	private int multilineMaxBytes = 64 * 1024;
+	private long multilineMaxWaitMs = 1000;
+	private LineFilter lineFilter;
+	private int batchLines = 1;
+	private int batchMaxBytes = 64 * 1024;
+	private long batchLingerMs = 100;
+	private String batchFormat = "length-prefixed";
+	private String batchTimestamp = "batch";
+	private String spillDir;
+	private long spillMaxBytes = 1024L * 1024 * 1024;
+	private long spillSegmentBytes = 64L * 1024 * 1024;
+	private long spillFsyncMs = 1000;
+	private int spillQueueMessages = 1000;
+	private int shedPriority = 0;
+	private int shedKeepOneIn = 10;
+	private String shedSample = "count";
+	private double shedThreshold = 0.5;
+	private long shedCheckMs = 1000;
 
 	public Configuration(Properties props, String topicName) throws Exception {
 		super(props, topicName);
@@ -99,15 +321,137 @@ public class Configuration extends ProducerConfiguration {
 
 		clientId = parser.parseString("client.id", clientId);
 		kafkaKey = parser.parseString("kafka.key", kafkaKey);
+		producersPerTopic = Integer.parseInt(props.getProperty(getTopicAwarePropName("producers.per.topic"), Integer.toString(producersPerTopic)).trim());
+
+		if (producersPerTopic < 1) {
+			throw new ConfigurationException("producers.per.topic must be at least 1", null);
+		}
+
+		setKey(props.getProperty(getTopicAwarePropName("key.field")), props.getProperty(getTopicAwarePropName("key.bytes")), props.getProperty(getTopicAwarePropName("key.regex")));
+
+		if (props.getProperty(getTopicAwarePropName("key.delimiter")) != null) {
+			byte[] delimiter = unescape(props.getProperty(getTopicAwarePropName("key.delimiter")));
+
+			if (delimiter.length != 1) {
+				throw new ConfigurationException("key.delimiter must be a single byte", null);
+			}
+
+			keyDelimiter = delimiter[0];
+		}
+
+		keyRegexGroup = Integer.parseInt(props.getProperty(getTopicAwarePropName("key.regex.group"), Integer.toString(keyRegexGroup)).trim());
+
+		if (keyRegex != null && (keyRegexGroup < 0 || keyRegexGroup > keyRegex.matcher("").groupCount())) {
+			throw new ConfigurationException("key.regex.group " + keyRegexGroup + " is not a group of key.regex", null);
+		}
+
 		maxLineLength = Integer.parseInt(props.getProperty("max.line.length", Integer.toString(maxLineLength)).trim());
 		encodeTimestamp = Boolean.parseBoolean(props.getProperty("encode.timestamp", Boolean.toString(encodeTimestamp)).trim());
-		validateUtf8 = Boolean.parseBoolean(props.getProperty("validate.utf8", Boolean.toString(validateUtf8)).trim());
+		validateUtf8 = Boolean.parseBoolean(props.getProperty(getTopicAwarePropName("validate.utf8"), Boolean.toString(validateUtf8)).trim());
+		setFraming(props.getProperty(getTopicAwarePropName("framing"), framing));
+		lineDelimiterName = props.getProperty(getTopicAwarePropName("line.delimiter"), lineDelimiterName);
+		setLineDelimiter(lineDelimiterName);
+		setMultiline(props.getProperty(getTopicAwarePropName("multiline.start")), props.getProperty(getTopicAwarePropName("multiline.continuation")));
+		multilineMaxBytes = Integer.parseInt(props.getProperty(getTopicAwarePropName("multiline.max.bytes"), Integer.toString(multilineMaxBytes)).trim());
+		multilineMaxWaitMs = Long.parseLong(props.getProperty(getTopicAwarePropName("multiline.max.wait.ms"), Long.toString(multilineMaxWaitMs)).trim());
+
+		if (multilineMaxBytes < 1 || multilineMaxWaitMs < 1) {
+			throw new ConfigurationException("multiline.max.bytes and multiline.max.wait.ms must be at least 1", null);
+		}
+
+		setLineFilter(props);
+
+		batchLines = Integer.parseInt(props.getProperty(getTopicAwarePropName("batch.lines"), Integer.toString(batchLines)).trim());
+		batchMaxBytes = Integer.parseInt(props.getProperty(getTopicAwarePropName("batch.max.bytes"), Integer.toString(batchMaxBytes)).trim());
+		batchLingerMs = Long.parseLong(props.getProperty(getTopicAwarePropName("batch.linger.ms"), Long.toString(batchLingerMs)).trim());
+		batchFormat = props.getProperty(getTopicAwarePropName("batch.format"), batchFormat).trim().toLowerCase();
+		batchTimestamp = props.getProperty(getTopicAwarePropName("batch.timestamp"), batchTimestamp).trim().toLowerCase();
+
+		if (batchLines < 1 || batchMaxBytes < 1 || batchLingerMs < 1) {
+			throw new ConfigurationException("batch.lines, batch.max.bytes and batch.linger.ms must be at least 1", null);
+		}
+
+		if (!batchFormat.equals("length-prefixed") && !batchFormat.equals("newline")) {
+			throw new ConfigurationException("batch.format must be length-prefixed or newline, not " + batchFormat, null);
+		}
+
+		if (!batchTimestamp.equals("batch") && !batchTimestamp.equals("line")) {
+			throw new ConfigurationException("batch.timestamp must be batch or line, not " + batchTimestamp, null);
+		}
+
+		if (batchLines > 1 && encodeTimestamp && batchTimestamp.equals("line") && batchFormat.equals("newline")) {
+			throw new ConfigurationException("batch.timestamp line needs batch.format length-prefixed, a timestamp can contain a newline byte", null);
+		}
+
+		spillDir = props.getProperty(getTopicAwarePropName("spill.dir"));
+		spillMaxBytes = Long.parseLong(props.getProperty(getTopicAwarePropName("spill.max.bytes"), Long.toString(spillMaxBytes)).trim());
+		spillSegmentBytes = Long.parseLong(props.getProperty(getTopicAwarePropName("spill.segment.bytes"), Long.toString(spillSegmentBytes)).trim());
+		spillFsyncMs = Long.parseLong(props.getProperty(getTopicAwarePropName("spill.fsync.ms"), Long.toString(spillFsyncMs)).trim());
+		spillQueueMessages = Integer.parseInt(props.getProperty(getTopicAwarePropName("spill.queue.messages"), Integer.toString(spillQueueMessages)).trim());
+
+		if (spillDir != null) {
+			spillDir = spillDir.trim();
+
+			if (isKeyed()) {
+				throw new ConfigurationException("key.field, key.bytes and key.regex can not be used with spill.dir, spilled messages all go to one producer", null);
+			}
+
+			if (spillSegmentBytes < 1 || spillSegmentBytes >= spillMaxBytes) {
+				throw new ConfigurationException("spill.segment.bytes must be at least 1 and less than spill.max.bytes", null);
+			}
+
+			if (spillQueueMessages < 1) {
+				throw new ConfigurationException("spill.queue.messages must be at least 1", null);
+			}
+		}
+
+		shedPriority = Integer.parseInt(props.getProperty(getTopicAwarePropName("shed.priority"), Integer.toString(shedPriority)).trim());
+		shedKeepOneIn = Integer.parseInt(props.getProperty(getTopicAwarePropName("shed.keep.one.in"), Integer.toString(shedKeepOneIn)).trim());
+		shedSample = props.getProperty(getTopicAwarePropName("shed.sample"), shedSample).trim().toLowerCase();
+		shedThreshold = Double.parseDouble(props.getProperty("shed.threshold", Double.toString(shedThreshold)).trim());
+		shedCheckMs = Long.parseLong(props.getProperty("shed.check.ms", Long.toString(shedCheckMs)).trim());
+
+		if (shedPriority < 0 || shedKeepOneIn < 1 || shedCheckMs < 1) {
+			throw new ConfigurationException("shed.priority must be at least 0, shed.keep.one.in and shed.check.ms at least 1", null);
+		}
+
+		if (!shedSample.equals("count") && !shedSample.equals("hash")) {
+			throw new ConfigurationException("shed.sample must be count or hash, not " + shedSample, null);
+		}
+
+		if (shedThreshold <= 0 || shedThreshold > 1) {
+			throw new ConfigurationException("shed.threshold must be greater than 0 and at most 1", null);
+		}
+
+		if (isKeyed() && producersPerTopic < 2 && !(shedPriority > 0 && shedSample.equals("hash"))) {
+			throw new ConfigurationException("key.field, key.bytes and key.regex need producers.per.topic greater than 1, or shed.sample hash", null);
+		}
+
+		// LoadShedder goes by how long sends wait, and with a timeout of 0 the producer drops messages instead of waiting
+		if (shedPriority > 0
+			 && "0".equals(props.getProperty(getTopicAwarePropName("queue.enqueue.timeout.ms"), "").trim())
+			 && spillDir == null
+			 && !Boolean.parseBoolean(props.getProperty(getTopicAwarePropName("file.backpressure"), "false").trim())
+			 && !Boolean.parseBoolean(props.getProperty(getTopicAwarePropName("tcp.backpressure"), "false").trim())) {
+			throw new ConfigurationException("shed.priority needs a queue.enqueue.timeout.ms other than 0 for " + getTopicName() + ", or file.backpressure, tcp.backpressure or spill.dir, as its producer would drop messages rather than make senders wait", null);
+		}
 
 		LOG.info("client.id = {}", clientId);
 		LOG.info("kafka.key = {}", kafkaKey);
+		LOG.info("{} = {}", getTopicAwarePropName("producers.per.topic"), producersPerTopic);
+		LOG.info("{} = {}", getTopicAwarePropName("key.field"), props.getProperty(getTopicAwarePropName("key.field")));
+		LOG.info("{} = {}", getTopicAwarePropName("key.bytes"), props.getProperty(getTopicAwarePropName("key.bytes")));
+		LOG.info("{} = {}", getTopicAwarePropName("key.regex"), props.getProperty(getTopicAwarePropName("key.regex")));
 		LOG.info("max.line.length = {}", maxLineLength);
 		LOG.info("encode.timestamp = {}", encodeTimestamp);
-		LOG.info("validate.utf8 = {}", validateUtf8);
+		LOG.info("{} = {}", getTopicAwarePropName("validate.utf8"), validateUtf8);
+		LOG.info("{} = {}", getTopicAwarePropName("framing"), framing);
+		LOG.info("{} = {}", getTopicAwarePropName("line.delimiter"), lineDelimiterName);
+		LOG.info("{} = {}", getTopicAwarePropName("multiline.start"), props.getProperty(getTopicAwarePropName("multiline.start")));
+		LOG.info("{} = {}", getTopicAwarePropName("multiline.continuation"), props.getProperty(getTopicAwarePropName("multiline.continuation")));
+		LOG.info("{} = {}", getTopicAwarePropName("batch.lines"), batchLines);
+		LOG.info("{} = {}", getTopicAwarePropName("spill.dir"), spillDir);
+		LOG.info("{} = {}", getTopicAwarePropName("shed.priority"), shedPriority);
 	}
 
 	/**
@@ -121,7 +465,7 @@ public class Configuration extends ProducerConfiguration {
 		Set<String> sourceList = props.stringPropertyNames();
 
 		for (String curElement : sourceList) {
-			Pattern pattern = Pattern.compile("^source\\.([^\\.]+)\\.(port|file)$", Pattern.CASE_INSENSITIVE);
+			Pattern pattern = Pattern.compile("^source\\.([^\\.]+)\\.(port|udp|unix|file|glob)$", Pattern.CASE_INSENSITIVE);
 			Matcher matcher = pattern.matcher(curElement);
 
 			if (matcher.find()) {
@@ -133,6 +477,24 @@ public class Configuration extends ProducerConfiguration {
 					PortSource source = new PortSource(sourceValue, topic);
 					sources.add(source);
 					LOG.info("    Adding a new port source: {} ", source);
+				} else if (sourceType.equals("udp")) {
+					UdpSource source = new UdpSource(sourceValue, topic);
+					sources.add(source);
+					LOG.info("    Adding a new UDP source: {} ", source);
+				} else if (sourceType.equals("unix")) {
+					UnixSource source = new UnixSource(sourceValue, topic);
+					sources.add(source);
+					LOG.info("    Adding a new Unix domain socket source: {} ", source);
+				} else if (sourceType.equals("glob")) {
+					GlobSource source = new GlobSource(sourceValue, topic);
+
+					if (!source.getDirectory().toFile().isDirectory()) {
+						LOG.warn("Skippping glob based source for {} because directory {} does not exist", sourceValue, source.getDirectory());
+						continue;
+					}
+
+					sources.add(source);
+					LOG.info("    Adding a new glob source: {} ", source);
 				} else {
 					if (sourceType.equals("file")) {
 						File file = new File(sourceValue);
@@ -186,6 +548,87 @@ public class Configuration extends ProducerConfiguration {
 		this.kafkaKey = kafkaKey;
 	}
 
+	public int getProducersPerTopic() {
+		return producersPerTopic;
+	}
+
+	/**
+	 * Sets how the key of each message is found, at most one of the arguments can be set
+	 * @param field the index of the field, from 0, or null
+	 * @param bytes the range of bytes, from-to, or null
+	 * @param regex the regular expression, or null
+	 * @throws ConfigurationException
+	 */
+	public final void setKey(String field, String bytes, String regex) throws ConfigurationException {
+		if ((field != null ? 1 : 0) + (bytes != null ? 1 : 0) + (regex != null ? 1 : 0) > 1) {
+			throw new ConfigurationException("only one of key.field, key.bytes and key.regex can be set", null);
+		}
+
+		keyField = -1;
+		keyBytesFrom = -1;
+		keyBytesTo = -1;
+		keyRegex = null;
+
+		try {
+			if (field != null) {
+				keyField = Integer.parseInt(field.trim());
+
+				if (keyField < 0) {
+					throw new ConfigurationException("key.field must be at least 0", null);
+				}
+			}
+
+			if (bytes != null) {
+				String[] range = bytes.trim().split("-", 2);
+
+				keyBytesFrom = Integer.parseInt(range[0].trim());
+				keyBytesTo = Integer.parseInt(range[1].trim());
+
+				if (keyBytesFrom < 0 || keyBytesTo <= keyBytesFrom) {
+					throw new ConfigurationException("key.bytes must be from-to, with to greater than from: " + bytes, null);
+				}
+			}
+
+			if (regex != null) {
+				keyRegex = Pattern.compile(regex);
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException | PatternSyntaxException e) {
+			throw new ConfigurationException("invalid key.field, key.bytes or key.regex", e);
+		}
+
+	}
+
+	/**
+	 * @return true if one of key.field, key.bytes and key.regex is set
+	 */
+	public boolean isKeyed() {
+		return keyField >= 0 || keyBytesFrom >= 0 || keyRegex != null;
+	}
+
+	public int getKeyField() {
+		return keyField;
+	}
+
+	public byte getKeyDelimiter() {
+		return keyDelimiter;
+	}
+
+	public int getKeyBytesFrom() {
+		return keyBytesFrom;
+	}
+
+	public int getKeyBytesTo() {
+		return keyBytesTo;
+	}
+
+	public Pattern getKeyRegex() {
+		return keyRegex;
+	}
+
+	public int getKeyRegexGroup() {
+		return keyRegexGroup;
+	}
+
 	public int getMaxLineLength() {
 		return maxLineLength;
 	}
@@ -210,4 +653,284 @@ public class Configuration extends ProducerConfiguration {
 		this.validateUtf8 = validateUtf8;
 	}
 
+	public String getFraming() {
+		return framing;
+	}
+
+	/**
+	 * Sets how messages are framed: delimiter, length-prefixed or octet-counting
+	 * @param framing
+	 * @throws ConfigurationException
+	 */
+	public final void setFraming(String framing) throws ConfigurationException {
+		framing = framing.trim().toLowerCase();
+
+		if (!framing.equals("delimiter") && !framing.equals("length-prefixed") && !framing.equals("octet-counting")) {
+			throw new ConfigurationException("framing must be delimiter, length-prefixed or octet-counting, not " + framing, null);
+		}
+
+		this.framing = framing;
+	}
+
+	public byte[] getLineDelimiter() {
+		return lineDelimiter;
+	}
+
+	public boolean isStripCarriageReturn() {
+		return stripCarriageReturn;
+	}
+
+	/**
+	 * Sets the multiline patterns, at most one of which may be given
+	 * @param start the pattern of lines that start an event, or null
+	 * @param continuation the pattern of lines that continue an event, or null
+	 * @throws ConfigurationException
+	 */
+	public final void setMultiline(String start, String continuation) throws ConfigurationException {
+		if (start != null && continuation != null) {
+			throw new ConfigurationException("only one of multiline.start and multiline.continuation can be set", null);
+		}
+
+		multilineStart = start == null ? null : new PrefixMatcher(start);
+		multilineContinuation = continuation == null ? null : new PrefixMatcher(continuation);
+	}
+
+	/**
+	 * @return the pattern of lines that start an event, or null
+	 */
+	public PrefixMatcher getMultilineStart() {
+		return multilineStart;
+	}
+
+	/**
+	 * @return the pattern of lines that continue an event, or null
+	 */
+	public PrefixMatcher getMultilineContinuation() {
+		return multilineContinuation;
+	}
+
+	public int getMultilineMaxBytes() {
+		return multilineMaxBytes;
+	}
+
+	public long getMultilineMaxWaitMs() {
+		return multilineMaxWaitMs;
+	}
+
+	/**
+	 * Compiles the filter rules of the topic, filter.&lt;rule&gt;.* and source.&lt;topic&gt;.filter.&lt;rule&gt;.*, in order of
+	 * their names
+	 * @param props
+	 * @throws ConfigurationException
+	 */
+	private void setLineFilter(Properties props) throws ConfigurationException {
+		Pattern rulePattern = Pattern.compile("^(?:source\\." + Pattern.quote(getTopicName()) + "\\.)?filter\\.([^\\.]+)\\.(contains|start)$");
+		Set<String> rules = new TreeSet<>();
+
+		for (String name : props.stringPropertyNames()) {
+			Matcher matcher = rulePattern.matcher(name);
+
+			if (matcher.find()) {
+				rules.add(matcher.group(1));
+			}
+		}
+
+		if (rules.isEmpty()) {
+			lineFilter = null;
+			return;
+		}
+
+		String[] names = rules.toArray(new String[rules.size()]);
+		boolean[] keep = new boolean[names.length];
+		byte[][] contains = new byte[names.length][];
+		PrefixMatcher[] starts = new PrefixMatcher[names.length];
+
+		for (int i = 0; i < names.length; i++) {
+			String contained = props.getProperty(getTopicAwarePropName("filter." + names[i] + ".contains"));
+			String start = props.getProperty(getTopicAwarePropName("filter." + names[i] + ".start"));
+			String action = props.getProperty(getTopicAwarePropName("filter." + names[i] + ".action"), "drop").trim().toLowerCase();
+
+			if (contained != null && start != null) {
+				throw new ConfigurationException("filter." + names[i] + " can not have both contains and start", null);
+			}
+
+			if (!action.equals("drop") && !action.equals("keep")) {
+				throw new ConfigurationException("filter." + names[i] + ".action must be drop or keep, not " + action, null);
+			}
+
+			keep[i] = action.equals("keep");
+
+			if (contained != null) {
+				contains[i] = unescape(contained);
+
+				if (contains[i].length == 0) {
+					throw new ConfigurationException("filter." + names[i] + ".contains can not be empty", null);
+				}
+			} else {
+				starts[i] = new PrefixMatcher(start);
+			}
+
+			LOG.info("filter {} {}s messages that {} {}", names[i], action, contained != null ? "contain" : "start with", contained != null ? contained : start);
+		}
+
+		lineFilter = new LineFilter(getTopicName(), names, keep, contains, starts);
+	}
+
+	/**
+	 * @return the filter messages have to pass to be sent, or null if there are no filter rules
+	 */
+	public LineFilter getLineFilter() {
+		return lineFilter;
+	}
+
+	public int getBatchLines() {
+		return batchLines;
+	}
+
+	public int getBatchMaxBytes() {
+		return batchMaxBytes;
+	}
+
+	public long getBatchLingerMs() {
+		return batchLingerMs;
+	}
+
+	public String getBatchFormat() {
+		return batchFormat;
+	}
+
+	public String getBatchTimestamp() {
+		return batchTimestamp;
+	}
+
+	/**
+	 * @return true if each message is to be sent with its own timestamp, rather than none or one for its batch
+	 */
+	public boolean isEncodeMessageTimestamp() {
+		return encodeTimestamp && (batchLines == 1 || batchTimestamp.equals("line"));
+	}
+
+	/**
+	 * @return the directory topics spill to, or null if they don't
+	 */
+	public String getSpillDir() {
+		return spillDir;
+	}
+
+	public long getSpillMaxBytes() {
+		return spillMaxBytes;
+	}
+
+	public long getSpillSegmentBytes() {
+		return spillSegmentBytes;
+	}
+
+	public long getSpillFsyncMs() {
+		return spillFsyncMs;
+	}
+
+	public int getSpillQueueMessages() {
+		return spillQueueMessages;
+	}
+
+	/**
+	 * @return the shed level from which the source sheds load, or 0 if it never does
+	 */
+	public int getShedPriority() {
+		return shedPriority;
+	}
+
+	public int getShedKeepOneIn() {
+		return shedKeepOneIn;
+	}
+
+	/**
+	 * @return true if messages are kept by the hash of their key while shedding, false if one in every n is kept
+	 */
+	public boolean isShedSampleHash() {
+		return shedSample.equals("hash");
+	}
+
+	public double getShedThreshold() {
+		return shedThreshold;
+	}
+
+	public long getShedCheckMs() {
+		return shedCheckMs;
+	}
+
+	/**
+	 * Sets the line delimiter from its name (lf, crlf or nul) or from an escaped byte sequence
+	 * @param name
+	 * @throws ConfigurationException
+	 */
+	public final void setLineDelimiter(String name) throws ConfigurationException {
+		stripCarriageReturn = false;
+
+		switch (name.trim().toLowerCase()) {
+			case "lf":
+				lineDelimiter = new byte[]{'\n'};
+				break;
+			case "crlf":
+				lineDelimiter = new byte[]{'\n'};
+				stripCarriageReturn = true;
+				break;
+			case "nul":
+				lineDelimiter = new byte[]{0};
+				break;
+			default:
+				lineDelimiter = unescape(name);
+		}
+
+		if (lineDelimiter.length == 0) {
+			throw new ConfigurationException("line.delimiter can not be empty", null);
+		}
+	}
+
+	/**
+	 * Converts a string with \n, \r, \t, \0, \\ and \xHH escapes to the bytes it represents (as UTF-8)
+	 */
+	static byte[] unescape(String value) throws ConfigurationException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try {
+			for (int i = 0; i < value.length(); i++) {
+				int c = value.codePointAt(i);
+
+				if (c != '\\' || i + 1 == value.length()) {
+					out.write(new String(Character.toChars(c)).getBytes("UTF-8"));
+					i += Character.charCount(c) - 1;
+					continue;
+				}
+
+				char escaped = value.charAt(++i);
+
+				switch (escaped) {
+					case 'n':
+						out.write('\n');
+						break;
+					case 'r':
+						out.write('\r');
+						break;
+					case 't':
+						out.write('\t');
+						break;
+					case '0':
+						out.write(0);
+						break;
+					case 'x':
+						out.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+						i += 2;
+						break;
+					default:
+						out.write(String.valueOf(escaped).getBytes("UTF-8"));
+				}
+			}
+		} catch (IOException | NumberFormatException | IndexOutOfBoundsException e) {
+			throw new ConfigurationException("invalid escape sequence: " + value, e);
+		}
+
+		return out.toByteArray();
+	}
+
 }
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames messages that start with a header holding their length, so the payload never has to be scanned.
+ *
+ * <p>A message that does not fit in the read buffer is sent in pieces as it arrives, the way lines longer than
+ * max.line.length are: the first piece when the buffer fills and the rest once the remaining bytes have arrived (or the
+ * buffer fills again).</p>
+ */
+public abstract class CountingFramer extends Framer {
+
+	protected int headerLength;
+	protected int messageLength;
+
+	// Bytes of a message that was too big for the read buffer that have not been sent yet
+	private int remaining;
+
+	/**
+	 * Parses the header at head into headerLength and messageLength
+	 * @param ring
+	 * @param head
+	 * @param count
+	 * @return false if more bytes are needed to parse the header
+	 */
+	protected abstract boolean parseHeader(ByteBuffer ring, int head, int count);
+
+	@Override
+	public boolean next(ByteBuffer ring, int head, int count) {
+		if (remaining > 0) {
+			if (count < remaining) {
+				return false;
+			}
+
+			payloadOffset = 0;
+			payloadLength = remaining;
+			frameLength = remaining;
+			remaining = 0;
+			return true;
+		}
+
+		if (!parseHeader(ring, head, count) || count - headerLength < messageLength) {
+			return false;
+		}
+
+		payloadOffset = headerLength;
+		payloadLength = messageLength;
+		frameLength = headerLength + messageLength;
+		return true;
+	}
+
+	@Override
+	public void overflow(ByteBuffer ring, int head, int count) {
+		if (remaining > 0) {
+			payloadOffset = 0;
+			payloadLength = count;
+			frameLength = count;
+			remaining -= count;
+			return;
+		}
+
+		// A full buffer always holds a complete header
+		parseHeader(ring, head, count);
+
+		payloadOffset = headerLength;
+		payloadLength = count - headerLength;
+		frameLength = count;
+		remaining = messageLength - payloadLength;
+	}
+
+	/**
+	 * Returns true while the rest of a message that was too big for the read buffer is still to come
+	 * @return
+	 */
+	protected boolean isSplitting() {
+		return remaining > 0;
+	}
+
+	@Override
+	public void reset() {
+		remaining = 0;
+	}
+
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Receives datagrams for a UDP source and sends each one as a message, there is no line splitting.
+ *
+ * <p>Datagrams are received into a direct buffer and copied from there straight into the send buffer.  Whenever the socket
+ * becomes readable every queued datagram is received before waiting again.  A datagram longer than max.line.length is sent
+ * in max.line.length pieces, like a line that is too long.</p>
+ */
+public class DatagramLogReader extends LogReader {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DatagramLogReader.class);
+
+	// Larger than the largest possible UDP payload, so a datagram is never truncated
+	private static final int MAX_DATAGRAM = 64 * 1024;
+
+	private final UdpSource source;
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+	private DatagramChannel channel;
+	private Selector selector;
+
+	public DatagramLogReader(UdpSource source) throws Exception {
+		super(source.getConf(), source.getSink());
+
+		this.source = source;
+
+		// Nothing is read into the read buffer
+		bytes = new byte[0];
+	}
+
+	@Override
+	protected void prepareSource() throws Exception {
+		channel = DatagramChannel.open();
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, source.getUdpReceiveBufferBytes());
+		channel.bind(new InetSocketAddress(source.getBindAddr(), source.getPort()));
+		channel.configureBlocking(false);
+
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+
+		int receiveBufferBytes = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+
+		if (receiveBufferBytes < source.getUdpReceiveBufferBytes()) {
+			LOG.warn("Receive buffer for {} is {} bytes, less than the {} configured (see net.core.rmem_max)", source, receiveBufferBytes, source.getUdpReceiveBufferBytes());
+		}
+
+		LOG.info("Listening for datagrams on {}:{} (with receive buffer of {} bytes)",
+			 source.getBindAddr().getHostAddress(),
+			 source.getPort(),
+			 receiveBufferBytes);
+
+		String dropsName = "klogger:topics:" + source.getTopic() + ":udp receive buffer drops";
+		MetricRegistry registry = MetricRegistrySingleton.getInstance().getMetricsRegistry();
+
+		if (!registry.getGauges().containsKey(dropsName)) {
+			registry.register(dropsName, new Gauge<Long>() {
+				@Override
+				public Long getValue() {
+					return getReceiveBufferDrops(source.getPort());
+				}
+
+			});
+		}
+	}
+
+	/**
+	 * Datagrams are received by readOnce()
+	 */
+	@Override
+	protected int readSource() throws Exception {
+		return 0;
+	}
+
+	/**
+	 * Waits for the socket to become readable, or for a pending multiline event to be due, and sends every datagram that can
+	 * be received without blocking
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	protected boolean readOnce() throws Exception {
+		selector.select(sendEventIfDue());
+		selector.selectedKeys().clear();
+
+		while (channel.receive(receiveBuffer) != null) {
+			receiveBuffer.flip();
+			markBytesReceived(receiveBuffer.remaining());
+
+			int limit = receiveBuffer.limit();
+
+			while (limit - receiveBuffer.position() > maxLine) {
+				receiveBuffer.limit(receiveBuffer.position() + maxLine);
+				totalLinesRead++;
+				sendMessage(receiveBuffer);
+				receiveBuffer.limit(limit);
+			}
+
+			totalLinesRead++;
+			sendMessage(receiveBuffer);
+			receiveBuffer.clear();
+		}
+
+		return true;
+	}
+
+	@Override
+	protected void finished() {
+		try {
+			if (selector != null) {
+				selector.close();
+			}
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			LOG.error("Error trying to close datagram channel: ", e);
+		}
+	}
+
+	/**
+	 * Returns how many datagrams the kernel has dropped for UDP sockets bound to a port because their receive buffer was full,
+	 * as reported by /proc/net/udp and /proc/net/udp6 (Linux only, 0 elsewhere)
+	 * @param port
+	 * @return
+	 */
+	static long getReceiveBufferDrops(int port) {
+		long drops = 0;
+
+		for (String table : new String[]{"/proc/net/udp", "/proc/net/udp6"}) {
+			Path path = Paths.get(table);
+
+			if (!Files.isReadable(path)) {
+				continue;
+			}
+
+			try {
+				List<String> lines = Files.readAllLines(path, Charset.forName("US-ASCII"));
+
+				// The first line is a header, the local address is the second field (address:port in hex) and drops the last one
+				for (int i = 1; i < lines.size(); i++) {
+					String[] fields = lines.get(i).trim().split("\\s+");
+					String localAddress = fields[1];
+
+					if (Integer.parseInt(localAddress.substring(localAddress.indexOf(':') + 1), 16) == port) {
+						drops += Long.parseLong(fields[fields.length - 1]);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				LOG.debug("Unable to read UDP drops from {}: {}", table, e);
+			}
+		}
+
+		return drops;
+	}
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Frames messages that are terminated by a delimiter of one or more bytes.
+ *
+ * <p>The buffer is searched eight bytes at a time for the last byte of the delimiter using long word arithmetic, only
+ * when it is found are the preceding bytes of a multi-byte delimiter compared.  Optionally a carriage return right before
+ * the delimiter is stripped from the payload, which turns "\n" framing into "\r\n" framing that also accepts bare
+ * newlines.</p>
+ */
+public class DelimiterFramer extends Framer {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private final byte[] delimiter;
+	private final byte terminator;
+	private final long pattern;
+	private final boolean stripCarriageReturn;
+
+	// How many of the unconsumed bytes are known not to complete a delimiter
+	private int scanned;
+
+	public DelimiterFramer(byte[] delimiter, boolean stripCarriageReturn) {
+		if (delimiter.length == 0) {
+			throw new IllegalArgumentException("The delimiter can not be empty");
+		}
+
+		this.delimiter = delimiter.clone();
+		this.terminator = delimiter[delimiter.length - 1];
+		this.pattern = (terminator & 0xFFL) * ONES;
+		this.stripCarriageReturn = stripCarriageReturn;
+	}
+
+	@Override
+	public boolean next(ByteBuffer ring, int head, int count) {
+		int capacity = ring.capacity();
+		int end = head + count;
+		int from = head + scanned;
+
+		// Positions are virtual (they keep growing past the end of the array) until they are used to index into it
+		while (from < end) {
+			int segmentEnd = from < capacity ? Math.min(end, capacity) : end;
+			int physical = from < capacity ? from : from - capacity;
+			int index = indexOf(ring, physical, physical + (segmentEnd - from));
+
+			if (index < 0) {
+				from = segmentEnd;
+				continue;
+			}
+
+			int terminator = from + (index - physical);
+
+			if (matchesDelimiter(ring, head, terminator)) {
+				int payloadEnd = terminator - (delimiter.length - 1);
+
+				if (stripCarriageReturn && payloadEnd > head && get(ring, 0, payloadEnd - 1) == '\r') {
+					payloadEnd--;
+				}
+
+				payloadOffset = 0;
+				payloadLength = payloadEnd - head;
+				frameLength = terminator + 1 - head;
+
+				// Nothing after the delimiter has been looked at yet
+				scanned = 0;
+
+				return true;
+			}
+
+			from = terminator + 1;
+		}
+
+		scanned = count;
+
+		return false;
+	}
+
+	/**
+	 * Checks that the bytes before the terminator, and within the current message, complete the delimiter
+	 */
+	private boolean matchesDelimiter(ByteBuffer ring, int head, int terminator) {
+		int first = terminator - (delimiter.length - 1);
+
+		if (first < head) {
+			return false;
+		}
+
+		for (int i = 0; i < delimiter.length - 1; i++) {
+			if (get(ring, 0, first + i) != delimiter[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the index of the first terminator byte in buffer[from, limit) or -1
+	 */
+	private int indexOf(ByteBuffer buffer, int from, int limit) {
+		boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+		int i = from;
+
+		while (i + 8 <= limit) {
+			// Sets the high bit of exactly the bytes that equal the terminator
+			long x = buffer.getLong(i) ^ pattern;
+			long found = ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+
+			if (found != 0) {
+				return i + ((littleEndian ? Long.numberOfTrailingZeros(found) : Long.numberOfLeadingZeros(found)) >>> 3);
+			}
+
+			i += 8;
+		}
+
+		for (; i < limit; i++) {
+			if (buffer.get(i) == terminator) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	@Override
+	public void reset() {
+		scanned = 0;
+	}
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches directories for file and glob sources on a single thread.
+ *
+ * <p>Each directory is registered once with one WatchService.  Every source in that directory is told about every file
+ * created, deleted or modified in it, and has to pick out the files it is interested in.</p>
+ */
+public class DirectoryWatcher implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+	private static DirectoryWatcher watcher;
+
+	private final WatchService service;
+	private final Map<Path, WatchKey> keys = new HashMap<>();
+	private final Map<WatchKey, List<Listener>> listeners = new HashMap<>();
+
+	/**
+	 * Told about the events in a watched directory, on the watcher's thread, so it must not block for long
+	 */
+	public interface Listener {
+
+		/**
+		 * @param kind ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY or OVERFLOW when events have been lost
+		 * @param file the absolute path of the file, or null for OVERFLOW
+		 */
+		public void fileEvent(Kind<?> kind, Path file);
+
+	}
+
+	public DirectoryWatcher() throws IOException {
+		service = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Returns the shared watcher, starting it if needed
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized DirectoryWatcher get() throws IOException {
+		if (watcher == null) {
+			watcher = new DirectoryWatcher();
+			Threads.start(watcher, "klogger-directory-watcher");
+		}
+
+		return watcher;
+	}
+
+	/**
+	 * Starts telling listener about the events in a directory, watching the directory if it isn't already
+	 * @param directory
+	 * @param listener
+	 * @throws IOException
+	 */
+	public synchronized void register(Path directory, Listener listener) throws IOException {
+		directory = directory.toAbsolutePath().normalize();
+
+		WatchKey key = keys.get(directory);
+
+		if (key == null) {
+			key = directory.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+			keys.put(directory, key);
+			listeners.put(key, new CopyOnWriteArrayList<Listener>());
+			LOG.info("Registered the watch service against the path {}", directory);
+		}
+
+		listeners.get(key).add(listener);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			WatchKey key;
+
+			try {
+				key = service.take();
+			} catch (InterruptedException ie) {
+				LOG.warn("Interrupted while waiting for directory events", ie);
+				continue;
+			}
+
+			List<Listener> keyListeners;
+
+			synchronized (this) {
+				keyListeners = listeners.get(key);
+			}
+
+			Path directory = (Path) key.watchable();
+
+			for (WatchEvent<?> watchEvent : key.pollEvents()) {
+				Kind<?> kind = watchEvent.kind();
+				Path file = OVERFLOW == kind ? null : directory.resolve((Path) watchEvent.context());
+
+				for (Listener listener : keyListeners) {
+					try {
+						listener.fileEvent(kind, file);
+					} catch (Throwable t) {
+						LOG.error("Error handling {} of {}: ", kind, file, t);
+					}
+				}
+			}
+
+			if (!key.reset()) {
+				LOG.warn("Directory {} can no longer be watched, it has probably been deleted", directory);
+
+				synchronized (this) {
+					keys.remove(directory);
+					listeners.remove(key);
+				}
+			}
+		}
+	}
+
+}
@@ -15,133 +15,103 @@
  */
 package com.blackberry.bdp.klogger;
 
-import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
-import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 
-import java.nio.file.FileSystem;
 import java.nio.file.Path;
-import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Starts the reader of a file source and wakes it whenever its file is created, deleted or modified.
+ *
+ * <p>The reader itself waits for the file to be created, follows it when it is rotated and reads the new file at the path
+ * afterwards.  A reader that has stopped, because reading failed, is replaced by a new one that starts from the persisted
+ * position when the file is next created or modified.  One that keeps failing is restarted at most once per second at
+ * first, then less and less often, up to once a minute.</p>
+ */
 public class FileListener implements Runnable {
 
-	private static final Logger LOG = LoggerFactory.getLogger(TcpListener.class);
+	private static final Logger LOG = LoggerFactory.getLogger(FileListener.class);
+	private static final long MIN_RESTART_DELAY_MS = 1000;
+	private static final long MAX_RESTART_DELAY_MS = 60000;
 
 	private final Configuration conf;
 	private final FileSource source;
 
+	private volatile FileLogReader logReader;
+	private Thread thread;
+	private long startedMs;
+	private long restartDelayMs = 0;
+
 	public FileListener(Configuration conf, FileSource source) {
 		this.conf = conf;
 		this.source = source;
 	}
 
-	private void chill(long ms) {
-		try {
-			Thread.sleep(ms);
-		} catch (InterruptedException ie) {
-			LOG.warn("interuped while sleeping: {}", ie);
-		}
-	}
-
-	private Thread startNewThread(FileLogReader logReader) throws Exception {
-		logReader.setFinished(false);
-		Thread thread = new Thread(logReader);
-		thread.start();
-		return thread;
-	}
-
 	@Override
 	public void run() {
 		try {
-			FileSystem fs = source.getParentDirectoryPath().getFileSystem();
-			LOG.info("File system object instantiated for parent dir path: {}", source.getParentDirectoryPath());
-			WatchService service = fs.newWatchService();
-			WatchKey key;
-
-			source.getParentDirectoryPath().register(service, ENTRY_CREATE, ENTRY_DELETE);
-
-			LOG.info("Registered the watch service against the path {}", source.getParentDirectoryPath());
-
-			FileLogReader logReader = new FileLogReader(source);
-
-			Thread thread = null;
-
-			if (source.getFile().exists()) {
-				LOG.info("Starting FileLogReader thread for file {}", source.getFile());
-				thread = startNewThread(logReader);
-			}
-
-			while (true) {
-				key = service.take();
-
-				Kind<?> kind;
-
-				for (WatchEvent<?> watchEvent : key.pollEvents()) {
-					kind = watchEvent.kind();
-
-					if (OVERFLOW == kind) {
-						continue;
-					} else {
-						if (ENTRY_CREATE == kind) {
-							Path path = ((WatchEvent<Path>) watchEvent).context();
-
-							if (!source.pathMatches(path)) {
-								continue;
-							}
-
-							LOG.info("The path that we're watching has been created: {}", path);
+			startReader();
+
+			DirectoryWatcher.get().register(source.getParentDirectoryPath(), new DirectoryWatcher.Listener() {
+				@Override
+				public void fileEvent(Kind<?> kind, Path file) {
+					// When events were lost (file is null) one of them may have been about our file
+					if (file == null || source.pathMatches(file)) {
+						if (kind != ENTRY_DELETE) {
+							restartReaderIfStopped();
+						}
 
-							chill(100);
+						logReader.wakeUp();
+					}
+				}
 
-							if (thread != null && thread.isAlive()) {
-								LOG.error("After watching {} file was created but the FileLogReader thread is still running", source.getFile());
-								logReader.setFinished(true);
-								while (thread.isAlive()) {
-								}
-								chill(100);
-							}
+			});
+		} catch (Exception e) {
+			LOG.error("Error in listening for file {}, error: {}", source.getFile(), e.getStackTrace());
+			System.exit(1);
+		}
+	}
 
-							source.setPosition(0);
-							thread = startNewThread(logReader);
+	/**
+	 * Returns a new reader for the file
+	 * @return
+	 * @throws Exception
+	 */
+	protected FileLogReader newReader() throws Exception {
+		return new FileLogReader(source);
+	}
 
-							LOG.info("File {} was created and the LogReaderThread has been started", source.getFile());
-						} else {
-							if (ENTRY_DELETE == kind) {
-								Path path = ((WatchEvent<Path>) watchEvent).context();
+	private synchronized void startReader() throws Exception {
+		logReader = newReader();
+		startedMs = System.currentTimeMillis();
 
-								if (!source.pathMatches(path)) {
-									continue;
-								}
+		LOG.info("Starting FileLogReader thread for file {}", source.getFile());
 
-								LOG.info("Our path was deleted and we need to stop our thread: {}", path);
+		thread = Threads.startReader(logReader, "klogger-" + source.getTopic() + "-" + source.getFile());
+	}
 
-								logReader.setFinished(true);
+	/**
+	 * Replaces the reader with a new one if it has stopped, and it isn't too soon after the last time
+	 */
+	private synchronized void restartReaderIfStopped() {
+		long now = System.currentTimeMillis();
 
-								while (thread.isAlive()) {
-								}
+		if (thread.isAlive() || now - startedMs < restartDelayMs) {
+			return;
+		}
 
-								logReader.getSource().setPosition(0);
-								logReader.persistPosition();
+		// Readers that keep failing soon after they were started are restarted less and less often
+		restartDelayMs = now - startedMs >= MAX_RESTART_DELAY_MS ? 0 : Math.min(Math.max(restartDelayMs * 2, MIN_RESTART_DELAY_MS), MAX_RESTART_DELAY_MS);
 
-								LOG.info("Resetting the position of file {} to zero", logReader.getSource());
-							}
-						}
-					}
-				}
+		LOG.warn("The reader of file {} has stopped, starting a new one", source.getFile());
 
-				if (!key.reset()) {
-					break; //loop
-				}
-			}
+		try {
+			startReader();
 		} catch (Exception e) {
-			LOG.error("Error in listening for file {}, error: {}", source.getFile(), e.getStackTrace());
-			System.exit(1);
+			LOG.error("Unable to start a new reader for file {}", source.getFile(), e);
 		}
 	}
 
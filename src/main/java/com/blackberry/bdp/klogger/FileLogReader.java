@@ -20,16 +20,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.attribute.BasicFileAttributes;
 
 public class FileLogReader extends LogReader {
@@ -39,94 +40,452 @@ public class FileLogReader extends LogReader {
 	private FileInputStream in;
 	private FileChannel channel;
 	private BasicFileAttributes bfa;
-	private final ByteBuffer buffer;
+	private ByteBuffer buffer;
+
+	// The file open may have been renamed or deleted since, it is told apart from the one at the path by its key (inode)
+	private String fileKey;
+	private String persistedFileKey;
+	private long lastReadMs;
+
+	// In mmap mode whole windows of the file are framed straight out of memory mappings of them, and what is left of it once
+	// there is less than a window is read through the read buffer
+	private boolean mmap;
+	// The end of the window being framed, while one is, which the file must still reach for a message read from it to be sent
+	private long mappedEnd = -1;
+
+	protected final FileTailWaiter tailWaiter;
+	private final CheckpointStore checkpoints;
 
 	private long persistLinesCounter = 0;
 	private long persisMsTimestamp = 0;
 
+	/**
+	 * Thrown when the file no longer reaches the end of the window being framed
+	 */
+	private static class TruncatedWhileMappedException extends IOException {
+
+		private TruncatedWhileMappedException(long size) {
+			super("Truncated to " + size + " bytes while mapped");
+		}
+
+	}
+
 	public FileLogReader(FileSource source) throws Exception {
-		super(source.getConf());
+		this(source, source.getSink());
+	}
 
-		this.source = source;
+	/**
+	 * Creates a file log reader that sends its messages to a sink other than the source's
+	 * @param source
+	 * @param sink
+	 * @throws Exception
+	 */
+	FileLogReader(FileSource source, MessageSink sink) throws Exception {
+		super(source.getConf(), sink);
 
-		buffer = ByteBuffer.wrap(bytes);
+		this.source = source;
+		this.tailWaiter = new FileTailWaiter(source.getFileEndReadMinDelayMs(), source.getFileEndReadDelayMs());
+		this.checkpoints = CheckpointStore.get(source.getPositonPersistCacheDir(), source.getPositionsCommitMs());
 	}
 
 	@Override
-	protected void prepareSource() throws FileNotFoundException, IOException {
-		LOG.info("Instantiating InputStream for {}", getSource().getFile());
+	protected void prepareSource() throws IOException {
+		if (!openFile()) {
+			LOG.info("File {} does not exist, waiting for it to be created", getSource().getFile());
+		}
+	}
+
+	/**
+	 * Opens the file at the path, unless the persisted position belongs to a file it was renamed from that is still in the
+	 * same directory, which is then read from that position to its end first.
+	 * @return false when there is no file at the path
+	 * @throws IOException
+	 */
+	private boolean openFile() throws IOException {
+		Path path = getSource().getFile().toPath();
+
+		try {
+			bfa = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException nsfe) {
+			return false;
+		}
 
-		in = new FileInputStream(getSource().getFile());
+		fileKey = getFileKey(bfa);
+		lastReadMs = System.currentTimeMillis();
+
+		long position = 0;
+
+		if (bfa.isRegularFile()) {
+			position = readPositionFromPersistCacheFile();
+
+			if (persistedFileKey != null && !persistedFileKey.equals(fileKey)) {
+				Path rotated = findFile(path.toAbsolutePath().getParent(), persistedFileKey);
+
+				if (rotated != null) {
+					LOG.info("File {} was rotated to {} before it was read to its end, reading that from position {} first", path, rotated, position);
+					path = rotated;
+					fileKey = persistedFileKey;
+				} else {
+					LOG.info("File {} was rotated since position {} was persisted, reading the new file from the start", path, position);
+					position = 0;
+				}
+			}
+		}
+
+		LOG.info("Instantiating InputStream for {}", path);
+
+		in = new FileInputStream(path.toFile());
 		channel = in.getChannel();
-		Path p = Paths.get(getSource().getFile().toURI());
-		bfa = Files.readAttributes(p, BasicFileAttributes.class);
 
 		if (bfa.isRegularFile()) {
-			setFileChannelPosition(readPositionFromPersistCacheFile());
+			setFileChannelPosition(position);
+			getSource().setPosition(position);
 			persisMsTimestamp = System.currentTimeMillis();
 		} else {
 			LOG.info("Not setting initial positon of non-regular file {}", getSource().getFile());
 		}
+
+		mmap = getSource().getFileReadMode().equals("mmap") && bfa.isRegularFile();
+
+		if (mmap) {
+			LOG.info("Reading {} through memory mapped windows of {} bytes", getSource().getFile(), getSource().getMmapWindowBytes());
+		} else if (getSource().getFileReadMode().equals("mmap")) {
+			LOG.info("Non-regular file {} can not be memory mapped, reading it instead", getSource().getFile());
+		}
+
+		return true;
 	}
 
 	/**
-	 * Reads from the file source.
-	 * Returns the number  of bytes read when there were bytes to have read
-	 * Return 0 (zero) if the FileChannel has reached the end of the stream
+	 * Returns the regular file in a directory that has a key, or null if there is none
+	 */
+	static Path findFile(Path directory, String key) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				BasicFileAttributes attributes;
+
+				try {
+					attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				} catch (NoSuchFileException nsfe) {
+					continue;
+				}
+
+				if (attributes.isRegularFile() && key.equals(getFileKey(attributes))) {
+					return file;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns what identifies a file whatever its name (its device and inode on Unix), or null where there is no such thing
+	 */
+	private static String getFileKey(BasicFileAttributes attributes) {
+		return attributes.fileKey() == null ? null : attributes.fileKey().toString();
+	}
+
+	/**
+	 * Returns the key of the file at a path, or null if there is none or no file
+	 * @param file
 	 * @return
 	 * @throws IOException
 	 */
-	@Override
-	protected int readSource() throws IOException {
-		buffer.position(start);
+	static String getFileKey(Path file) throws IOException {
+		try {
+			return getFileKey(Files.readAttributes(file, BasicFileAttributes.class));
+		} catch (NoSuchFileException nsfe) {
+			return null;
+		}
+	}
 
-		bytesRead = channel.read(buffer);
+	/**
+	 * @return the key of the file that is open, which may no longer be the one at the path, or null if none is
+	 */
+	String getOpenFileKey() {
+		return in != null ? fileKey : null;
+	}
 
-		if (bytesRead == -1) {
-			try {
-				Thread.sleep(getSource().getFileEndReadDelayMs());
-			} catch (InterruptedException ie) {
-				LOG.warn("{} Interrupted when waiting for end of file read delay", getSource());
-			}
+	/**
+	 * Closes the file, sending a last line that wasn't terminated as it is
+	 */
+	private void closeFile() throws Exception {
+		sendIncomplete();
+
+		// An event can not go on in another file
+		sendEvent();
+		resetFraming();
+		in.close();
+		in = null;
+		channel = null;
+	}
 
-			return 0;
+	/**
+	 * Called when everything in the open file has been read.  Once the file has been renamed or deleted, and nothing more
+	 * has been written to it for file.rotation.drain.ms, it is closed so the file now at the path (if any) is read next.
+	 * Otherwise waits at the end of the file.
+	 */
+	private void atEndOfFile() throws Exception {
+		if (!bfa.isRegularFile()) {
+			endOfFile();
+			return;
 		}
 
-		LOG.trace("Position in buffer is now: {}", buffer.position());
+		// Did our file get smaller?  (Reads at a position past its end just return -1)
+		if (channel.size() < channel.position()) {
+			truncated(channel.position());
+			return;
+		}
 
-		if (bfa.isRegularFile()) {
-			LOG.trace("Position in file is now: {}", channel.position());
+		updatePosition();
 
-			getSource().setPosition(channel.position());
+		if (fileKey != null && System.currentTimeMillis() - lastReadMs >= getSource().getRotationDrainMs()) {
+			String currentKey;
 
-			// Did our file get smaller?
-			if (channel.size() < getSource().getPosition()) {
-				LOG.warn("Truncated regular file {} detected, size is {} last position was {} -- resetting to positon zero", getSource().getFile(), channel.size(), getSource().getPosition());
-				channel.position(0);
-				getSource().setPosition(channel.size());
-				persistPosition();
+			try {
+				currentKey = getFileKey(Files.readAttributes(getSource().getFile().toPath(), BasicFileAttributes.class));
+			} catch (NoSuchFileException nsfe) {
+				currentKey = null;
 			}
 
-			// Do we need to persist our position in the cache?
-			if (System.currentTimeMillis() - persisMsTimestamp > getSource().getPositionPersistMs()
-				 || totalLinesRead - persistLinesCounter > getSource().getPositionPersistLines()) {
-				persistLinesCounter = 0;
-				persisMsTimestamp = System.currentTimeMillis();
+			if (!fileKey.equals(currentKey)) {
+				LOG.info("File {} was rotated or deleted and has been read to its end at position {}", getSource().getFile(), getSource().getPosition());
+
+				String closedKey = fileKey;
+				long end = channel.position();
+
+				closeFile();
+
+				// Whatever is at the path now is read from the start, even after a restart
+				getSource().setPosition(0);
 				persistPosition();
+				fileRotated(closedKey, end);
+
+				if (currentKey == null) {
+					fileDeleted();
+				} else {
+					tailWaiter.reset();
+				}
+
+				return;
 			}
+		}
+
+		endOfFile();
+	}
+
+	/**
+	 * Called when the file has been read to its end after it was deleted and no other file has taken its place yet, waits
+	 * for one to be created
+	 */
+	protected void fileDeleted() {
+		endOfFile();
+	}
+
+	/**
+	 * Called when a file that was renamed or deleted has been read to its end and closed
+	 * @param fileKey the key of the file
+	 * @param position where it was read to
+	 */
+	protected void fileRotated(String fileKey, long position) {
+	}
+
+	/**
+	 * Starts reading the file from its start again, after it was truncated (by copytruncate rotation, say) to less than
+	 * what has been read of it
+	 * @param position how far it had been read
+	 */
+	private void truncated(long position) throws Exception {
+		LOG.warn("Truncated regular file {} detected, size is {} last position was {} -- resetting to positon zero", getSource().getFile(), channel.size(), position);
+		channel.position(0);
+		sendEvent();
+		resetFraming();
+		getSource().setPosition(0);
+		persistPosition();
+	}
+
+	@Override
+	protected boolean readOnce() throws Exception {
+		sendEventIfDue();
+
+		if (in == null && !openFile()) {
+			endOfFile();
+			return true;
+		}
 
+		if (mmap && getUnconsumedBytes() == 0 && channel.size() - channel.position() >= getSource().getMmapWindowBytes()) {
+			return readWindow();
 		}
 
+		boolean more = super.readOnce();
+
+		if (in != null && bfa.isRegularFile()) {
+			updatePosition();
+			persistPositionIfDue();
+		}
+
+		return more;
+	}
+
+	/**
+	 * Maps the next mmap.window.bytes of the file from the first unsent byte, and frames and sends every message in them.
+	 * Only whole windows are mapped, and each of them once, so the growing end of the file is read through the read buffer
+	 * instead of being mapped again and again as it grows.  The bytes of an incomplete message at the end of the window are
+	 * read again, by the next window or the read buffer.
+	 */
+	private boolean readWindow() throws Exception {
+		long windowStart = channel.position();
+		MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, getSource().getMmapWindowBytes());
+		window.order(ByteOrder.nativeOrder());
+
+		LOG.trace("Mapped {} bytes of {} from position {}", window.limit(), getSource().getFile(), windowStart);
+
+		tailWaiter.reset();
+		lastReadMs = System.currentTimeMillis();
+
+		int consumed;
+
+		mappedEnd = windowStart + window.limit();
+
+		try {
+			consumed = sendFrames(window, 0, window.limit());
+
+			// What was framed after the last message was sent, the start of a multiline event say, is checked here
+			checkSource();
+		} catch (InternalError | TruncatedWhileMappedException e) {
+			// Accessing a mapping past the end of the file raises SIGBUS, which the JVM turns into an InternalError.  That
+			// only lands at the next safepoint and the bytes read until then are stale, which is why checkSource() is
+			// needed, and what has not been sent may have been read from them
+			discardEvent();
+			truncated(windowStart);
+			return true;
+		} finally {
+			mappedEnd = -1;
+		}
+
+		markBytesReceived(consumed);
+		channel.position(windowStart + consumed);
+
+		// The rest of the window is offered again from its start
+		resetFraming();
+
+		getSource().setPosition(windowStart + consumed - getPendingEventBytes());
+		persistPositionIfDue();
+
+		return true;
+	}
+
+	/**
+	 * Throws TruncatedWhileMappedException when a window is being framed and the file no longer reaches its end
+	 * @throws IOException
+	 */
+	@Override
+	protected void checkSource() throws IOException {
+		if (mappedEnd >= 0) {
+			long size = channel.size();
+
+			if (size < mappedEnd) {
+				throw new TruncatedWhileMappedException(size);
+			}
+		}
+	}
+
+	/**
+	 * Reads from the file source.
+	 * Returns the number  of bytes read when there were bytes to have read
+	 * Return 0 (zero) if the FileChannel has reached the end of the stream
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	protected int readSource() throws Exception {
+		if (buffer == null || buffer.array() != bytes) {
+			buffer = ByteBuffer.wrap(bytes);
+		}
+
+		buffer.clear();
+		buffer.position(getWriteOffset());
+		buffer.limit(getWriteOffset() + getWritableBytes());
+
+		bytesRead = channel.read(buffer);
+
+		if (bytesRead == -1) {
+			atEndOfFile();
+			return 0;
+		}
+
+		tailWaiter.reset();
+		lastReadMs = System.currentTimeMillis();
+
+		LOG.trace("Position in buffer is now: {}, in file: {}", buffer.position(), channel.position());
+
 		return bytesRead;
 	}
 
+	/**
+	 * Called when everything in the file has been read, waits until it is modified or the end of file read delay passes
+	 */
+	protected void endOfFile() {
+		try {
+			tailWaiter.await();
+		} catch (InterruptedException ie) {
+			LOG.warn("{} Interrupted when waiting for end of file read delay", getSource());
+		}
+	}
+
+	/**
+	 * Wakes the reader if it is waiting at the end of the file
+	 */
+	public void wakeUp() {
+		tailWaiter.wakeUp();
+	}
+
+	/**
+	 * Sets the source's position to just after the last message sent, in read mode the bytes of an incomplete one are still
+	 * in the read buffer.  Lines held in a multiline event are not sent yet either.
+	 */
+	private void updatePosition() throws IOException {
+		getSource().setPosition(channel.position() - getUnconsumedBytes() - getPendingEventBytes());
+	}
+
+	/**
+	 * Persists the position in the cache if file.position.persist.ms or file.position.persist.lines have passed
+	 */
+	private void persistPositionIfDue() {
+		if (System.currentTimeMillis() - persisMsTimestamp > getSource().getPositionPersistMs()
+			 || totalLinesRead - persistLinesCounter > getSource().getPositionPersistLines()) {
+			persistLinesCounter = totalLinesRead;
+			persisMsTimestamp = System.currentTimeMillis();
+			persistPosition();
+		}
+	}
+
 	@Override
 	protected void finished() {
 		LOG.info("Finished reading source {}", getSource());
 
+		if (in == null) {
+			return;
+		}
+
 		if (bfa.isRegularFile()) {
+			try {
+				updatePosition();
+			} catch (IOException ioe) {
+				LOG.error("Unable to get the position of {}: ", getSource().getFile(), ioe);
+			}
+
 			persistPosition();
 		}
+
+		try {
+			in.close();
+		} catch (IOException ioe) {
+			LOG.error("Unable to close {}: ", getSource().getFile(), ioe);
+		}
+
+		in = null;
 	}
 
 	public File getPositionPersistCacheFile() {
@@ -134,20 +493,18 @@ public class FileLogReader extends LogReader {
 	}
 
 	/**
-	 * Persists the file's position in the cache
+	 * Hands the position, with the key of the file it belongs to if it has one, to the checkpoint store to be committed
 	 */
 	public void persistPosition() {
-		File persistFile = getPositionPersistCacheFile();
-
-		try {
-			FileWriter writer = new FileWriter(persistFile, false);
-			writer.write(String.valueOf(getSource().getPosition()));
-			writer.close();
-			LOG.info("Wrote position {} to file {} for source {}", getSource().getPosition(), persistFile, getSource());
-		} catch (IOException ioe) {
-			LOG.error("Unable to write position {} to file {} for source {}, error: ", getSource().getPosition(), persistFile, getSource(), ioe);
+		checkpoints.update(getSource().getFile().toString(), getSource().getPosition(), in != null ? fileKey : null);
+		LOG.trace("Recorded position {} for source {}", getSource().getPosition(), getSource());
+	}
 
-		}
+	/**
+	 * Removes the file's position from the checkpoint store, once the file will no longer be read
+	 */
+	public void forgetPosition() {
+		checkpoints.remove(getSource().getFile().toString());
 	}
 
 	private void setFileChannelPosition(long position) throws IOException {
@@ -156,21 +513,38 @@ public class FileLogReader extends LogReader {
 	}
 
 	/**
-	 * Reads the position for source from the cache directory
-	 * Returns the position when the file exists, otherwise 0 (zero)
+	 * Reads the position for source from the checkpoint store, and the key of the file it belongs to into persistedFileKey
+	 * (null when there isn't one).  A position in the cache file that each source used to have is used if the store has none.
+	 * Returns the position when there is one, otherwise 0 (zero)
 	 * @return
 	 * @throws IOException
 	 */
 	private long readPositionFromPersistCacheFile() throws IOException {
+		CheckpointStore.Checkpoint checkpoint = checkpoints.get(getSource().getFile().toString());
+
+		if (checkpoint != null) {
+			persistedFileKey = checkpoint.getFileKey();
+			LOG.info("Read position {} of file {} for source {}", checkpoint.getPosition(), persistedFileKey, getSource());
+			return checkpoint.getPosition();
+		}
+
 		File persistFile = getPositionPersistCacheFile();
 
+		persistedFileKey = null;
+
 		if (!persistFile.exists()) {
 			return 0;
 		}
 
 		byte[] encoded = Files.readAllBytes(persistFile.toPath());
-		Long position = Long.parseLong(new String(encoded, Charset.forName("UTF-8")));
-		LOG.info("Read position {} from file {} for source {}", position, persistFile, getSource());
+		String[] lines = new String(encoded, Charset.forName("UTF-8")).split("\n", 2);
+		Long position = Long.parseLong(lines[0].trim());
+
+		if (lines.length > 1 && !lines[1].trim().isEmpty()) {
+			persistedFileKey = lines[1].trim();
+		}
+
+		LOG.info("Read position {} of file {} from file {} for source {}", position, persistedFileKey, persistFile, getSource());
 		return position;
 	}
 
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The threads that read the files of every glob source, file.reader.threads of them.
+ *
+ * <p>A file is read by whichever thread is free when it has been modified, or when its end of file read delay has passed,
+ * until it reaches the end of the file again.  Read and send buffers are pooled and UTF-8 validators belong to threads, so
+ * an idle file only costs its open channel.</p>
+ */
+public class FileReaderPool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileReaderPool.class);
+
+	private static FileReaderPool pool;
+
+	private final ScheduledThreadPoolExecutor executor;
+	private final BufferPool buffers;
+	private final ThreadLocal<UTF8Validator> utf8Validators = new ThreadLocal<UTF8Validator>() {
+		@Override
+		protected UTF8Validator initialValue() {
+			return new UTF8Validator();
+		}
+
+	};
+
+	public FileReaderPool(int threads) {
+		executor = new ScheduledThreadPoolExecutor(threads, Threads.factory("klogger-file-reader"));
+		executor.setRemoveOnCancelPolicy(true);
+		buffers = new BufferPool(16 * threads);
+	}
+
+	/**
+	 * Returns the shared pool, starting it if needed
+	 * @param threads the number of threads in the pool, only used when the pool is started
+	 * @return
+	 */
+	public static synchronized FileReaderPool get(int threads) {
+		if (pool == null) {
+			pool = new FileReaderPool(threads);
+			LOG.info("Started a pool of {} file reader threads", threads);
+		}
+
+		return pool;
+	}
+
+	/**
+	 * Runs a task on one of the pool's threads as soon as one is free
+	 * @param task
+	 */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Runs a task on one of the pool's threads once a delay has passed
+	 * @param task
+	 * @param delayMs
+	 * @return
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+		return executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the buffers
+	 */
+	public BufferPool getBuffers() {
+		return buffers;
+	}
+
+	/**
+	 * @return the UTF-8 validator of the calling thread
+	 */
+	public UTF8Validator getUtf8Validator() {
+		return utf8Validators.get();
+	}
+
+}
@@ -37,6 +37,9 @@ import org.slf4j.LoggerFactory;
  * <p>Note: this version has full support for both FIFO's and regular files, FIFO's will not persist positions within the cache.</p>
  * <p>Files do not need to exist to be supported.  As long as the parent directory exists then that directory will be watched for the creation of the file.</p>
  * <p>Files can be truncated or zeroed out and the position will move accordingly without interruption.</p>
+ * <p>Files are followed when they are renamed or deleted (rotated), and read to their end before the new file at their path
+ * is read.  Positions are persisted with the key (inode) of the file they belong to, so a file that was rotated while
+ * KLogger was not running is still read to its end, as long as it is in the same directory.</p>
  *
  * <h3>Valid properties are</h3>
  *
@@ -63,7 +66,37 @@ import org.slf4j.LoggerFactory;
  * <tr>
  * <td>file.stream.end.read.delay.ms</td>
  * <td>500</td>
- * <td>How long to wait after reaching the end of a file before another read is attempted (milliseconds)</td>
+ * <td>The longest wait after reaching the end of a file before another read is attempted (milliseconds).  Readers are woken as soon as the file is modified, this only bounds the wait on file systems that don't report modifications</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>file.stream.end.read.min.delay.ms</td>
+ * <td>1</td>
+ * <td>The first wait after reaching the end of a file, doubled after every empty read up to file.stream.end.read.delay.ms (milliseconds)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>file.rotation.drain.ms</td>
+ * <td>1000</td>
+ * <td>How long nothing must have been written to a file that was renamed or deleted before it is closed and the new file at its path is read (milliseconds)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>file.backpressure</td>
+ * <td>false</td>
+ * <td>When true, lines are never dropped because the producer's buffers are full (whatever queue.enqueue.timeout.ms is): the reader waits for the producer to accept each line before it reads on, so a slow Kafka shows up as the file being read later, and in the topic's "file backpressure paused ms" gauge.  These files get a producer of their own</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>file.read.mode</td>
+ * <td>read</td>
+ * <td>How regular files are read: read (through the read buffer) or mmap (lines are framed straight out of memory mapped windows of the file, which saves a copy and a system call per read when catching up on large files)</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>file.mmap.window.bytes</td>
+ * <td>67108864</td>
+ * <td>How much of a file is mapped at a time in mmap mode, at least max.line.length.  Only whole windows are mapped, the last less than a window of the file is read through the read buffer</td>
  * </tr>
  *
  * <tr>
@@ -72,10 +105,17 @@ import org.slf4j.LoggerFactory;
  * <td>The directory to persist the positions of files in</td>
  * </tr>
  *
+ * <tr>
+ * <td>file.positions.commit.ms</td>
+ * <td>1000</td>
+ * <td>How often the positions of all files are committed to the checkpoint log in file.positions.persist.cache.dir, with a single write and fsync (milliseconds)</td>
+ * </tr>
+ *
  * </table>
  *
  * <h3>Note: When file positions get persisted in the cache</h3>
  * <p>Whenever file.position.persist.ms time elapses or file.position.persist.lines have been read, the timer/counters are reset.  Which ever event occurs first will dictate when positions are cached and then each are reset.</p>
+ * <p>The position cached is just after the last line sent, so a restart resumes with the first line that wasn't.  Cached positions are committed to disk every file.positions.commit.ms, see CheckpointStore.</p>
  *
  */
 public class FileSource extends Source {
@@ -86,13 +126,40 @@ public class FileSource extends Source {
 	private long positionPersistLines = 1000;
 	private long position;
 	private String positonPersistCacheDir = "/opt/klogger/file_positions_cache";
+	private long positionsCommitMs = 1000;
 	private long fileEndReadDelayMs = 500;
+	private long fileEndReadMinDelayMs = 1;
+	private long rotationDrainMs = 1000;
+	private boolean backpressure = false;
+	private String fileReadMode = "read";
+	private int mmapWindowBytes = 64 * 1024 * 1024;
 
 	public FileSource(String path, String topic) {
 		super(topic);
 		this.file = new File(path);
 	}
 
+	/**
+	 * Creates the source of a file with the configuration, sinks and file properties of another, configured, file source.
+	 * Only the file and its position are its own.
+	 * @param path
+	 * @param settings
+	 */
+	FileSource(String path, FileSource settings) {
+		super(settings);
+		this.file = new File(path);
+		this.positionPersistMs = settings.positionPersistMs;
+		this.positionPersistLines = settings.positionPersistLines;
+		this.positonPersistCacheDir = settings.positonPersistCacheDir;
+		this.positionsCommitMs = settings.positionsCommitMs;
+		this.fileEndReadDelayMs = settings.fileEndReadDelayMs;
+		this.fileEndReadMinDelayMs = settings.fileEndReadMinDelayMs;
+		this.rotationDrainMs = settings.rotationDrainMs;
+		this.backpressure = settings.backpressure;
+		this.fileReadMode = settings.fileReadMode;
+		this.mmapWindowBytes = settings.mmapWindowBytes;
+	}
+
 	@Override
 	public Runnable getListener() {
 		return new FileListener(getConf(), this);
@@ -114,23 +181,49 @@ public class FileSource extends Source {
 	}
 
 	@Override
-	public void configure(Properties props) throws ConfigurationException, Exception {
-		super.configure(props);
+	protected void configure(Properties props, Configuration conf, TopicSinks sinks) throws ConfigurationException, Exception {
+		super.configure(props, conf, sinks);
 
 		String propPositionPersistLines = this.getConf().getTopicAwarePropName("file.position.persist.lines");
 		String propPositionPersistMs = this.getConf().getTopicAwarePropName("file.position.persist.ms");
 		String propFileEndReadDelayMs = this.getConf().getTopicAwarePropName("file.stream.end.read.delay.ms");
+		String propFileEndReadMinDelayMs = this.getConf().getTopicAwarePropName("file.stream.end.read.min.delay.ms");
+		String propBackpressure = this.getConf().getTopicAwarePropName("file.backpressure");
+		String propRotationDrainMs = this.getConf().getTopicAwarePropName("file.rotation.drain.ms");
 		String propPositonPersistCacheDir = "file.positions.persist.cache.dir";
+		String propFileReadMode = this.getConf().getTopicAwarePropName("file.read.mode");
+		String propMmapWindowBytes = this.getConf().getTopicAwarePropName("file.mmap.window.bytes");
 
 		positionPersistLines = Long.parseLong(props.getProperty(propPositionPersistLines, Long.toString(positionPersistLines)));
 		positionPersistMs = Long.parseLong(props.getProperty(propPositionPersistMs, Long.toString(positionPersistMs)));
 		positonPersistCacheDir = props.getProperty(propPositonPersistCacheDir, positonPersistCacheDir);
+		positionsCommitMs = Long.parseLong(props.getProperty("file.positions.commit.ms", Long.toString(positionsCommitMs)).trim());
 		fileEndReadDelayMs = Long.parseLong(props.getProperty(propFileEndReadDelayMs, Long.toString(fileEndReadDelayMs)));
+		fileEndReadMinDelayMs = Long.parseLong(props.getProperty(propFileEndReadMinDelayMs, Long.toString(fileEndReadMinDelayMs)));
+		rotationDrainMs = Long.parseLong(props.getProperty(propRotationDrainMs, Long.toString(rotationDrainMs)).trim());
+		backpressure = Boolean.parseBoolean(props.getProperty(propBackpressure, Boolean.toString(backpressure)).trim());
+		fileReadMode = props.getProperty(propFileReadMode, fileReadMode).trim().toLowerCase();
+		mmapWindowBytes = Math.max(Integer.parseInt(props.getProperty(propMmapWindowBytes, Integer.toString(mmapWindowBytes)).trim()), getConf().getMaxLineLength());
+
+		if (!fileReadMode.equals("read") && !fileReadMode.equals("mmap")) {
+			throw new ConfigurationException(propFileReadMode + " must be read or mmap, not " + fileReadMode, null);
+		}
 
 		LOG.info("{} configured {} = {}", this, propPositionPersistLines, positionPersistLines);
 		LOG.info("{} configured {} = {}", this, propPositionPersistMs, positionPersistMs);
 		LOG.info("{} configured {} = {}", this, propPositonPersistCacheDir, positonPersistCacheDir);
+		LOG.info("{} configured {} = {}", this, "file.positions.commit.ms", positionsCommitMs);
 		LOG.info("{} configured {} = {}", this, propFileEndReadDelayMs, fileEndReadDelayMs);
+		LOG.info("{} configured {} = {}", this, propFileEndReadMinDelayMs, fileEndReadMinDelayMs);
+		LOG.info("{} configured {} = {}", this, propRotationDrainMs, rotationDrainMs);
+		LOG.info("{} configured {} = {}", this, propBackpressure, backpressure);
+		LOG.info("{} configured {} = {}", this, propFileReadMode, fileReadMode);
+		LOG.info("{} configured {} = {}", this, propMmapWindowBytes, mmapWindowBytes);
+
+		if (backpressure) {
+			// These files get producers of their own, which never drop a line
+			getTopicSinks().setBlocking(props, -1, "file backpressure");
+		}
 	}
 
 	public File getFile() {
@@ -216,4 +309,60 @@ public class FileSource extends Source {
 		this.fileEndReadDelayMs = fileEndReadDelayMs;
 	}
 
+	/**
+	 * @return the positionsCommitMs
+	 */
+	public long getPositionsCommitMs() {
+		return positionsCommitMs;
+	}
+
+	/**
+	 * @return the backpressure
+	 */
+	public boolean isBackpressure() {
+		return backpressure;
+	}
+
+	/**
+	 * @return the rotationDrainMs
+	 */
+	public long getRotationDrainMs() {
+		return rotationDrainMs;
+	}
+
+	/**
+	 * @param rotationDrainMs the rotationDrainMs to set
+	 */
+	public void setRotationDrainMs(long rotationDrainMs) {
+		this.rotationDrainMs = rotationDrainMs;
+	}
+
+	/**
+	 * @return the fileEndReadMinDelayMs
+	 */
+	public long getFileEndReadMinDelayMs() {
+		return fileEndReadMinDelayMs;
+	}
+
+	/**
+	 * @param fileEndReadMinDelayMs the fileEndReadMinDelayMs to set
+	 */
+	public void setFileEndReadMinDelayMs(long fileEndReadMinDelayMs) {
+		this.fileEndReadMinDelayMs = fileEndReadMinDelayMs;
+	}
+
+	/**
+	 * @return the fileReadMode
+	 */
+	public String getFileReadMode() {
+		return fileReadMode;
+	}
+
+	/**
+	 * @return the mmapWindowBytes
+	 */
+	public int getMmapWindowBytes() {
+		return mmapWindowBytes;
+	}
+
 }
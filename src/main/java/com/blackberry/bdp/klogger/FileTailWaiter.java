@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+/**
+ * Decides how long a {@link FileLogReader} waits at the end of its file.
+ *
+ * <p>The reader is woken as soon as the {@link FileListener} sees the file modified.  Should those events never arrive
+ * (some network and FUSE file systems don't deliver them) the wait doubles after each empty read, from
+ * file.stream.end.read.min.delay.ms up to file.stream.end.read.delay.ms, and drops back to the minimum once data is read.</p>
+ */
+public class FileTailWaiter {
+
+	private final long minDelayMs;
+	private final long maxDelayMs;
+	private long delayMs;
+	private boolean woken = false;
+
+	public FileTailWaiter(long minDelayMs, long maxDelayMs) {
+		this.minDelayMs = Math.max(1, Math.min(minDelayMs, maxDelayMs));
+		this.maxDelayMs = Math.max(this.minDelayMs, maxDelayMs);
+		this.delayMs = this.minDelayMs;
+	}
+
+	/**
+	 * Wakes the reader if it is waiting, or makes its next wait return immediately if it is not
+	 */
+	public synchronized void wakeUp() {
+		woken = true;
+		notifyAll();
+	}
+
+	/**
+	 * To be called when data was read, so the next wait is the shortest one again
+	 */
+	public synchronized void reset() {
+		delayMs = minDelayMs;
+	}
+
+	/**
+	 * Waits until woken or for the current delay, whichever comes first, and backs off when not woken
+	 *
+	 * @return true when woken, false when the delay elapsed
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean await() throws InterruptedException {
+		long deadline = System.nanoTime() + delayMs * 1000000L;
+		long remainingNs;
+
+		while (!woken && (remainingNs = deadline - System.nanoTime()) > 0) {
+			wait(remainingNs / 1000000L, (int) (remainingNs % 1000000L));
+		}
+
+		if (woken) {
+			woken = false;
+			return true;
+		}
+
+		delayMs = Math.min(delayMs * 2, maxDelayMs);
+		return false;
+	}
+
+	/**
+	 * For readers that do not wait themselves: returns how long to wait and backs off, as if a wait had not been woken
+	 * @return the delay (milliseconds)
+	 */
+	public synchronized long backOff() {
+		long delay = delayMs;
+
+		delayMs = Math.min(delayMs * 2, maxDelayMs);
+		return delay;
+	}
+
+	/**
+	 * @return how long the next wait will last unless woken (milliseconds)
+	 */
+	public synchronized long getDelayMs() {
+		return delayMs;
+	}
+
+}
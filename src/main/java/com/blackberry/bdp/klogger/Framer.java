@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the bytes read from a source into messages.
+ *
+ * <p>Framers work on the circular read buffer of a LogReader: the unconsumed bytes start at head and may wrap around the
+ * end of the buffer.  All offsets a framer reports are relative to head.  The buffer is only accessed by absolute index,
+ * so it can be a view of a heap array or a direct (or memory mapped) buffer of any byte order.</p>
+ *
+ * <p>A framer is stateful and belongs to a single LogReader, it remembers how far into the unconsumed bytes it has already
+ * looked so that no byte is examined twice no matter how many reads it takes for a message to arrive.</p>
+ */
+public abstract class Framer {
+
+	protected int payloadOffset;
+	protected int payloadLength;
+	protected int frameLength;
+
+	/**
+	 * Creates the framer configured for the topic
+	 * @param conf
+	 * @return
+	 */
+	public static Framer forConfiguration(Configuration conf) {
+		switch (conf.getFraming()) {
+			case "length-prefixed":
+				return new LengthPrefixedFramer();
+			case "octet-counting":
+				return new OctetCountingFramer(conf.getLineDelimiter(), conf.isStripCarriageReturn());
+			default:
+				return new DelimiterFramer(conf.getLineDelimiter(), conf.isStripCarriageReturn());
+		}
+	}
+
+	/**
+	 * Looks for a complete message at the start of the count unconsumed bytes of the circular buffer ring, starting at
+	 * head.  When one is found its payload is the getPayloadLength() bytes starting getPayloadOffset() bytes after head and
+	 * getFrameLength() bytes are to be consumed.
+	 * @param ring
+	 * @param head
+	 * @param count
+	 * @return true if a complete message was found
+	 */
+	public abstract boolean next(ByteBuffer ring, int head, int count);
+
+	/**
+	 * Forgets everything about the unconsumed bytes, they were either sent or discarded
+	 */
+	public abstract void reset();
+
+	/**
+	 * Called when the ring is full and next() found no complete message, sets the frame to send right away to make room.
+	 * By default all of the bytes are sent as one message, the way lines longer than max.line.length always have been.
+	 * @param ring
+	 * @param head
+	 * @param count
+	 */
+	public void overflow(ByteBuffer ring, int head, int count) {
+		payloadOffset = 0;
+		payloadLength = count;
+		frameLength = count;
+		reset();
+	}
+
+	/**
+	 * Returns the byte offset bytes after head in the circular buffer ring
+	 */
+	protected static byte get(ByteBuffer ring, int head, int offset) {
+		int index = head + offset;
+
+		return ring.get(index < ring.capacity() ? index : index - ring.capacity());
+	}
+
+	public int getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+}
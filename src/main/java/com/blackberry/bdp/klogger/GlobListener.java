@@ -0,0 +1,313 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent.Kind;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts reading the files of a glob source as they appear, and forgets them once they have been deleted and read to their
+ * end.  Files are told apart by their key, so one renamed to a name that also matches is read on rather than again.
+ *
+ * <p>run() returns once the files that already exist are being read, the rest is done on the DirectoryWatcher's thread.</p>
+ */
+public class GlobListener implements Runnable, DirectoryWatcher.Listener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GlobListener.class);
+
+	// What takeOver() found of a file's key under the other names that match
+	private static final int NOT_FOUND = 0;
+	private static final int STILL_OPEN = 1;
+	private static final int TAKEN_OVER = 2;
+
+	private final GlobSource source;
+	private final ConcurrentHashMap<Path, PooledFileLogReader> readers = new ConcurrentHashMap<>();
+	// The positions that files which were renamed or deleted have been read to by their key, until they are taken over
+	private final ConcurrentHashMap<String, Long> rotated = new ConcurrentHashMap<>();
+	private FileReaderPool pool;
+
+	public GlobListener(GlobSource source) {
+		this.source = source;
+	}
+
+	@Override
+	public void run() {
+		try {
+			pool = FileReaderPool.get(source.getFileReaderThreads());
+
+			// Watch before listing, so a file created in between is not missed
+			DirectoryWatcher.get().register(source.getDirectory(), this);
+
+			scan();
+		} catch (Exception e) {
+			LOG.error("Error in listening for files matching {}: ", source.getGlob(), e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Starts reading every matching file that isn't being read already
+	 */
+	private void scan() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(source.getDirectory())) {
+			for (Path file : files) {
+				if (source.matches(file)) {
+					start(file, false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts reading a file unless it is already being read, or isn't a regular file.  A file that is still open under
+	 * another name that matches is left to the reader of that name to hand over once it has been read to its end, and one
+	 * that has been read to some position under another name is read on from there.
+	 * @param file
+	 * @param created true when the file has just been created, so it is read from the start rather than its persisted position
+	 */
+	private synchronized void start(Path file, boolean created) {
+		if (readers.containsKey(file) || !Files.isRegularFile(file)) {
+			return;
+		}
+
+		try {
+			String key = FileLogReader.getFileKey(file);
+
+			if (key != null) {
+				switch (takeOver(file, key)) {
+					case STILL_OPEN:
+						LOG.info("File {} is still being read under another name, it will be read on once that is done", file);
+						return;
+					case TAKEN_OVER:
+						created = false;
+						break;
+					default:
+						break;
+				}
+			}
+
+			PooledFileLogReader reader = newReader(file);
+
+			if (readers.putIfAbsent(file, reader) != null) {
+				return;
+			}
+
+			if (created) {
+				reader.getSource().setPosition(0);
+				reader.persistPosition();
+			}
+
+			LOG.info("Reading file {} for {}", file, source);
+
+			reader.wakeUp();
+		} catch (Exception e) {
+			LOG.error("Unable to start reading {} for {}: ", file, source, e);
+		}
+	}
+
+	/**
+	 * Creates the reader of a file
+	 * @param file
+	 * @return
+	 * @throws Exception
+	 */
+	protected PooledFileLogReader newReader(Path file) throws Exception {
+		return new PooledFileLogReader(source.newFileSource(file), pool, this);
+	}
+
+	/**
+	 * Looks for the file with a key under the other names that match: open in their reader, handed over by a reader that
+	 * has read it to its end, or in a checkpoint.  The position of one that isn't open is moved to the file's new name.
+	 * @param file
+	 * @param key
+	 * @return STILL_OPEN, TAKEN_OVER or NOT_FOUND
+	 * @throws IOException
+	 */
+	private int takeOver(Path file, String key) throws IOException {
+		// A reader has the key open for as long as it hasn't closed it in a turn, and hands it over in that same turn
+		for (PooledFileLogReader reader : readers.values()) {
+			synchronized (reader) {
+				if (key.equals(reader.getOpenFileKey())) {
+					return STILL_OPEN;
+				}
+			}
+		}
+
+		CheckpointStore checkpoints = source.getCheckpoints();
+
+		if (takeHandedOver(checkpoints, file, key)) {
+			return TAKEN_OVER;
+		}
+
+		for (Map.Entry<String, CheckpointStore.Checkpoint> entry : checkpoints.getByFileKey(key).entrySet()) {
+			Path previous = Paths.get(entry.getKey());
+
+			if (previous.equals(file) || !source.matches(previous)) {
+				continue;
+			}
+
+			PooledFileLogReader reader = readers.get(previous);
+
+			if (reader == null) {
+				moveCheckpoint(checkpoints, previous, file, key, entry.getValue().getPosition());
+				return TAKEN_OVER;
+			}
+
+			synchronized (reader) {
+				if (key.equals(reader.getOpenFileKey())) {
+					return STILL_OPEN;
+				}
+
+				CheckpointStore.Checkpoint checkpoint = checkpoints.get(previous.toString());
+
+				if (checkpoint != null && key.equals(checkpoint.getFileKey())) {
+					// The reader hasn't opened the file yet, it will read whatever is at its path from the start
+					moveCheckpoint(checkpoints, previous, file, key, checkpoint.getPosition());
+					return TAKEN_OVER;
+				}
+			}
+
+			// The reader has read the file to its end since the lookup, and handed it over
+			if (takeHandedOver(checkpoints, file, key)) {
+				return TAKEN_OVER;
+			}
+		}
+
+		return NOT_FOUND;
+	}
+
+	private boolean takeHandedOver(CheckpointStore checkpoints, Path file, String key) {
+		Long position = rotated.remove(key);
+
+		if (position == null) {
+			return false;
+		}
+
+		LOG.info("File {} was read to position {} under another name, reading it on from there", file, position);
+		checkpoints.update(file.toString(), position, key);
+		return true;
+	}
+
+	private void moveCheckpoint(CheckpointStore checkpoints, Path from, Path to, String key, long position) {
+		LOG.info("File {} was renamed to {}, reading it on from position {}", from, to, position);
+		checkpoints.update(to.toString(), position, key);
+		checkpoints.update(from.toString(), 0, null);
+	}
+
+	@Override
+	public void fileEvent(Kind<?> kind, Path file) {
+		if (OVERFLOW == kind) {
+			// Events were lost, some files may have been modified and some created
+			for (PooledFileLogReader reader : readers.values()) {
+				reader.wakeUp();
+			}
+
+			try {
+				scan();
+			} catch (IOException ioe) {
+				LOG.error("Unable to list {}: ", source.getDirectory(), ioe);
+			}
+
+			return;
+		}
+
+		if (!source.matches(file)) {
+			return;
+		}
+
+		PooledFileLogReader reader = readers.get(file);
+
+		if (reader != null) {
+			// A reader whose file was rotated or deleted reads it to its end, and then switches to a new file at the path
+			reader.wakeUp();
+		} else if (ENTRY_CREATE == kind) {
+			startLater(file, true);
+		} else if (ENTRY_MODIFY == kind) {
+			// Not read yet, it may have been created while the directory was being listed
+			startLater(file, false);
+		}
+	}
+
+	/**
+	 * Starts reading a file on a pool thread, as that may wait for a reader to finish its turn
+	 * @param file
+	 * @param created
+	 */
+	private void startLater(final Path file, final boolean created) {
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				start(file, created);
+			}
+		});
+	}
+
+	/**
+	 * Reads a file that has been read to its end under a name it was renamed from on from there, if it has been renamed to
+	 * a name that matches.  This is called in a turn of the reader, so the file is looked for on a pool thread.
+	 * @param key
+	 * @param position
+	 */
+	public void fileRotated(final String key, long position) {
+		rotated.put(key, position);
+
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Path file = FileLogReader.findFile(source.getDirectory(), key);
+
+					if (file != null && source.matches(file)) {
+						start(file, false);
+					}
+				} catch (IOException ioe) {
+					LOG.error("Unable to list {}: ", source.getDirectory(), ioe);
+				} finally {
+					// Not renamed to a name that matches, or taken over already
+					rotated.remove(key);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Forgets a reader that has read its file to the end after it was deleted, unless a new file has been created at the
+	 * path meanwhile, which is then read
+	 * @param file
+	 * @param reader
+	 */
+	public void fileDeleted(Path file, PooledFileLogReader reader) {
+		LOG.info("File {} was deleted and has been read to its end, it will no longer be read", file);
+
+		if (readers.remove(file, reader)) {
+			startLater(file, true);
+		}
+	}
+
+}
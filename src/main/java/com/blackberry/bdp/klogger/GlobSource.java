@@ -0,0 +1,156 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Every regular file in a directory whose name matches a glob, configured with
+ * source.&lt;<i>topic</i>&gt.glob=&lt;<i>directory</i>&gt/&lt;<i>glob</i>&gt (for example /var/log/app/*.log).
+ *
+ * <p>Only the file name may contain a glob (see FileSystem.getPathMatcher()), the directory must exist.  Files that
+ * appear later are picked up as they are created.  A file that is renamed to a name that still matches (app.log to
+ * app.log.1 under app.log*, say) is not read again from its start, it is read on from where it was read to under its old
+ * name.  Each file is read like a file source, with the same file properties,
+ * but by the threads of a shared pool rather than a thread of its own, so file.backpressure can not be set.  Every source
+ * in the same directory shares a single watch on it.  Each file tailed keeps a file descriptor open.  The only additional
+ * property is:</p>
+ *
+ * <table border="1">
+ *
+ * <tr>
+ * <th>property</th>
+ * <th>default</th>
+ * <th>description</th>
+ * </tr>
+ *
+ * <tr>
+ * <td>file.reader.threads</td>
+ * <td>the number of processors</td>
+ * <td>How many threads read the files of all glob sources, this can not be overwritten for a specific topic</td>
+ * </tr>
+ *
+ * </table>
+ */
+public class GlobSource extends Source {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GlobSource.class);
+
+	private final String glob;
+	private final Path directory;
+	private final PathMatcher matcher;
+	// The file properties, configuration and sinks that every file of the glob shares
+	private FileSource fileSettings;
+	private int fileReaderThreads = Runtime.getRuntime().availableProcessors();
+
+	public GlobSource(String glob, String topic) {
+		super(topic);
+		this.glob = glob;
+
+		Path path = Paths.get(glob).toAbsolutePath();
+
+		this.directory = path.getParent();
+		this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
+	}
+
+	@Override
+	public Runnable getListener() {
+		return new GlobListener(this);
+	}
+
+	@Override
+	public void configure(Properties props) throws ConfigurationException, Exception {
+		super.configure(props);
+
+		fileReaderThreads = Integer.parseInt(props.getProperty("file.reader.threads", Integer.toString(fileReaderThreads)).trim());
+
+		if (fileReaderThreads < 1) {
+			throw new ConfigurationException("file.reader.threads must be at least 1", null);
+		}
+
+		// A reader waiting for the producer would hold on to a pool thread, and a few of them could take every one
+		if (Boolean.parseBoolean(props.getProperty(getConf().getTopicAwarePropName("file.backpressure"), "false").trim())) {
+			throw new ConfigurationException("file.backpressure can not be used with glob sources, whose files share the threads of the file reader pool", null);
+		}
+
+		LOG.info("{} configured {} = {}", this, "file.reader.threads", fileReaderThreads);
+
+		fileSettings = new FileSource(glob, getTopic());
+		fileSettings.configure(props, getConf(), getTopicSinks());
+	}
+
+	/**
+	 * Returns whether a file in the source's directory matches the glob
+	 * @param file
+	 * @return
+	 */
+	public boolean matches(Path file) {
+		return file.getParent().equals(directory) && matcher.matches(file.getFileName());
+	}
+
+	/**
+	 * Creates the file source for one of the matching files, which shares the glob's configuration and sinks
+	 * @param file
+	 * @return
+	 */
+	public FileSource newFileSource(Path file) {
+		return new FileSource(file.toString(), fileSettings);
+	}
+
+	/**
+	 * Returns the store of the positions that the glob's files have been read to
+	 * @return
+	 * @throws IOException
+	 */
+	public CheckpointStore getCheckpoints() throws IOException {
+		return CheckpointStore.get(fileSettings.getPositonPersistCacheDir(), fileSettings.getPositionsCommitMs());
+	}
+
+	@Override
+	public String toString() {
+		return "GlobSource: topic=" + this.getTopic() + ", glob=" + this.getGlob();
+	}
+
+	/**
+	 * @return the glob
+	 */
+	public String getGlob() {
+		return glob;
+	}
+
+	/**
+	 * @return the directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the fileReaderThreads
+	 */
+	public int getFileReaderThreads() {
+		return fileReaderThreads;
+	}
+
+}
@@ -72,6 +72,8 @@ public class KLogger {
 			String snappyTempDir = props.getProperty("klogger.temp.dir", "/opt/klogger/tmp").trim();
 			System.setProperty("org.xerial.snappy.tempdir", snappyTempDir);
 
+			Threads.configure(props);
+
 			ArrayList<Source> sources = Configuration.getSources(props);
 
 			if (sources.isEmpty()) {
@@ -79,8 +81,7 @@ public class KLogger {
 			}
 
 			for (Source source : sources) {
-				Thread thread = new Thread(source.getListener());
-				thread.start();
+				Threads.start(source.getListener(), "klogger-" + source.getTopic() + "-listener");
 			}
 
 		} catch (Throwable t) {
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the key of a message, which decides the producer (and so the partition) it is sent to, without decoding it.
+ *
+ * <p>The key is a field (key.field, counted from 0, of fields separated by key.delimiter), a range of bytes (key.bytes)
+ * or a group of a regular expression (key.regex and key.regex.group).  The expression is matched against the bytes as
+ * ISO-8859-1 characters through a view of the message, so it should only use ASCII to match multibyte UTF-8 characters
+ * exactly, and the match is found with a matcher that is reset for each message.  An extractor is therefore not thread
+ * safe, each reader has its own.</p>
+ */
+public class KeyExtractor {
+
+	private final int field;
+	private final byte delimiter;
+	private final int from;
+	private final int to;
+	private final int group;
+	private final Bytes chars;
+	private final Matcher matcher;
+
+	private int keyOffset;
+	private int keyLength;
+
+	/**
+	 * A view of bytes as ISO-8859-1 characters, for the matcher to search
+	 */
+	private static class Bytes implements CharSequence {
+
+		private byte[] bytes;
+		private int offset;
+		private int length;
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes[offset + index] & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+		}
+
+	}
+
+	private KeyExtractor(int field, byte delimiter, int from, int to, Pattern regex, int group) {
+		this.field = field;
+		this.delimiter = delimiter;
+		this.from = from;
+		this.to = to;
+		this.group = group;
+
+		if (regex != null) {
+			chars = new Bytes();
+			matcher = regex.matcher(chars);
+		} else {
+			chars = null;
+			matcher = null;
+		}
+	}
+
+	/**
+	 * Returns an extractor of the field at an index
+	 * @param field the index of the field, from 0
+	 * @param delimiter the byte that separates fields
+	 * @return
+	 */
+	public static KeyExtractor forField(int field, byte delimiter) {
+		return new KeyExtractor(field, delimiter, -1, -1, null, 0);
+	}
+
+	/**
+	 * Returns an extractor of a range of bytes, which is cut short by shorter messages
+	 * @param from the offset of the first byte
+	 * @param to the offset after the last byte
+	 * @return
+	 */
+	public static KeyExtractor forRange(int from, int to) {
+		return new KeyExtractor(-1, (byte) 0, from, to, null, 0);
+	}
+
+	/**
+	 * Returns an extractor of a group of the first match of a regular expression
+	 * @param regex
+	 * @param group
+	 * @return
+	 */
+	public static KeyExtractor forRegex(Pattern regex, int group) {
+		return new KeyExtractor(-1, (byte) 0, -1, -1, regex, group);
+	}
+
+	/**
+	 * Returns an extractor for the key properties of a configuration
+	 * @param conf
+	 * @return the extractor, or null if none of key.field, key.bytes and key.regex is set
+	 */
+	public static KeyExtractor forConfiguration(Configuration conf) {
+		if (conf.getKeyField() >= 0) {
+			return forField(conf.getKeyField(), conf.getKeyDelimiter());
+		}
+
+		if (conf.getKeyBytesFrom() >= 0) {
+			return forRange(conf.getKeyBytesFrom(), conf.getKeyBytesTo());
+		}
+
+		if (conf.getKeyRegex() != null) {
+			return forRegex(conf.getKeyRegex(), conf.getKeyRegexGroup());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Finds the key of a message, see getKeyOffset() and getKeyLength()
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return false if the message has no key: it has too few fields, is too short or doesn't match
+	 */
+	public boolean extract(byte[] bytes, int offset, int length) {
+		if (matcher != null) {
+			return extractMatch(bytes, offset, length);
+		}
+
+		if (from >= 0) {
+			if (length <= from) {
+				return false;
+			}
+
+			keyOffset = offset + from;
+			keyLength = Math.min(to, length) - from;
+			return true;
+		}
+
+		int end = offset + length;
+		int start = offset;
+
+		for (int skipped = 0; skipped < field; skipped++) {
+			while (start < end && bytes[start] != delimiter) {
+				start++;
+			}
+
+			if (start == end) {
+				return false;
+			}
+
+			start++;
+		}
+
+		int stop = start;
+
+		while (stop < end && bytes[stop] != delimiter) {
+			stop++;
+		}
+
+		keyOffset = start;
+		keyLength = stop - start;
+		return true;
+	}
+
+	private boolean extractMatch(byte[] bytes, int offset, int length) {
+		chars.bytes = bytes;
+		chars.offset = offset;
+		chars.length = length;
+		matcher.reset();
+
+		boolean found = matcher.find() && matcher.start(group) >= 0;
+
+		if (found) {
+			keyOffset = offset + matcher.start(group);
+			keyLength = matcher.end(group) - matcher.start(group);
+		}
+
+		// Don't keep the message alive
+		chars.bytes = null;
+		return found;
+	}
+
+	/**
+	 * @return the offset of the key found by the last call to extract()
+	 */
+	public int getKeyOffset() {
+		return keyOffset;
+	}
+
+	/**
+	 * @return the length of the key found by the last call to extract()
+	 */
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	/**
+	 * Hashes a key, the same way for the same bytes wherever they are
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static int hash(byte[] bytes, int offset, int length) {
+		int hash = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+
+		// Spread the low bits, which pick the producer, over the whole key
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+
+		return hash;
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+/**
+ * Sends each message to one of the topic's producers.per.topic sinks, picked by the hash of its key, so that every message
+ * with the same key goes to the same producer and partition, in order.
+ *
+ * <p>Krackle producers partition by a key that is fixed when they are created, so the sinks are the topic's producers (or
+ * their batches), each with its own key.  Messages without a key go to the sink the reader would have had otherwise.
+ * The key is found in the message after its timestamp, if one is encoded.  Each reader has its own keyed sink, as the key
+ * extractor is not thread safe.</p>
+ */
+public class KeyedSink implements MessageSink {
+
+	private final KeyExtractor extractor;
+	private final MessageSink[] sinks;
+	private final MessageSink unkeyed;
+	private final int headerBytes;
+
+	/**
+	 * @param extractor
+	 * @param sinks the sinks, the producers in order
+	 * @param unkeyed where to send messages that have no key
+	 * @param headerBytes how many bytes before the message the key is extracted from, the encoded timestamp
+	 */
+	public KeyedSink(KeyExtractor extractor, MessageSink[] sinks, MessageSink unkeyed, int headerBytes) {
+		this.extractor = extractor;
+		this.sinks = sinks;
+		this.unkeyed = unkeyed;
+		this.headerBytes = headerBytes;
+	}
+
+	@Override
+	public void send(byte[] buffer, int offset, int length) throws Exception {
+		MessageSink sink = unkeyed;
+
+		if (extractor.extract(buffer, offset + headerBytes, length - headerBytes)) {
+			int hash = KeyExtractor.hash(buffer, extractor.getKeyOffset(), extractor.getKeyLength());
+
+			sink = sinks[(hash & Integer.MAX_VALUE) % sinks.length];
+		}
+
+		sink.send(buffer, offset, length);
+	}
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames messages that are each preceded by their length as a four byte, big endian (network byte order) integer.
+ *
+ * <p>Payloads can hold any bytes, including delimiters.  A negative length is a protocol error that ends the reader.</p>
+ */
+public class LengthPrefixedFramer extends CountingFramer {
+
+	public static final int HEADER_LENGTH = 4;
+
+	@Override
+	protected boolean parseHeader(ByteBuffer ring, int head, int count) {
+		if (count < HEADER_LENGTH) {
+			return false;
+		}
+
+		int length = (get(ring, head, 0) & 0xFF) << 24
+			 | (get(ring, head, 1) & 0xFF) << 16
+			 | (get(ring, head, 2) & 0xFF) << 8
+			 | (get(ring, head, 3) & 0xFF);
+
+		if (length < 0) {
+			throw new IllegalArgumentException("Invalid message length " + (length & 0xFFFFFFFFL));
+		}
+
+		headerLength = HEADER_LENGTH;
+		messageLength = length;
+		return true;
+	}
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which messages are sent and which are dropped, by rules that each match messages that contain a string
+ * (filter.&lt;rule&gt;.contains) or that start with a prefix pattern (filter.&lt;rule&gt;.start, see PrefixMatcher).
+ *
+ * <p>A message that matches a drop rule is dropped.  When there are keep rules, a message that matches none of them is
+ * dropped as well.  Everything else is sent.  The strings of all the rules are found in a single pass over a message by a
+ * SubstringMatcher, which stops at the first drop string it finds, and prefix patterns only look at the start of it, so
+ * filtering neither allocates nor decodes messages.  Each rule counts the messages it decided in a "filter &lt;rule&gt;
+ * hits" counter for the topic, and messages that no keep rule matched are counted by "filter unkept".  A filter is
+ * immutable and may be shared by the readers of a topic.</p>
+ */
+public class LineFilter {
+
+	// The strings of the drop rules come before those of the keep rules, so finding one is finding the other's priority
+	private final SubstringMatcher strings;
+	private final Counter[] stringHits;
+	private final int dropStrings;
+	private final int stopBelow;
+	private final PrefixMatcher[] dropStarts;
+	private final Counter[] dropStartHits;
+	private final PrefixMatcher[] keepStarts;
+	private final Counter[] keepStartHits;
+	private final boolean keeping;
+	private final Counter unkept;
+
+	/**
+	 * @param topic the topic the counters are for
+	 * @param names the name of each rule
+	 * @param keep whether each rule keeps messages, rather than dropping them
+	 * @param contains the string each rule finds, or null for a rule with a prefix pattern
+	 * @param starts the prefix pattern of each rule, or null for a rule with a string
+	 */
+	public LineFilter(String topic, String[] names, boolean[] keep, byte[][] contains, PrefixMatcher[] starts) {
+		MetricRegistry registry = MetricRegistrySingleton.getInstance().getMetricsRegistry();
+		List<byte[]> stringList = new ArrayList<>();
+		List<Counter> stringCounters = new ArrayList<>();
+		List<PrefixMatcher> dropStartList = new ArrayList<>();
+		List<Counter> dropStartCounters = new ArrayList<>();
+		List<PrefixMatcher> keepStartList = new ArrayList<>();
+		List<Counter> keepStartCounters = new ArrayList<>();
+		int drops = 0;
+		boolean keeps = false;
+
+		for (int i = 0; i < names.length; i++) {
+			Counter hits = registry.counter("klogger:topics:" + topic + ":filter " + names[i] + " hits");
+
+			keeps |= keep[i];
+
+			if (contains[i] == null) {
+				(keep[i] ? keepStartList : dropStartList).add(starts[i]);
+				(keep[i] ? keepStartCounters : dropStartCounters).add(hits);
+			} else if (keep[i]) {
+				stringList.add(contains[i]);
+				stringCounters.add(hits);
+			} else {
+				stringList.add(drops, contains[i]);
+				stringCounters.add(drops, hits);
+				drops++;
+			}
+		}
+
+		strings = stringList.isEmpty() ? null : new SubstringMatcher(stringList.toArray(new byte[stringList.size()][]));
+		stringHits = stringCounters.toArray(new Counter[stringCounters.size()]);
+		dropStrings = drops;
+		// Without drop strings the first keep string found decides
+		stopBelow = drops > 0 ? drops : stringList.size();
+		dropStarts = dropStartList.toArray(new PrefixMatcher[dropStartList.size()]);
+		dropStartHits = dropStartCounters.toArray(new Counter[dropStartCounters.size()]);
+		keepStarts = keepStartList.toArray(new PrefixMatcher[keepStartList.size()]);
+		keepStartHits = keepStartCounters.toArray(new Counter[keepStartCounters.size()]);
+		keeping = keeps;
+		unkept = registry.counter("klogger:topics:" + topic + ":filter unkept");
+	}
+
+	/**
+	 * Decides whether a message (which may be split in two, see PrefixMatcher) is sent
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param wrappedLength
+	 * @return false if it has to be dropped
+	 */
+	public boolean accept(byte[] bytes, int offset, int length, int wrappedLength) {
+		for (int i = 0; i < dropStarts.length; i++) {
+			if (dropStarts[i].matches(bytes, offset, length, wrappedLength)) {
+				dropStartHits[i].inc();
+				return false;
+			}
+		}
+
+		int found = strings == null ? -1 : strings.find(bytes, offset, length, wrappedLength, stopBelow);
+
+		if (found >= 0) {
+			stringHits[found].inc();
+			return found >= dropStrings;
+		}
+
+		if (!keeping) {
+			return true;
+		}
+
+		for (int i = 0; i < keepStarts.length; i++) {
+			if (keepStarts[i].matches(bytes, offset, length, wrappedLength)) {
+				keepStartHits[i].inc();
+				return true;
+			}
+		}
+
+		unkept.inc();
+		return false;
+	}
+
+	/**
+	 * Decides whether the remaining bytes of a buffer, which is only accessed by absolute index, are sent
+	 * @param buffer
+	 * @return false if they have to be dropped
+	 */
+	public boolean accept(ByteBuffer buffer) {
+		for (int i = 0; i < dropStarts.length; i++) {
+			if (dropStarts[i].matches(buffer)) {
+				dropStartHits[i].inc();
+				return false;
+			}
+		}
+
+		int found = strings == null ? -1 : strings.find(buffer, stopBelow);
+
+		if (found >= 0) {
+			stringHits[found].inc();
+			return found >= dropStrings;
+		}
+
+		if (!keeping) {
+			return true;
+		}
+
+		for (int i = 0; i < keepStarts.length; i++) {
+			if (keepStarts[i].matches(buffer)) {
+				keepStartHits[i].inc();
+				return true;
+			}
+		}
+
+		unkept.inc();
+		return false;
+	}
+
+}
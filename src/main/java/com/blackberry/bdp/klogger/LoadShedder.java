@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides how many priorities of sources shed load, from how long the producers make senders wait.
+ *
+ * <p>Every shed.check.ms the share of that time senders spent waiting for the busiest producer is compared with
+ * shed.threshold.  At or above it the shed level goes up by one, below half of it the level goes down by one, and in
+ * between it stays where it is.  Sources with a shed.priority from 1 to the level shed load (see SheddingSink), so
+ * priority 1 sources shed first and each further check that finds the producers overloaded adds the next priority.
+ * Sources with priority 0 never shed.  The level is exposed as the "klogger:total:shed level" gauge and the share as
+ * "klogger:total:producer wait share".</p>
+ */
+public class LoadShedder {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LoadShedder.class);
+	private static final Object lock = new Object();
+
+	private static ScheduledExecutorService checker;
+	private static int maxLevel = 0;
+	private static volatile int level = 0;
+	private static volatile double waitShare = 0;
+
+	private LoadShedder() {
+	}
+
+	/**
+	 * Includes a priority in the levels and starts checking the producers if that hasn't been started yet
+	 * @param conf the configuration of a source with a shed.priority greater than 0
+	 */
+	public static void register(Configuration conf) {
+		synchronized (lock) {
+			maxLevel = Math.max(maxLevel, conf.getShedPriority());
+
+			if (checker != null) {
+				return;
+			}
+
+			final long checkNanos = TimeUnit.MILLISECONDS.toNanos(conf.getShedCheckMs());
+			final double threshold = conf.getShedThreshold();
+
+			ProducerSink.timeSends();
+
+			MetricRegistry registry = MetricRegistrySingleton.getInstance().getMetricsRegistry();
+
+			registry.register("klogger:total:shed level", new Gauge<Integer>() {
+				@Override
+				public Integer getValue() {
+					return level;
+				}
+
+			});
+			registry.register("klogger:total:producer wait share", new Gauge<Double>() {
+				@Override
+				public Double getValue() {
+					return waitShare;
+				}
+
+			});
+
+			checker = Executors.newSingleThreadScheduledExecutor(Threads.factory("klogger-shed-check"));
+			checker.scheduleWithFixedDelay(new Runnable() {
+				private long last = System.nanoTime();
+
+				@Override
+				public void run() {
+					long now = System.nanoTime();
+
+					check(ProducerSink.takeWaitShare(now - last), threshold);
+					last = now;
+				}
+
+			}, checkNanos, checkNanos, TimeUnit.NANOSECONDS);
+
+			LOG.info("Shedding load when senders wait for producers {} of the time, checked every {} ms", threshold, conf.getShedCheckMs());
+		}
+	}
+
+	private static void check(double share, double threshold) {
+		int next;
+
+		synchronized (lock) {
+			next = nextLevel(level, share, threshold, maxLevel);
+		}
+
+		if (next != level) {
+			LOG.warn("Senders waited for producers {} of the time, shed level {} is now {}", share, level, next);
+		}
+
+		waitShare = share;
+		level = next;
+	}
+
+	/**
+	 * Returns the shed level that follows a check
+	 * @param level the level before the check
+	 * @param share the share of time that senders waited for the busiest producer
+	 * @param threshold shed.threshold
+	 * @param maxLevel the highest shed.priority
+	 * @return
+	 */
+	static int nextLevel(int level, double share, double threshold, int maxLevel) {
+		if (share >= threshold) {
+			return Math.min(level + 1, maxLevel);
+		}
+
+		if (share < threshold / 2) {
+			return Math.max(level - 1, 0);
+		}
+
+		return level;
+	}
+
+	/**
+	 * @return how many priorities of sources shed load, 0 when none do
+	 */
+	public static int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Sets the level, for tests
+	 * @param level
+	 */
+	static void setLevel(int level) {
+		LoadShedder.level = level;
+	}
+
+}
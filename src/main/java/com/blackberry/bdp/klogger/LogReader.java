@@ -17,71 +17,82 @@ package com.blackberry.bdp.klogger;
 
 import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteOrder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.blackberry.bdp.krackle.producer.Producer;
 import com.codahale.metrics.Meter;
 
 public abstract class LogReader implements Runnable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(ServerSocketLogReader.class);
-	private static final Object producersLock = new Object();
-	private static final Map<String, Producer> producers = new HashMap<>();
+	private static final byte[] TIMESTAMP_MAGIC = new byte[]{(byte) 0xFE, 0x00};
 
 	private Boolean finished = false;
 
-	private final Producer producer;
+	private final MessageSink sink;
 	private final boolean encodeTimestamp;
 	private final boolean validateUTF8;
 	private final Meter mBytesReceived;
 	private final Meter mBytesReceivedTotal;
 	private final Meter mLinesReceived;
 	private final Meter mLinesReceivedTotal;
+	private final Framer framer;
+	private final MultilineAggregator multiline;
+	private final LineFilter filter;
+
+	private UTF8Validator utf8Validator;
+	private byte[] sendBytes;
+	private ByteBuffer sendBuffer;
 
 	protected final int maxLine;
-	protected int start = 0;
-	protected int limit;
-	protected int newline;
 	protected int bytesRead;
 	protected long totalLinesRead = 0;
+
+	// Allocated by run(), unless a subclass provides it before then
 	protected byte[] bytes;
 	protected Configuration conf;
 
+	// The read buffer is circular, the unconsumed bytes start at head and may wrap around the end of it
+	private ByteBuffer ring;
+	private int head = 0;
+	private int count = 0;
+
+	// How many bytes have been framed and consumed, used to tell how many of them a pending multiline event holds
+	private long framedBytes = 0;
+
 	public void setFinished(Boolean state) {
 		this.finished = state;
 	}
 
 	public LogReader(Configuration conf) throws Exception {
+		this(conf, ProducerSink.get(conf));
+	}
+
+	/**
+	 * Creates a log reader that hands every message to the provided sink instead of the shared Krackle producer for the topic
+	 * @param conf
+	 * @param sink
+	 * @throws Exception
+	 */
+	protected LogReader(Configuration conf, MessageSink sink) throws Exception {
 		this.conf = conf;
+		this.sink = sink;
 
 		//LOG.info("Created new {} for connection {}", this.getClass().getName(), source);
 		maxLine = conf.getMaxLineLength();
-		encodeTimestamp = conf.isEncodeTimestamp();
+		encodeTimestamp = conf.isEncodeMessageTimestamp();
 		validateUTF8 = conf.isValidateUtf8();
 
-		String clientId = conf.getClientId();
-		String key = conf.getKafkaKey();
 		String topic = conf.getTopicName();
 
-		bytes = new byte[maxLine];
+		framer = Framer.forConfiguration(conf);
+		multiline = MultilineAggregator.forConfiguration(conf);
+		filter = conf.getLineFilter();
 
 		MetricRegistrySingleton.getInstance().enableJmx();
 
-		synchronized (producersLock) {
-			String mapKey = clientId + "::" + topic + "::" + key;
-
-			if (producers.containsKey(mapKey)) {
-				producer = producers.get(mapKey);
-			} else {
-				producer = new Producer(conf, clientId, conf.getTopicName(), key, MetricRegistrySingleton.getInstance().getMetricsRegistry());
-				producers.put(mapKey, producer);
-			}
-		}
-
 		mBytesReceived = MetricRegistrySingleton.getInstance().getMetricsRegistry().meter("klogger:topics:" + topic + ":bytes received");
 		mBytesReceivedTotal = MetricRegistrySingleton.getInstance().getMetricsRegistry().meter("klogger:total:bytes received");
 		mLinesReceived = MetricRegistrySingleton.getInstance().getMetricsRegistry().meter("klogger:topics:" + topic + ":lines received");
@@ -94,168 +105,482 @@ public abstract class LogReader implements Runnable {
 
 	protected abstract void finished();
 
-	@Override
-	public void run() {
-		UTF8Validator utf8Validator = null;
+	/**
+	 * Returns the offset in bytes that the next read from the source should write to
+	 * @return
+	 */
+	protected int getWriteOffset() {
+		int tail = head + count;
 
-		if (validateUTF8) {
-			utf8Validator = new UTF8Validator();
+		return tail < maxLine ? tail : tail - maxLine;
+	}
+
+	/**
+	 * Returns how many bytes the next read from the source may write, contiguously, starting at the write offset
+	 * @return
+	 */
+	protected int getWritableBytes() {
+		int tail = head + count;
+
+		return tail < maxLine ? maxLine - tail : head - (tail - maxLine);
+	}
+
+	/**
+	 * Returns how many bytes have been read from the source but not sent yet
+	 * @return
+	 */
+	protected int getUnconsumedBytes() {
+		return count;
+	}
+
+	/**
+	 * Filters (if configured), encodes the timestamp (if configured), validates (if configured) and sends a single message
+	 * @param src The array holding the message
+	 * @param offset The offset of the message
+	 * @param length The length of the message
+	 * @throws Exception
+	 */
+	protected void sendMessage(byte[] src, int offset, int length) throws Exception {
+		sendMessage(src, offset, length, 0);
+	}
+
+	/**
+	 * Filters (if configured), encodes the timestamp (if configured), validates (if configured) and sends the remaining bytes
+	 * of src as a single message
+	 * @param src The buffer holding the message, which may be direct
+	 * @throws Exception
+	 */
+	protected void sendMessage(ByteBuffer src) throws Exception {
+		LOG.trace("Sending (len {})", src.remaining());
+
+		markLine();
+
+		if (multiline != null) {
+			if (!multiline.joins(src)) {
+				sendEvent();
+			}
+
+			if (multiline.isPending() || multiline.isAggregatable(src.remaining())) {
+				multiline.append(src, framedBytes);
+				return;
+			}
+		}
+
+		if (filter != null && !filter.accept(src)) {
+			src.position(src.limit());
+			return;
+		}
+
+		int messageOffset = startMessage(System.currentTimeMillis());
+
+		sendBuffer.put(src);
+		finishMessage(messageOffset);
+	}
+
+	/**
+	 * Sends a message that is split in two, the second part being the first wrappedLength bytes of src
+	 */
+	private void sendMessage(byte[] src, int offset, int length, int wrappedLength) throws Exception {
+		if (LOG.isTraceEnabled()) {
+			LOG.trace("Sending (pos {}, len {}):{}{}", offset, length, new String(src, offset, length, "UTF-8"), new String(src, 0, wrappedLength, "UTF-8"));
+		}
+
+		markLine();
+
+		if (multiline != null) {
+			if (!multiline.joins(src, offset, length, wrappedLength)) {
+				sendEvent();
+			}
+
+			if (multiline.isPending() || multiline.isAggregatable(length + wrappedLength)) {
+				multiline.append(src, offset, length, wrappedLength, framedBytes);
+				return;
+			}
+		}
+
+		if (filter != null && !filter.accept(src, offset, length, wrappedLength)) {
+			return;
+		}
+
+		if (!encodeTimestamp && !validateUTF8 && wrappedLength == 0) {
+			// Nothing to add or check, the sink copies the message out of the read buffer itself
+			sink.send(src, offset, length);
+			return;
+		}
+
+		int messageOffset = startMessage(System.currentTimeMillis());
+
+		sendBuffer.put(src, offset, length);
+
+		if (wrappedLength > 0) {
+			sendBuffer.put(src, 0, wrappedLength);
+		}
+
+		finishMessage(messageOffset);
+	}
+
+	private void markLine() {
+		mLinesReceived.mark();
+		mLinesReceivedTotal.mark();
+	}
+
+	/**
+	 * Sends the pending multiline event, if there is one
+	 * @throws Exception
+	 */
+	protected void sendEvent() throws Exception {
+		if (!isEventPending()) {
+			return;
+		}
+
+		if (filter != null && !filter.accept(multiline.getEvent(), 0, multiline.getLength(), 0)) {
+			multiline.clear();
+			return;
+		}
+
+		if (!encodeTimestamp && !validateUTF8) {
+			checkSource();
+			sink.send(multiline.getEvent(), 0, multiline.getLength());
+		} else {
+			// The event is timestamped with the arrival of its first line
+			int messageOffset = startMessage(multiline.getStartMs());
+
+			sendBuffer.put(multiline.getEvent(), 0, multiline.getLength());
+			finishMessage(messageOffset);
+		}
+
+		multiline.clear();
+	}
+
+	/**
+	 * Forgets the pending multiline event without sending it, for when the bytes it was read from can't be trusted
+	 */
+	protected void discardEvent() {
+		if (isEventPending()) {
+			LOG.warn("Discarding a multiline event of {} bytes of {}", multiline.getLength(), conf.getTopicName());
+			multiline.clear();
+		}
+	}
+
+	/**
+	 * Called before every message is sent, to throw if the bytes it was read from may not have been what the source held.
+	 * Sources read through memory mappings check that the mapping is still backed by the file here.
+	 * @throws Exception
+	 */
+	protected void checkSource() throws Exception {
+	}
+
+	/**
+	 * Sends the pending multiline event if it has waited multiline.max.wait.ms
+	 * @return how many milliseconds are left until the pending event has to be sent, or 0 if there is none
+	 * @throws Exception
+	 */
+	protected long sendEventIfDue() throws Exception {
+		if (!isEventPending()) {
+			return 0;
+		}
+
+		long wait = multiline.getDueMs() - System.currentTimeMillis();
+
+		if (wait > 0) {
+			return wait;
+		}
+
+		sendEvent();
+		return 0;
+	}
+
+	/**
+	 * @return true if there is a multiline event that has not been sent yet
+	 */
+	protected boolean isEventPending() {
+		return multiline != null && multiline.isPending();
+	}
+
+	/**
+	 * @return when the pending multiline event has to be sent, when there is one
+	 */
+	protected long getEventDueMs() {
+		return multiline.getDueMs();
+	}
+
+	/**
+	 * Returns how many of the bytes that have been framed and consumed belong to the pending multiline event, which has not
+	 * been sent yet
+	 * @return
+	 */
+	protected int getPendingEventBytes() {
+		return isEventPending() ? (int) (framedBytes - multiline.getStartFramedBytes()) : 0;
+	}
+
+	/**
+	 * Starts a new message in the send buffer, returning the offset its payload must be copied to
+	 */
+	private int startMessage(long timestampMs) {
+		sendBuffer.clear();
+
+		if (encodeTimestamp) {
+			sendBuffer.put(TIMESTAMP_MAGIC);
+			sendBuffer.putLong(timestampMs);
+		}
+
+		return sendBuffer.position();
+	}
+
+	/**
+	 * Validates the payload copied to the send buffer from messageOffset and sends the message
+	 */
+	private void finishMessage(int messageOffset) throws Exception {
+		// Validate the copy, it is contiguous even when the message wrapped around the end of the read buffer
+		if (validateUTF8 && !utf8Validator.validate(sendBytes, messageOffset, sendBuffer.position() - messageOffset)) {
+			sendBuffer.position(messageOffset);
+			sendBuffer.put(utf8Validator.getResultBytes(), utf8Validator.getResultOffset(), utf8Validator.getResultLength());
+		}
+
+		checkSource();
+		sink.send(sendBytes, 0, sendBuffer.position());
+	}
+
+	/**
+	 * Sends length bytes of the read buffer, starting offset bytes after head
+	 */
+	private void sendFromReadBuffer(int offset, int length) throws Exception {
+		int first = head + offset;
+
+		if (first >= maxLine) {
+			first -= maxLine;
+		}
+
+		if (first + length <= maxLine) {
+			sendMessage(bytes, first, length, 0);
+		} else {
+			sendMessage(bytes, first, maxLine - first, first + length - maxLine);
+		}
+	}
+
+	/**
+	 * Marks length bytes at the head of the read buffer as consumed
+	 */
+	private void consume(int length) {
+		head += length;
+
+		if (head >= maxLine) {
+			head -= maxLine;
+		}
+
+		count -= length;
+		framedBytes += length;
+
+		// Start over at the beginning of the buffer when it is empty so the next read has the most contiguous space
+		if (count == 0) {
+			head = 0;
 		}
+	}
 
+	/**
+	 * Returns the size of the send buffer needed for the messages of a configuration
+	 * @param conf
+	 * @return
+	 */
+	static int getSendBufferSize(Configuration conf) {
 		// Calculate send buffer size. If we're validating UTF-8, then theoretically, each byte could be
 		// replaced by the three byte replacement character. So the send buffer needs to be triple
-		// the max line length.  If we're encoding the timestamp, then that adds 10 bytes.
-		byte[] sendBytes;
-		{
-			int sendBufferSize = maxLine;
+		// the max line length (or the max multiline event length).  If we're encoding the timestamp, then that adds 10 bytes.
+		int sendBufferSize = conf.getMaxLineLength();
+
+		if (conf.getMultilineStart() != null || conf.getMultilineContinuation() != null) {
+			sendBufferSize = Math.max(sendBufferSize, conf.getMultilineMaxBytes());
+		}
+
+		if (conf.isValidateUtf8()) {
+			sendBufferSize *= 3;
+		}
+		if (conf.isEncodeTimestamp()) {
+			sendBufferSize += 10;
+		}
+
+		return sendBufferSize;
+	}
+
+	/**
+	 * Replaces the read buffer with the array behind a heap buffer, which framers will access through that buffer.  Only
+	 * allowed while there are no unconsumed bytes.
+	 * @param readBuffer the buffer, or null to let go of the current one
+	 */
+	protected void setReadBuffer(ByteBuffer readBuffer) {
+		ring = readBuffer;
+		bytes = readBuffer == null ? null : readBuffer.array();
+	}
+
+	/**
+	 * Sets the buffer that messages are assembled in before being sent, it must be at least getSendBufferSize() bytes
+	 * @param sendBuffer
+	 */
+	void setSendBuffer(ByteBuffer sendBuffer) {
+		this.sendBuffer = sendBuffer;
+		this.sendBytes = sendBuffer.array();
+	}
+
+	/**
+	 * Sets the pool that multiline events' buffers are taken from, rather than one shared by readers with threads of their own
+	 * @param buffers
+	 */
+	void setEventBuffers(BufferPool buffers) {
+		if (multiline != null) {
+			multiline.setBuffers(buffers);
+		}
+	}
+
+	/**
+	 * @param utf8Validator the utf8Validator to set
+	 */
+	void setUtf8Validator(UTF8Validator utf8Validator) {
+		this.utf8Validator = utf8Validator;
+	}
+
+	/**
+	 * Records bytes received from the source
+	 * @param length
+	 */
+	protected void markBytesReceived(int length) {
+		mBytesReceived.mark(length);
+		mBytesReceivedTotal.mark(length);
+	}
 
-			if (validateUTF8) {
-				sendBufferSize *= 3;
+	/**
+	 * Reads from the source once and sends every message that is now complete
+	 * @return false when the source has no more data
+	 * @throws Exception
+	 */
+	protected boolean readOnce() throws Exception {
+		bytesRead = readSource();
+
+		if (bytesRead > 0) {
+			LOG.trace("Read {} bytes", bytesRead);
+		} else {
+			if (bytesRead == 0) {
+				// File's return 0 when they have reached the end of the FileChannel, sockets when their read timed out
+				sendEventIfDue();
+				return true;
+			} else {
+				if (bytesRead == -1) {
+					LOG.warn("Received -1 while reading from source, finishing up...");
+					return false;
+				}
 			}
-			if (encodeTimestamp) {
-				sendBufferSize += 10;
+		}
+
+		markBytesReceived(bytesRead);
+
+		count += bytesRead;
+
+		if (ring == null || ring.array() != bytes) {
+			ring = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+		}
+
+		while (framer.next(ring, head, count)) {
+			totalLinesRead++;
+			sendFromReadBuffer(framer.getPayloadOffset(), framer.getPayloadLength());
+			consume(framer.getFrameLength());
+		}
+
+		LOG.trace("No more complete lines.  head={}, count={}", head, count);
+
+		// if the buffer is full, send what the framer has to give up. Otherwise, wait for more data.
+		if (count == maxLine) {
+			LOG.trace("Sending log with no new-line");
+
+			framer.overflow(ring, head, count);
+			sendFromReadBuffer(framer.getPayloadOffset(), framer.getPayloadLength());
+			consume(framer.getFrameLength());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Frames and sends messages straight out of a buffer that is not the read buffer (a memory mapped file, for example)
+	 * with the same rules as readOnce(), including sending max.line.length bytes when there is no delimiter in them.
+	 * @param buffer The buffer, only accessed by absolute index apart from its position and limit being used to send
+	 * @param offset Where the bytes to frame start
+	 * @param length How many bytes there are
+	 * @return how many bytes were consumed, the rest are an incomplete message that has to be offered again from its start
+	 * once more bytes are available
+	 * @throws Exception
+	 */
+	protected int sendFrames(ByteBuffer buffer, int offset, int length) throws Exception {
+		int consumed = 0;
+
+		while (true) {
+			int available = Math.min(length - consumed, maxLine);
+
+			if (framer.next(buffer, offset + consumed, available)) {
+				totalLinesRead++;
+			} else if (available == maxLine) {
+				LOG.trace("Sending log with no new-line");
+				framer.overflow(buffer, offset + consumed, available);
+			} else {
+				return consumed;
 			}
 
-			sendBytes = new byte[sendBufferSize];
+			int payloadStart = offset + consumed + framer.getPayloadOffset();
+			int limit = buffer.limit();
+
+			buffer.limit(payloadStart + framer.getPayloadLength());
+			buffer.position(payloadStart);
+			sendMessage(buffer);
+			buffer.limit(limit);
+
+			consumed += framer.getFrameLength();
+			framedBytes += framer.getFrameLength();
 		}
+	}
 
-		ByteBuffer sendBuffer = ByteBuffer.wrap(sendBytes);
+	/**
+	 * Sends the bytes of an incomplete message in the read buffer as they are, for when no more will follow them
+	 * @throws Exception
+	 */
+	protected void sendIncomplete() throws Exception {
+		if (count > 0) {
+			totalLinesRead++;
+			sendFromReadBuffer(0, count);
+			consume(count);
+		}
+	}
 
-		try {
-			prepareSource();
+	/**
+	 * Forgets any incomplete message, for when the bytes it was read from are gone
+	 */
+	protected void resetFraming() {
+		framer.reset();
+		head = 0;
+		count = 0;
+	}
 
-			while (!finished) {
-				bytesRead = readSource();
-
-				if (bytesRead > 0) {
-					LOG.trace("Read {} bytes", bytesRead);
-				} else {
-					if (bytesRead == 0) {
-						// File's return 0 when they have reached the end of the FileChannel
-						continue;
-					} else {
-						if (bytesRead == -1) {
-							LOG.warn("Received -1 while reading from source, finishing up...");
-							finished = true;
-							continue;
-						}
-					}
-				}
+	@Override
+	public void run() {
+		if (validateUTF8) {
+			utf8Validator = new UTF8Validator();
+		}
 
-				mBytesReceived.mark(bytesRead);
-				mBytesReceivedTotal.mark(bytesRead);
+		if (bytes == null) {
+			bytes = new byte[maxLine];
+		}
 
-				limit = start + bytesRead;
-				start = 0;
+		setSendBuffer(ByteBuffer.allocate(getSendBufferSize(conf)));
 
-				while (true) {
-					newline = -1;
-
-					for (int i = start; i < limit; i++) {
-						if (bytes[i] == '\n') {
-							totalLinesRead++;
-							newline = i;
-							break;
-						}
-					}
-
-					LOG.trace("Newline at {}", newline);
-
-					if (newline >= 0) {
-						mLinesReceived.mark();
-						mLinesReceivedTotal.mark();
-
-						LOG.trace("Sending (pos {}, len {}):{}", start, newline - start, new String(bytes, start, newline - start, "UTF-8"));
-
-						sendBuffer.clear();
-
-						if (encodeTimestamp) {
-							sendBuffer.put(new byte[]{
-								(byte) 0xFE, 0x00
-							});
-
-							sendBuffer.putLong(System.currentTimeMillis());
-						}
-
-						if (validateUTF8) {
-							utf8Validator.validate(bytes, start, newline - start);
-							sendBuffer.put(utf8Validator.getResultBytes(), 0, utf8Validator.getResultBuffer().limit());
-						} else {
-							sendBuffer.put(bytes, start, newline - start);
-						}
-
-						producer.send(sendBytes, 0, sendBuffer.position());
-
-						start = newline + 1;
-						continue;
-
-					} else {
-						LOG.trace("No newline.  start={}, limit={}", start, limit);
-
-						// if the buffer is full, send it all. Otherwise, do nothing.
-						if (start == 0 && limit == maxLine) {
-							mLinesReceived.mark();
-							mLinesReceivedTotal.mark();
-
-							LOG.trace("Sending log with no new-line:{}", new String(bytes, 0, maxLine, "UTF-8"));
-
-							sendBuffer.clear();
-
-							if (encodeTimestamp) {
-								sendBuffer.put(new byte[]{
-									(byte) 0xFE, 0x00
-								});
-								sendBuffer.putLong(System.currentTimeMillis());
-							}
-
-							if (validateUTF8) {
-								utf8Validator.validate(bytes, 0, maxLine);
-								sendBuffer.put(utf8Validator.getResultBytes(), 0, utf8Validator.getResultBuffer().limit());
-							} else {
-								sendBuffer.put(bytes, 0, maxLine);
-							}
-
-							producer.send(sendBytes, 0, sendBuffer.position());
-
-							start = 0;
-							break;
-
-						} // if there is still data, then shift it to the start
-						else {
-							if (start > 0 && start < limit) {
-								int toMove = limit - start;
-								int moveSize;
-								int done = 0;
-
-								while (done < toMove) {
-									moveSize = Math.min(start - done, limit - start);
-
-									System.arraycopy(bytes, start, bytes, done, moveSize);
-
-									done += moveSize;
-									start += moveSize;
-								}
-
-								start = toMove;
-								break;
-							} else {
-								if (start >= limit) {
-									LOG.trace("All the data has been read");
-									start = 0;
-									break;
-								} else {
-									// start == 0, so move it to the limit for the next pass.
-									start = limit;
-									break;
-								}
-							}
-						}
-					}
-				}
+		try {
+			prepareSource();
 
+			while (!finished) {
+				if (!readOnce()) {
+					finished = true;
+				}
 			}
+
+			sendEvent();
 		} catch (Throwable t) {
-			LOG.error("An error has occured: {}", t);
+			LOG.error("Reading source for topic {} failed", conf.getTopicName(), t);
 		} finally {
 			finished();
 		}
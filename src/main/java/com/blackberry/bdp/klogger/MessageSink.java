@@ -0,0 +1,35 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+/**
+ * Receives the fully encoded messages produced by a LogReader.
+ *
+ * <p>In production this is always a {@link ProducerSink} wrapping a Krackle producer, the abstraction exists so that the
+ * reading, framing and encoding logic can be exercised (and measured) without a Kafka cluster.</p>
+ */
+public interface MessageSink {
+
+	/**
+	 * Sends a single message.  The bytes are only valid for the duration of the call and must be copied if retained.
+	 * @param buffer The array holding the message
+	 * @param offset The offset of the first byte of the message
+	 * @param length The length of the message
+	 * @throws Exception
+	 */
+	public void send(byte[] buffer, int offset, int length) throws Exception;
+
+}
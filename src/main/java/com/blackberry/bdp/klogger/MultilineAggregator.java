@@ -0,0 +1,234 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Joins consecutive messages that make up one event, a Java stack trace for example, into a single message.
+ *
+ * <p>With a start pattern (multiline.start) a message that matches it starts a new event and any other message belongs to
+ * the event before it.  With a continuation pattern (multiline.continuation) it is the other way around, a message that
+ * matches it belongs to the event before it and any other message starts a new one.  The messages of an event are joined
+ * by the line delimiter in a buffer of multiline.max.bytes that is taken from a pool when the event starts and given back
+ * once it has been sent, so readers that have no event pending hold no buffer.  An event is complete when a
+ * message that starts a new one arrives, when the next message would take it over multiline.max.bytes or when it has
+ * waited multiline.max.wait.ms, whichever is first.  The reader sends complete events, this only holds the pending one.</p>
+ */
+public class MultilineAggregator {
+
+	// For readers that have a thread of their own rather than the buffers of a selector or pool
+	private static final BufferPool SHARED_BUFFERS = new BufferPool(16);
+
+	private final PrefixMatcher start;
+	private final PrefixMatcher continuation;
+	private final int maxBytes;
+	private final long maxWaitMs;
+	private final byte[] separator;
+
+	private BufferPool buffers = SHARED_BUFFERS;
+	private BufferPool eventBuffers;
+	private ByteBuffer eventBuffer;
+	private byte[] event;
+	private int length;
+	private boolean pending;
+	private long startMs;
+	private long startFramedBytes;
+
+	/**
+	 * @param start the pattern that starts an event, or null
+	 * @param continuation the pattern that continues an event, used when start is null
+	 * @param maxBytes
+	 * @param maxWaitMs
+	 * @param separator what the messages of an event are joined with
+	 */
+	public MultilineAggregator(PrefixMatcher start, PrefixMatcher continuation, int maxBytes, long maxWaitMs, byte[] separator) {
+		this.start = start;
+		this.continuation = continuation;
+		this.maxBytes = maxBytes;
+		this.maxWaitMs = maxWaitMs;
+		this.separator = separator;
+	}
+
+	/**
+	 * Returns an aggregator for the multiline properties of a configuration
+	 * @param conf
+	 * @return the aggregator, or null if neither multiline.start nor multiline.continuation is set
+	 */
+	public static MultilineAggregator forConfiguration(Configuration conf) {
+		if (conf.getMultilineStart() == null && conf.getMultilineContinuation() == null) {
+			return null;
+		}
+
+		return new MultilineAggregator(conf.getMultilineStart(), conf.getMultilineContinuation(), conf.getMultilineMaxBytes(), conf.getMultilineMaxWaitMs(), conf.getLineDelimiter());
+	}
+
+	/**
+	 * Sets the pool that the next event's buffer is taken from
+	 * @param buffers
+	 */
+	public void setBuffers(BufferPool buffers) {
+		this.buffers = buffers;
+	}
+
+	/**
+	 * Tests whether a message (which may be split in two, see PrefixMatcher) belongs to the pending event
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param wrappedLength
+	 * @return false if it has to start a new event
+	 */
+	public boolean joins(byte[] bytes, int offset, int length, int wrappedLength) {
+		if (!pending || !fits(length + wrappedLength)) {
+			return false;
+		}
+
+		if (start != null) {
+			return !start.matches(bytes, offset, length, wrappedLength);
+		}
+
+		return continuation.matches(bytes, offset, length, wrappedLength);
+	}
+
+	/**
+	 * Tests whether the remaining bytes of a buffer belong to the pending event
+	 * @param buffer
+	 * @return false if they have to start a new event
+	 */
+	public boolean joins(ByteBuffer buffer) {
+		if (!pending || !fits(buffer.remaining())) {
+			return false;
+		}
+
+		if (start != null) {
+			return !start.matches(buffer);
+		}
+
+		return continuation.matches(buffer);
+	}
+
+	private boolean fits(int messageLength) {
+		return length + separator.length + messageLength <= maxBytes;
+	}
+
+	/**
+	 * @param messageLength
+	 * @return true if a message is short enough to be an event of its own
+	 */
+	public boolean isAggregatable(int messageLength) {
+		return messageLength <= maxBytes;
+	}
+
+	/**
+	 * Adds a message to the pending event, starting one if there is none
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param wrappedLength
+	 * @param framedBytes how many bytes the reader had framed before the message
+	 */
+	public void append(byte[] bytes, int offset, int length, int wrappedLength, long framedBytes) {
+		prepare(framedBytes);
+		System.arraycopy(bytes, offset, event, this.length, length);
+		System.arraycopy(bytes, 0, event, this.length + length, wrappedLength);
+		this.length += length + wrappedLength;
+	}
+
+	/**
+	 * Adds the remaining bytes of a buffer to the pending event, starting one if there is none
+	 * @param buffer
+	 * @param framedBytes how many bytes the reader had framed before the message
+	 */
+	public void append(ByteBuffer buffer, long framedBytes) {
+		int messageLength = buffer.remaining();
+
+		prepare(framedBytes);
+		buffer.get(event, length, messageLength);
+		length += messageLength;
+	}
+
+	private void prepare(long framedBytes) {
+		if (pending) {
+			System.arraycopy(separator, 0, event, length, separator.length);
+			length += separator.length;
+		} else {
+			eventBuffers = buffers;
+			eventBuffer = buffers.take(maxBytes);
+			event = eventBuffer.array();
+			pending = true;
+			startMs = System.currentTimeMillis();
+			startFramedBytes = framedBytes;
+		}
+	}
+
+	/**
+	 * Forgets the pending event, once it has been sent, and gives back its buffer
+	 */
+	public void clear() {
+		if (eventBuffer != null) {
+			eventBuffers.give(eventBuffer);
+			eventBuffer = null;
+			event = null;
+		}
+
+		pending = false;
+		length = 0;
+	}
+
+	/**
+	 * @return true if there is a pending event
+	 */
+	public boolean isPending() {
+		return pending;
+	}
+
+	/**
+	 * @return the buffer holding the pending event
+	 */
+	public byte[] getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return the length of the pending event
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return when the pending event's first message arrived
+	 */
+	public long getStartMs() {
+		return startMs;
+	}
+
+	/**
+	 * @return when the pending event has to be sent whether or not it is complete
+	 */
+	public long getDueMs() {
+		return startMs + maxWaitMs;
+	}
+
+	/**
+	 * @return how many bytes the reader had framed before the pending event's first message
+	 */
+	public long getStartFramedBytes() {
+		return startFramedBytes;
+	}
+
+}
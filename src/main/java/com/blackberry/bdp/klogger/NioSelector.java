@@ -0,0 +1,156 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread that reads every connection registered with it, used when tcp.io.mode is nio.
+ *
+ * <p>All port sources share the same group of selectors, which is started the first time a connection needs one.  A
+ * selector only waits as long as the earliest pending multiline event of its connections may, then sends it.</p>
+ */
+public class NioSelector implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NioSelector.class);
+
+	private static NioSelector[] selectors;
+	private static final AtomicInteger nextSelector = new AtomicInteger();
+
+	private final Selector selector;
+	private final BufferPool buffers;
+	private final UTF8Validator utf8Validator = new UTF8Validator();
+	private final Queue<ChannelLogReader> pending = new ConcurrentLinkedQueue<>();
+	private final Set<ChannelLogReader> waiting = new LinkedHashSet<>();
+
+	public NioSelector(BufferPool buffers) throws IOException {
+		this.selector = Selector.open();
+		this.buffers = buffers;
+	}
+
+	/**
+	 * Returns the next selector of the shared group, round robin, starting the group if needed
+	 * @param threads the number of selectors in the group, only used when the group is started
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized NioSelector next(int threads) throws IOException {
+		if (selectors == null) {
+			BufferPool buffers = new BufferPool(16 * threads);
+
+			selectors = new NioSelector[threads];
+
+			for (int i = 0; i < threads; i++) {
+				selectors[i] = new NioSelector(buffers);
+
+				Threads.start(selectors[i], "klogger-nio-selector-" + i);
+			}
+
+			LOG.info("Started {} NIO selector threads", threads);
+		}
+
+		return selectors[(nextSelector.getAndIncrement() & Integer.MAX_VALUE) % selectors.length];
+	}
+
+	/**
+	 * Hands a connection over to this selector, which will read it until it is closed
+	 * @param reader
+	 */
+	public void register(ChannelLogReader reader) {
+		pending.add(reader);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		long timeoutMs = 0;
+
+		while (true) {
+			try {
+				selector.select(timeoutMs);
+				registerPending();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					ChannelLogReader reader = (ChannelLogReader) key.attachment();
+
+					if (!key.isValid() || !reader.read(buffers, utf8Validator)) {
+						key.cancel();
+						reader.close(buffers);
+						waiting.remove(reader);
+					} else if (reader.hasPendingEvent()) {
+						waiting.add(reader);
+					}
+				}
+
+				timeoutMs = sendDueEvents();
+			} catch (Throwable t) {
+				LOG.error("An error occured in the NIO selector: ", t);
+			}
+		}
+	}
+
+	/**
+	 * Sends the multiline events that are due
+	 * @return how long until the next one is, or 0 if there are none pending
+	 */
+	private long sendDueEvents() {
+		long timeoutMs = 0;
+		Iterator<ChannelLogReader> readers = waiting.iterator();
+
+		while (readers.hasNext()) {
+			long waitMs = readers.next().sendEventIfDue(buffers, utf8Validator);
+
+			if (waitMs == 0) {
+				readers.remove();
+			} else if (timeoutMs == 0 || waitMs < timeoutMs) {
+				timeoutMs = waitMs;
+			}
+		}
+
+		return timeoutMs;
+	}
+
+	private void registerPending() {
+		ChannelLogReader reader;
+
+		while ((reader = pending.poll()) != null) {
+			try {
+				reader.prepareSource();
+				reader.getChannel().register(selector, SelectionKey.OP_READ, reader);
+			} catch (Exception e) {
+				LOG.error("Unable to register connection with the NIO selector: ", e);
+				reader.close(buffers);
+			}
+		}
+	}
+
+}
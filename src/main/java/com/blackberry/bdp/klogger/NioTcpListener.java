@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accepts connections for a port source and hands them to the shared NIO selectors instead of starting a thread for each
+ */
+public class NioTcpListener extends TcpListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NioTcpListener.class);
+
+	public NioTcpListener(PortSource s) {
+		super(s);
+	}
+
+	private NioTcpListener(PortSource s, int acceptor) {
+		super(s, acceptor);
+	}
+
+	@Override
+	protected TcpListener newAcceptor(int acceptor) {
+		return new NioTcpListener(source, acceptor);
+	}
+
+	@Override
+	protected void listen() throws Exception {
+		ServerSocketChannel ss = ServerSocketChannel.open();
+		ss.socket().setReceiveBufferSize(source.getTcpReceiveBufferBytes());
+		if (source.getAcceptors() > 1) {
+			ss.setOption(PortSource.getReusePortOption(), true);
+		}
+		ss.bind(new InetSocketAddress(source.getBindAddr(), source.getPort()), source.getListenBacklog());
+		LOG.info("Listening on {}:{} (with listen backlog: {}, acceptor {} of {}, tcp.io.mode: nio)",
+			 source.getBindAddr().getHostAddress(),
+			 source.getPort(),
+			 source.getListenBacklog(),
+			 acceptor + 1,
+			 source.getAcceptors());
+		while (true) {
+			SocketChannel s = ss.accept();
+			accepted();
+			ChannelLogReader r = new ChannelLogReader(source, s);
+			NioSelector.next(source.getTcpIoThreads()).register(r);
+		}
+	}
+}
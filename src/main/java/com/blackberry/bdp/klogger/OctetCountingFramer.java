@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames syslog messages sent with octet counting (RFC 6587): the length of the message in decimal, a space and then the
+ * message.
+ *
+ * <p>As RFC 6587 allows both methods on the same connection, a message that does not start with a length is framed by
+ * the line delimiter instead (non-transparent framing).</p>
+ */
+public class OctetCountingFramer extends CountingFramer {
+
+	// Enough for any length that fits in an int
+	private static final int MAX_DIGITS = 9;
+
+	private final DelimiterFramer lineFramer;
+	// Whether the unconsumed bytes are the rest of a line that overflowed
+	private boolean inLine;
+	private boolean framingLine;
+
+	public OctetCountingFramer(byte[] delimiter, boolean stripCarriageReturn) {
+		this.lineFramer = new DelimiterFramer(delimiter, stripCarriageReturn);
+	}
+
+	@Override
+	protected boolean parseHeader(ByteBuffer ring, int head, int count) {
+		int length = 0;
+
+		for (int i = 0; i < count; i++) {
+			byte b = get(ring, head, i);
+
+			if (b == ' ' && i > 0) {
+				headerLength = i + 1;
+				messageLength = length;
+				return true;
+			}
+
+			length = length * 10 + (b - '0');
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns true if the unconsumed bytes start with a length: a non-zero digit, up to MAX_DIGITS digits in all and a space
+	 */
+	private boolean isOctetCounted(ByteBuffer ring, int head, int count) {
+		for (int i = 0; i < count && i <= MAX_DIGITS; i++) {
+			byte b = get(ring, head, i);
+
+			if (b == ' ' && i > 0) {
+				return true;
+			}
+
+			if (b < '0' || b > '9' || (i == 0 && b == '0')) {
+				return false;
+			}
+		}
+
+		// Wait for more bytes unless there are already too many digits
+		return count <= MAX_DIGITS;
+	}
+
+	@Override
+	public boolean next(ByteBuffer ring, int head, int count) {
+		framingLine = inLine || (!isSplitting() && count > 0 && !isOctetCounted(ring, head, count));
+
+		if (!framingLine) {
+			return super.next(ring, head, count);
+		}
+
+		if (!lineFramer.next(ring, head, count)) {
+			return false;
+		}
+
+		payloadOffset = lineFramer.getPayloadOffset();
+		payloadLength = lineFramer.getPayloadLength();
+		frameLength = lineFramer.getFrameLength();
+		inLine = false;
+		return true;
+	}
+
+	@Override
+	public void overflow(ByteBuffer ring, int head, int count) {
+		if (framingLine) {
+			lineFramer.overflow(ring, head, count);
+			payloadOffset = lineFramer.getPayloadOffset();
+			payloadLength = lineFramer.getPayloadLength();
+			frameLength = lineFramer.getFrameLength();
+			inLine = true;
+			return;
+		}
+
+		super.overflow(ring, head, count);
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		lineFramer.reset();
+		inLine = false;
+	}
+
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a file of a glob source on the threads of a FileReaderPool rather than a thread of its own.
+ *
+ * <p>Each turn reads until the end of the file, or for at most READS_PER_TURN reads so a busy file can't hold a thread up,
+ * and then the file is queued again straight away.  At the end of the file the reader waits for wakeUp() or its end of file
+ * read delay, without a thread.  The read buffer is only held while a partial line is waiting for the rest of it.</p>
+ */
+public class PooledFileLogReader extends FileLogReader {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PooledFileLogReader.class);
+
+	private static final int READS_PER_TURN = 16;
+
+	private final FileReaderPool pool;
+	private final GlobListener listener;
+	private final int sendBufferSize;
+	private final AtomicBoolean queued = new AtomicBoolean(false);
+	private volatile boolean woken = false;
+
+	// Only used while holding the reader's lock
+	private boolean prepared = false;
+	private boolean stopped = false;
+	private boolean atEnd;
+	private ByteBuffer readBuffer;
+	private ScheduledFuture<?> timer;
+
+	private final Runnable turn = new Runnable() {
+		@Override
+		public void run() {
+			takeTurn();
+		}
+
+	};
+
+	private final Runnable poll = new Runnable() {
+		@Override
+		public void run() {
+			queue();
+		}
+
+	};
+
+	public PooledFileLogReader(FileSource source, FileReaderPool pool, GlobListener listener) throws Exception {
+		this(source, source.getSink(), pool, listener);
+	}
+
+	/**
+	 * Creates a pooled file log reader that sends its messages to a sink other than the source's
+	 * @param source
+	 * @param sink
+	 * @param pool
+	 * @param listener
+	 * @throws Exception
+	 */
+	PooledFileLogReader(FileSource source, MessageSink sink, FileReaderPool pool, GlobListener listener) throws Exception {
+		super(source, sink);
+
+		this.pool = pool;
+		this.listener = listener;
+		this.sendBufferSize = getSendBufferSize(source.getConf());
+	}
+
+	/**
+	 * Queues the reader for a turn, unless it is already queued or taking one
+	 */
+	private void queue() {
+		if (queued.compareAndSet(false, true)) {
+			pool.execute(turn);
+		}
+	}
+
+	/**
+	 * Queues the reader for a turn, now the file has been modified
+	 */
+	@Override
+	public void wakeUp() {
+		woken = true;
+		queue();
+	}
+
+	private void takeTurn() {
+		woken = false;
+
+		boolean more;
+
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+
+			if (timer != null) {
+				timer.cancel(false);
+				timer = null;
+			}
+
+			more = readFile();
+
+			if (stopped) {
+				return;
+			}
+		}
+
+		if (more) {
+			pool.execute(turn);
+			return;
+		}
+
+		queued.set(false);
+
+		// Modified since the turn started, the modification may not have been read
+		if (woken) {
+			queue();
+			return;
+		}
+
+		synchronized (this) {
+			if (!stopped && !queued.get()) {
+				if (timer != null) {
+					timer.cancel(false);
+				}
+
+				timer = pool.schedule(poll, tailWaiter.backOff());
+			}
+		}
+	}
+
+	/**
+	 * Reads the file for one turn
+	 * @return true when the end of the file has not been reached
+	 */
+	private boolean readFile() {
+		BufferPool buffers = pool.getBuffers();
+
+		if (readBuffer == null) {
+			// There are no unconsumed bytes, so it does not matter which buffer they are read into
+			readBuffer = buffers.take(maxLine).order(ByteOrder.nativeOrder());
+			setReadBuffer(readBuffer);
+		}
+
+		ByteBuffer sendBuffer = buffers.take(sendBufferSize);
+
+		setSendBuffer(sendBuffer);
+		setEventBuffers(buffers);
+		setUtf8Validator(pool.getUtf8Validator());
+
+		try {
+			if (!prepared) {
+				prepareSource();
+				prepared = true;
+			}
+
+			atEnd = false;
+
+			for (int i = 0; i < READS_PER_TURN && !atEnd; i++) {
+				readOnce();
+			}
+
+			return !atEnd;
+		} catch (Throwable t) {
+			LOG.error("An error has occured reading {}, it will no longer be read: ", getSource().getFile(), t);
+			stop();
+			return false;
+		} finally {
+			buffers.give(sendBuffer);
+
+			if (getUnconsumedBytes() == 0 && readBuffer != null) {
+				buffers.give(readBuffer);
+				readBuffer = null;
+				setReadBuffer(null);
+			}
+		}
+	}
+
+	/**
+	 * Ends the turn instead of waiting
+	 */
+	@Override
+	protected void endOfFile() {
+		atEnd = true;
+	}
+
+	/**
+	 * Stops reading once the file has been deleted and read to its end, rather than waiting for another to be created
+	 */
+	@Override
+	protected void fileDeleted() {
+		atEnd = true;
+		stop();
+		forgetPosition();
+		listener.fileDeleted(getSource().getFile().toPath(), this);
+	}
+
+	/**
+	 * Tells the listener, which may start reading the file under the name it was renamed to from where this left off
+	 */
+	@Override
+	protected void fileRotated(String fileKey, long position) {
+		listener.fileRotated(fileKey, position);
+	}
+
+	/**
+	 * Stops reading the file, waiting for a turn that is being taken to end, and persists the position
+	 */
+	public synchronized void stop() {
+		if (stopped) {
+			return;
+		}
+
+		stopped = true;
+
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+
+		if (readBuffer != null) {
+			pool.getBuffers().give(readBuffer);
+			readBuffer = null;
+			setReadBuffer(null);
+		}
+
+		if (prepared) {
+			finished();
+		}
+
+		LOG.info("Reading source for topic {} is finished", conf.getTopicName());
+	}
+
+}
@@ -15,8 +15,18 @@
  */
 package com.blackberry.bdp.klogger;
 
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +38,16 @@ public class PortSource extends Source {
 	private int port;
 	private InetAddress bindAddr;
 	private int listenBacklog;
+	private int acceptors;
 	private int tcpReceiveBufferBytes = 1048576;
+	private String tcpIoMode = "thread";
+	private int tcpIoThreads = Runtime.getRuntime().availableProcessors();
+	private boolean tcpBackpressure = false;
+	private long tcpBackpressureMaxStallMs = -1;
+	private ByteTrie routes;
+	private String[] routeTopics;
+	private TopicSinks[] routeSinks;
+	private boolean[] routeStrip;
 
 	public PortSource(String port, String topic) {
 		super(topic);
@@ -37,6 +56,10 @@ public class PortSource extends Source {
 
 	@Override
 	public Runnable getListener() {
+		if (tcpIoMode.equals("nio")) {
+			return new NioTcpListener(this);
+		}
+
 		return new TcpListener(this);
 	}
 
@@ -46,6 +69,31 @@ public class PortSource extends Source {
 		try {
 			tcpReceiveBufferBytes = Integer.parseInt(props.getProperty(
 				 "tcp.receive.buffer.bytes", Integer.toString(tcpReceiveBufferBytes)));
+			tcpIoMode = props.getProperty(getConf().getTopicAwarePropName("tcp.io.mode"), tcpIoMode).trim().toLowerCase();
+			if (!tcpIoMode.equals("thread") && !tcpIoMode.equals("nio")) {
+				throw new ConfigurationException("tcp.io.mode must be thread or nio, not " + tcpIoMode, null);
+			}
+			tcpIoThreads = Integer.parseInt(props.getProperty(
+				 "tcp.io.threads", Integer.toString(tcpIoThreads)).trim());
+			if (tcpIoThreads < 1) {
+				throw new ConfigurationException("tcp.io.threads must be at least 1", null);
+			}
+			tcpBackpressure = Boolean.parseBoolean(props.getProperty(
+				 getConf().getTopicAwarePropName("tcp.backpressure"), Boolean.toString(tcpBackpressure)).trim());
+			tcpBackpressureMaxStallMs = Long.parseLong(props.getProperty(
+				 getConf().getTopicAwarePropName("tcp.backpressure.max.stall.ms"), Long.toString(tcpBackpressureMaxStallMs)).trim());
+			if (tcpBackpressureMaxStallMs < -1) {
+				throw new ConfigurationException("tcp.backpressure.max.stall.ms must be -1 or more", null);
+			}
+			if (tcpBackpressure && tcpIoMode.equals("nio")) {
+				// Every nio port shares the selector threads, a connection waiting in a send would stop them all reading
+				throw new ConfigurationException("tcp.backpressure needs tcp.io.mode thread, with nio a stalled producer would stop every connection of its selector thread", null);
+			}
+			if (tcpBackpressure) {
+				// A reader stuck in a send leaves the socket unread, so the kernel's receive window fills and the sender stalls
+				getTopicSinks().setBlocking(props, tcpBackpressureMaxStallMs, "tcp backpressure");
+			}
+			configureRoutes(props);
 			String bindProperty = String.format("server.listen.address.%s", this.getTopic());
 			if (props.containsKey(bindProperty)) {
 				bindAddr = InetAddress.getByName(props.getProperty(bindProperty).trim());
@@ -60,16 +108,149 @@ public class PortSource extends Source {
 				listenBacklog = Integer.parseInt(props.getProperty(
 					 "server.listen.backlog", "50").trim());
 			}
-			LOG.info("Configured source port for {}:{} (with backlog of {}",
+			String acceptorsProperty = String.format("server.acceptors.%s", this.getTopic());
+			if (props.containsKey(acceptorsProperty)) {
+				acceptors = Integer.parseInt(props.getProperty(acceptorsProperty).trim());
+			} else {
+				acceptors = Integer.parseInt(props.getProperty(
+					 "server.acceptors", "1").trim());
+			}
+			if (acceptors < 1) {
+				throw new ConfigurationException("server.acceptors must be at least 1", null);
+			}
+			if (acceptors > 1 && getReusePortOption() == null) {
+				throw new ConfigurationException("server.acceptors greater than 1 requires SO_REUSEPORT, which needs Java 9 or later on an operating system that supports it", null);
+			}
+			LOG.info("Configured source port for {}:{} (with backlog of {}, {} acceptors, tcp.io.mode {}, tcp.backpressure {})",
 				 bindAddr.getHostAddress(),
 				 port,
-				 listenBacklog);
+				 listenBacklog,
+				 acceptors,
+				 tcpIoMode,
+				 tcpBackpressure);
 		} catch (NumberFormatException | UnknownHostException e) {
 			LOG.error("Failed to configure source port for topic {}", e);
 			throw new ConfigurationException("failed to configure source port", e);
 		}
 	}
 
+	/**
+	 * Reads the topic tags (route.topics, each followed by route.tag.delimiter, which are stripped) and prefixes
+	 * (source.&lt;topic&gt;.route.prefix.&lt;routed topic&gt;, which are not) that route messages to other topics, and
+	 * configures those topics
+	 */
+	private void configureRoutes(Properties props) throws ConfigurationException, Exception {
+		String tags = props.getProperty(getConf().getTopicAwarePropName("route.topics"));
+		String prefixPropPrefix = "source." + getTopic() + ".route.prefix.";
+		List<String> topics = new ArrayList<>();
+		List<byte[]> keys = new ArrayList<>();
+		List<Boolean> strip = new ArrayList<>();
+
+		if (tags != null) {
+			byte[] delimiter = Configuration.unescape(props.getProperty(getConf().getTopicAwarePropName("route.tag.delimiter"), "\\x20"));
+
+			for (String tag : tags.split(",")) {
+				if (tag.trim().isEmpty()) {
+					continue;
+				}
+
+				byte[] tagBytes = tag.trim().getBytes("UTF-8");
+				byte[] key = new byte[tagBytes.length + delimiter.length];
+
+				System.arraycopy(tagBytes, 0, key, 0, tagBytes.length);
+				System.arraycopy(delimiter, 0, key, tagBytes.length, delimiter.length);
+				topics.add(tag.trim());
+				keys.add(key);
+				strip.add(true);
+			}
+		}
+
+		for (String name : props.stringPropertyNames()) {
+			if (name.startsWith(prefixPropPrefix) && name.length() > prefixPropPrefix.length()) {
+				topics.add(name.substring(prefixPropPrefix.length()));
+				keys.add(Configuration.unescape(props.getProperty(name)));
+				strip.add(false);
+			}
+		}
+
+		if (topics.isEmpty()) {
+			return;
+		}
+
+		try {
+			routes = new ByteTrie(keys.toArray(new byte[keys.size()][]));
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationException("route.topics and route.prefix must all be different and not empty", e);
+		}
+
+		routeTopics = topics.toArray(new String[topics.size()]);
+		routeSinks = new TopicSinks[routeTopics.length];
+		routeStrip = new boolean[routeTopics.length];
+
+		Map<String, TopicSinks> topicSinks = new HashMap<>();
+
+		for (int i = 0; i < routeTopics.length; i++) {
+			routeStrip[i] = strip.get(i);
+
+			if (routeTopics[i].equals(getTopic())) {
+				// Routed to this source's own sinks
+				continue;
+			}
+
+			routeSinks[i] = topicSinks.get(routeTopics[i]);
+
+			if (routeSinks[i] == null) {
+				routeSinks[i] = new TopicSinks(props, new Configuration(props, routeTopics[i]));
+				topicSinks.put(routeTopics[i], routeSinks[i]);
+
+				if (tcpBackpressure) {
+					routeSinks[i].setBlocking(props, tcpBackpressureMaxStallMs, "tcp backpressure");
+				}
+
+				if (routeSinks[i].getConf().isEncodeMessageTimestamp() != getConf().isEncodeMessageTimestamp()) {
+					throw new ConfigurationException("messages routed from " + getTopic() + " to " + routeTopics[i] + " are timestamped for one but not the other, their batch.lines and batch.timestamp must agree", null);
+				}
+			}
+		}
+
+		LOG.info("Routing messages of {} to {} topics by {} tags and prefixes", getTopic(), topicSinks.size(), routeTopics.length);
+	}
+
+	/**
+	 * Returns the sink a reader of the source sends its messages to, which routes each of them to the topic its tag or
+	 * prefix names, when there are routes
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	public MessageSink getSink() throws Exception {
+		if (routes == null) {
+			return super.getSink();
+		}
+
+		MessageSink unrouted = super.getSink();
+		MessageSink[] sinks = new MessageSink[routeTopics.length];
+		Map<TopicSinks, MessageSink> topicSinks = new HashMap<>();
+
+		for (int i = 0; i < sinks.length; i++) {
+			if (routeSinks[i] == null) {
+				sinks[i] = unrouted;
+				continue;
+			}
+
+			// Each reader has one sink per topic, so batches and keys see the topic's messages together
+			sinks[i] = topicSinks.get(routeSinks[i]);
+
+			if (sinks[i] == null) {
+				sinks[i] = routeSinks[i].getSink();
+				topicSinks.put(routeSinks[i], sinks[i]);
+			}
+		}
+
+		// Routes follow the timestamp, the magic bytes and the time
+		return new RoutingSink(routes, sinks, routeStrip, unrouted, getConf().isEncodeMessageTimestamp() ? 10 : 0);
+	}
+
 	public int getPort() {
 		return port;
 	}
@@ -78,6 +259,38 @@ public class PortSource extends Source {
 		this.port = port;
 	}
 
+	/**
+	 * Returns the SO_REUSEPORT socket option, or null when this JVM or operating system does not support it
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	static SocketOption<Boolean> getReusePortOption() {
+		try {
+			// StandardSocketOptions.SO_REUSEPORT was added in Java 9
+			SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+
+			try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+				return channel.supportedOptions().contains(option) ? option : null;
+			}
+		} catch (NoSuchFieldException | IllegalAccessException | IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Enables SO_REUSEPORT on an unbound server socket, so several of them can listen on the same port
+	 * @param ss
+	 * @throws IOException
+	 */
+	static void setReusePort(ServerSocket ss) throws IOException {
+		try {
+			// ServerSocket.setOption() was added in Java 9
+			ServerSocket.class.getMethod("setOption", SocketOption.class, Object.class).invoke(ss, getReusePortOption(), true);
+		} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			throw new IOException("Unable to enable SO_REUSEPORT", e);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "PortSource: topic=" + this.getTopic() + ", port=" + this.getPort();
@@ -97,6 +310,41 @@ public class PortSource extends Source {
 		this.tcpReceiveBufferBytes = tcpReceiveBufferBytes;
 	}
 
+	/**
+	 * @return the tcpIoMode
+	 */
+	public String getTcpIoMode() {
+		return tcpIoMode;
+	}
+
+	/**
+	 * @return the tcpIoThreads
+	 */
+	public int getTcpIoThreads() {
+		return tcpIoThreads;
+	}
+
+	/**
+	 * @return the tcpBackpressure
+	 */
+	public boolean isTcpBackpressure() {
+		return tcpBackpressure;
+	}
+
+	/**
+	 * @return the tcpBackpressureMaxStallMs
+	 */
+	public long getTcpBackpressureMaxStallMs() {
+		return tcpBackpressureMaxStallMs;
+	}
+
+	/**
+	 * @return the acceptors
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
 	/**
 	 * @return the bindAddr
 	 */
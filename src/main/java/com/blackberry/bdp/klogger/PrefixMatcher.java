@@ -0,0 +1,266 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests whether a message starts with one of a set of prefixes, compiled once from a pattern so that testing a message
+ * neither allocates nor decodes it.
+ *
+ * <p>A pattern is one or more alternatives separated by |, each of which matches the start of a message a byte at a time:
+ * \d matches a digit, \s a space or a tab, \w a letter, digit or underscore, . any byte and [...] any byte in it (ranges
+ * like a-z are allowed, and a leading ^ negates it).  \n, \r, \t, \0 and \xHH are the bytes they name, \ followed by
+ * anything else is that character and any other character matches its UTF-8 encoding.  For example
+ * "\d\d\d\d-\d\d-\d\d " matches a message that starts with an ISO 8601 date and "\s|Caused by: " one that starts with
+ * whitespace or a cause of a Java stack trace.</p>
+ */
+public class PrefixMatcher {
+
+	// For each alternative, the set of bytes allowed at each position as four 64 bit words
+	private final long[][][] alternatives;
+
+	/**
+	 * Compiles a pattern
+	 * @param pattern
+	 * @throws ConfigurationException if the pattern is not valid
+	 */
+	public PrefixMatcher(String pattern) throws ConfigurationException {
+		List<long[][]> compiled = new ArrayList<>();
+		List<long[]> positions = new ArrayList<>();
+		int i = 0;
+
+		try {
+			while (i <= pattern.length()) {
+				if (i == pattern.length() || pattern.charAt(i) == '|') {
+					if (positions.isEmpty()) {
+						throw new ConfigurationException("empty alternative in prefix pattern: " + pattern, null);
+					}
+
+					compiled.add(positions.toArray(new long[positions.size()][]));
+					positions.clear();
+					i++;
+					continue;
+				}
+
+				char c = pattern.charAt(i);
+
+				if (c == '[') {
+					long[] set = new long[4];
+					boolean negate = i + 1 < pattern.length() && pattern.charAt(i + 1) == '^';
+
+					i += negate ? 2 : 1;
+
+					while (pattern.charAt(i) != ']') {
+						int from = pattern.charAt(i) == '\\' ? escaped(pattern, i + 1) : pattern.charAt(i);
+
+						i += pattern.charAt(i) == '\\' ? escapeLength(pattern, i + 1) + 1 : 1;
+
+						int to = from;
+
+						if (pattern.charAt(i) == '-' && pattern.charAt(i + 1) != ']') {
+							to = pattern.charAt(i + 1) == '\\' ? escaped(pattern, i + 2) : pattern.charAt(i + 1);
+							i += pattern.charAt(i + 1) == '\\' ? escapeLength(pattern, i + 2) + 2 : 2;
+						}
+
+						if (from > 0xFF || to > 0xFF || from > to) {
+							throw new ConfigurationException("invalid range in prefix pattern (only single bytes are allowed): " + pattern, null);
+						}
+
+						for (int b = from; b <= to; b++) {
+							add(set, b);
+						}
+					}
+
+					if (negate) {
+						for (int w = 0; w < 4; w++) {
+							set[w] = ~set[w];
+						}
+					}
+
+					positions.add(set);
+					i++;
+				} else if (c == '.') {
+					positions.add(new long[]{-1L, -1L, -1L, -1L});
+					i++;
+				} else if (c == '\\') {
+					char e = pattern.charAt(i + 1);
+
+					if (e == 'd') {
+						positions.add(range('0', '9'));
+					} else if (e == 's') {
+						positions.add(bytes(' ', '\t'));
+					} else if (e == 'w') {
+						long[] set = range('a', 'z');
+
+						or(set, range('A', 'Z'));
+						or(set, range('0', '9'));
+						add(set, '_');
+						positions.add(set);
+					} else {
+						int b = escaped(pattern, i + 1);
+
+						if (b > 0xFF) {
+							literal(positions, String.valueOf((char) b));
+						} else {
+							positions.add(bytes(b));
+						}
+					}
+
+					i += escapeLength(pattern, i + 1) + 1;
+				} else {
+					int end = i + Character.charCount(pattern.codePointAt(i));
+
+					literal(positions, pattern.substring(i, end));
+					i = end;
+				}
+			}
+		} catch (IndexOutOfBoundsException | NumberFormatException e) {
+			throw new ConfigurationException("invalid prefix pattern: " + pattern, e);
+		}
+
+		alternatives = compiled.toArray(new long[compiled.size()][][]);
+	}
+
+	/**
+	 * Returns the character an escape sequence (without its \) stands for, which is a byte for \xHH
+	 */
+	private static int escaped(String pattern, int i) {
+		switch (pattern.charAt(i)) {
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case '0':
+				return 0;
+			case 'x':
+				return Integer.parseInt(pattern.substring(i + 1, i + 3), 16);
+			default:
+				return pattern.charAt(i);
+		}
+	}
+
+	private static int escapeLength(String pattern, int i) {
+		return pattern.charAt(i) == 'x' ? 3 : 1;
+	}
+
+	private static void literal(List<long[]> positions, String s) throws ConfigurationException {
+		try {
+			for (byte b : s.getBytes("UTF-8")) {
+				positions.add(bytes(b & 0xFF));
+			}
+		} catch (UnsupportedEncodingException uee) {
+			throw new ConfigurationException("UTF-8 is not supported", uee);
+		}
+	}
+
+	private static void add(long[] set, int b) {
+		set[b >>> 6] |= 1L << b;
+	}
+
+	private static void or(long[] set, long[] other) {
+		for (int w = 0; w < 4; w++) {
+			set[w] |= other[w];
+		}
+	}
+
+	private static long[] bytes(int... bytes) {
+		long[] set = new long[4];
+
+		for (int b : bytes) {
+			add(set, b);
+		}
+
+		return set;
+	}
+
+	private static long[] range(int from, int to) {
+		long[] set = new long[4];
+
+		for (int b = from; b <= to; b++) {
+			add(set, b);
+		}
+
+		return set;
+	}
+
+	private static boolean allows(long[] set, byte b) {
+		int i = b & 0xFF;
+
+		return (set[i >>> 6] & 1L << i) != 0;
+	}
+
+	/**
+	 * Tests a message that may be split in two, the second part being the first wrappedLength bytes of the array
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param wrappedLength
+	 * @return true if the message starts with one of the prefixes
+	 */
+	public boolean matches(byte[] bytes, int offset, int length, int wrappedLength) {
+		for (long[][] alternative : alternatives) {
+			if (alternative.length > length + wrappedLength) {
+				continue;
+			}
+
+			int p = 0;
+
+			while (p < alternative.length && allows(alternative[p], p < length ? bytes[offset + p] : bytes[p - length])) {
+				p++;
+			}
+
+			if (p == alternative.length) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Tests the remaining bytes of a buffer, which is only accessed by absolute index
+	 * @param buffer
+	 * @return true if they start with one of the prefixes
+	 */
+	public boolean matches(ByteBuffer buffer) {
+		int offset = buffer.position();
+
+		for (long[][] alternative : alternatives) {
+			if (alternative.length > buffer.remaining()) {
+				continue;
+			}
+
+			int p = 0;
+
+			while (p < alternative.length && allows(alternative[p], buffer.get(offset + p))) {
+				p++;
+			}
+
+			if (p == alternative.length) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import com.blackberry.bdp.krackle.producer.Producer;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A message sink backed by a Krackle producer.
+ *
+ * <p>Producers are shared by every reader that has the same client ID, topic and key.  The number of producers is
+ * fairly small so they are never closed.</p>
+ *
+ * <p>With producers.per.topic greater than 1 there are that many producers for each of them, and readers are given one
+ * after the other in turn.  Producer i uses the key &lt;kafka.key&gt;-i, so the producers spread the topic over several
+ * partitions rather than one.  Each producer then has a "producer i queue depth" gauge for its topic, how many readers
+ * are waiting for it or in a send to it, and a "producer i messages sent" meter, which show whether the load is even.</p>
+ *
+ * <p>Blocking producers (for file.backpressure and tcp.backpressure) are separate from the others of the same topic.  They
+ * are created with a queue.enqueue.timeout.ms that makes a send wait for the producer to have room for the message rather
+ * than dropping it straight away, and those that wait for different times are separate too.  Each kind has two gauges
+ * for its topic: "&lt;name&gt; paused", how many readers are waiting in a send, and "&lt;name&gt; paused ms", the total
+ * time spent in sends that waited for at least a millisecond.</p>
+ *
+ * <p>Krackle doesn't tell how full a producer's buffers are, but a send that has to wait for one to be free takes a
+ * millisecond or more rather than the time to copy a message.  With load shedding every send is timed, and the share of
+ * time senders waited in the busiest producer is what LoadShedder decides by.</p>
+ */
+public class ProducerSink implements MessageSink {
+
+	private static final Object producersLock = new Object();
+	private static final Map<String, Stripes> producers = new HashMap<>();
+
+	// The counters behind each gauge, which producers of a name that block for different times share
+	private static final Map<String, Pauses> pausesByGauge = new HashMap<>();
+	private static final Map<String, AtomicInteger> depthsByGauge = new HashMap<>();
+
+	private static final long PAUSE_NANOS = 1000000L;
+
+	// Set once load shedding is enabled, which needs to know how long every producer makes senders wait
+	private static volatile boolean timeSends = false;
+
+	private final Producer producer;
+	private final AtomicLong waitedNanos = new AtomicLong();
+	private final AtomicLong pausedNanos;
+	private final AtomicInteger sending;
+	private final AtomicInteger depth;
+	private final Meter mMessagesSent;
+
+	/**
+	 * The producers of a client ID, topic and key, and which reader gets which
+	 */
+	private static class Stripes {
+
+		private final ProducerSink[] sinks;
+		private int next = 0;
+
+		private Stripes(int count) {
+			sinks = new ProducerSink[count];
+		}
+
+	}
+
+	/**
+	 * How many readers are waiting in a send to a kind of blocking producer, and how long they have waited
+	 */
+	private static class Pauses {
+
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicInteger waiting = new AtomicInteger();
+
+	}
+
+	private ProducerSink(Producer producer, AtomicLong pausedNanos, AtomicInteger sending, AtomicInteger depth, Meter mMessagesSent) {
+		this.producer = producer;
+		this.pausedNanos = pausedNanos;
+		this.sending = sending;
+		this.depth = depth;
+		this.mMessagesSent = mMessagesSent;
+	}
+
+	/**
+	 * Returns a shared producer sink for the configuration's client ID, topic and key, creating it if required.  With
+	 * producers.per.topic greater than 1 the next one of them is returned.
+	 * @param conf
+	 * @return
+	 * @throws Exception
+	 */
+	public static ProducerSink get(Configuration conf) throws Exception {
+		return get(conf, null, null, -1);
+	}
+
+	/**
+	 * Returns one of the producers.per.topic shared producer sinks for the configuration's client ID, topic and key,
+	 * creating them if required
+	 * @param conf
+	 * @param stripe which of them, from 0, or -1 for the next one
+	 * @return
+	 * @throws Exception
+	 */
+	public static ProducerSink get(Configuration conf, int stripe) throws Exception {
+		return get(conf, null, null, stripe);
+	}
+
+	/**
+	 * Returns one of the shared blocking producer sinks of a name for the configuration's client ID, topic and key,
+	 * creating them if required
+	 * @param conf a configuration with the queue.enqueue.timeout.ms to block for (see TopicSinks.getBlockingConf())
+	 * @param name what the sink is for, which its gauges are named after
+	 * @param timeoutMs the conf's queue.enqueue.timeout.ms, as sinks of the same name that block for different times are
+	 * separate producers
+	 * @param stripe which of the producers.per.topic sinks, from 0, or -1 for the next one
+	 * @return
+	 * @throws Exception
+	 */
+	public static ProducerSink getBlocking(Configuration conf, String name, long timeoutMs, int stripe) throws Exception {
+		return get(conf, name + "::" + timeoutMs, name, stripe);
+	}
+
+	private static ProducerSink get(Configuration conf, String blockingKey, String blockingName, int stripe) throws Exception {
+		String clientId = conf.getClientId();
+		String key = conf.getKafkaKey();
+		String topic = conf.getTopicName();
+
+		synchronized (producersLock) {
+			String mapKey = clientId + "::" + topic + "::" + key + (blockingKey != null ? "::" + blockingKey : "");
+
+			Stripes stripes = producers.get(mapKey);
+
+			if (stripes == null) {
+				MetricRegistry registry = MetricRegistrySingleton.getInstance().getMetricsRegistry();
+				AtomicLong pausedNanos = null;
+				AtomicInteger sending = null;
+
+				if (blockingName != null) {
+					// Shared by all the producers of the name, so the gauges are for the topic as a whole
+					String pausedName = "klogger:topics:" + topic + ":" + blockingName + " paused";
+					Pauses pauses = pausesByGauge.get(pausedName);
+
+					if (pauses == null) {
+						pauses = new Pauses();
+						pausesByGauge.put(pausedName, pauses);
+
+						final AtomicLong paused = pauses.nanos;
+						final AtomicInteger waiting = pauses.waiting;
+
+						registry.register(pausedName, new Gauge<Integer>() {
+							@Override
+							public Integer getValue() {
+								return waiting.get();
+							}
+
+						});
+						registry.register(pausedName + " ms", new Gauge<Long>() {
+							@Override
+							public Long getValue() {
+								return paused.get() / PAUSE_NANOS;
+							}
+
+						});
+					}
+
+					pausedNanos = pauses.nanos;
+					sending = pauses.waiting;
+				}
+
+				stripes = new Stripes(conf.getProducersPerTopic());
+
+				for (int i = 0; i < stripes.sinks.length; i++) {
+					AtomicInteger depth = null;
+					Meter mMessagesSent = null;
+					String stripeKey = key;
+
+					if (stripes.sinks.length > 1) {
+						String prefix = "klogger:topics:" + topic + ":" + (blockingName != null ? blockingName + " " : "") + "producer " + i;
+						AtomicInteger queued = depthsByGauge.get(prefix + " queue depth");
+
+						if (queued == null) {
+							queued = new AtomicInteger();
+							depthsByGauge.put(prefix + " queue depth", queued);
+
+							final AtomicInteger depthGauge = queued;
+
+							registry.register(prefix + " queue depth", new Gauge<Integer>() {
+								@Override
+								public Integer getValue() {
+									return depthGauge.get();
+								}
+
+							});
+						}
+
+						depth = queued;
+						mMessagesSent = registry.meter(prefix + " messages sent");
+						stripeKey = key + "-" + i;
+					}
+
+					stripes.sinks[i] = new ProducerSink(new Producer(conf, clientId, topic, stripeKey, registry), pausedNanos, sending, depth, mMessagesSent);
+				}
+
+				producers.put(mapKey, stripes);
+			}
+
+			if (stripe >= 0) {
+				return stripes.sinks[stripe];
+			}
+
+			ProducerSink sink = stripes.sinks[stripes.next];
+
+			stripes.next = (stripes.next + 1) % stripes.sinks.length;
+
+			return sink;
+		}
+	}
+
+	/**
+	 * Starts timing every send, for takeWaitShare()
+	 */
+	static void timeSends() {
+		timeSends = true;
+	}
+
+	/**
+	 * Returns the largest share of an interval that senders spent waiting for any one producer (in sends that took at
+	 * least a millisecond), since the last call, with sends timed (see timeSends())
+	 * @param intervalNanos how long it is since the last call
+	 * @return the share, from 0 to 1
+	 */
+	static double takeWaitShare(long intervalNanos) {
+		long most = 0;
+
+		synchronized (producersLock) {
+			for (Stripes stripes : producers.values()) {
+				for (ProducerSink sink : stripes.sinks) {
+					most = Math.max(most, sink.waitedNanos.getAndSet(0));
+				}
+			}
+		}
+
+		return Math.min(1.0, (double) most / intervalNanos);
+	}
+
+	@Override
+	public void send(byte[] buffer, int offset, int length) throws Exception {
+		if (depth != null) {
+			depth.incrementAndGet();
+
+			try {
+				send(buffer, offset, length, pausedNanos);
+			} finally {
+				depth.decrementAndGet();
+			}
+
+			mMessagesSent.mark();
+			return;
+		}
+
+		send(buffer, offset, length, pausedNanos);
+	}
+
+	private void send(byte[] buffer, int offset, int length, AtomicLong pausedNanos) throws Exception {
+		if (pausedNanos == null) {
+			if (!timeSends) {
+				producer.send(buffer, offset, length);
+				return;
+			}
+
+			long start = System.nanoTime();
+
+			producer.send(buffer, offset, length);
+
+			long elapsed = System.nanoTime() - start;
+
+			if (elapsed >= PAUSE_NANOS) {
+				waitedNanos.addAndGet(elapsed);
+			}
+
+			return;
+		}
+
+		long start = System.nanoTime();
+
+		sending.incrementAndGet();
+
+		try {
+			producer.send(buffer, offset, length);
+		} finally {
+			sending.decrementAndGet();
+		}
+
+		long elapsed = System.nanoTime() - start;
+
+		if (elapsed >= PAUSE_NANOS) {
+			pausedNanos.addAndGet(elapsed);
+			waitedNanos.addAndGet(elapsed);
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+/**
+ * Sends each message to the sink of the topic its start routes it to, or to the source's own sink if it routes nowhere.
+ *
+ * <p>Routes are the keys of a ByteTrie, which the message after its timestamp (if one is encoded) is matched against, so
+ * a message goes where its longest matching route says.  A route can strip the bytes it matched, a topic tag, from the
+ * message.  The timestamp is then moved up to just before what remains, in the buffer the message was sent in, which is
+ * always the reader's own send buffer when there is one.  Routed messages are counted by the producer of their topic,
+ * not here, as marking a meter costs more than finding the route.</p>
+ */
+public class RoutingSink implements MessageSink {
+
+	private final ByteTrie routes;
+	private final MessageSink[] sinks;
+	private final boolean[] strip;
+	private final MessageSink unrouted;
+	private final int headerBytes;
+
+	/**
+	 * @param routes
+	 * @param sinks the sink of each route
+	 * @param strip whether each route strips what it matched
+	 * @param unrouted where to send messages that match no route
+	 * @param headerBytes how many bytes before the message routes are matched against, the encoded timestamp
+	 */
+	public RoutingSink(ByteTrie routes, MessageSink[] sinks, boolean[] strip, MessageSink unrouted, int headerBytes) {
+		this.routes = routes;
+		this.sinks = sinks;
+		this.strip = strip;
+		this.unrouted = unrouted;
+		this.headerBytes = headerBytes;
+	}
+
+	@Override
+	public void send(byte[] buffer, int offset, int length) throws Exception {
+		int route = routes.match(buffer, offset + headerBytes, length - headerBytes);
+
+		if (route < 0) {
+			unrouted.send(buffer, offset, length);
+			return;
+		}
+
+		if (strip[route]) {
+			int stripped = routes.getKeyLength(route);
+
+			if (headerBytes > 0) {
+				System.arraycopy(buffer, offset, buffer, offset + stripped, headerBytes);
+			}
+
+			offset += stripped;
+			length -= stripped;
+		}
+
+		sinks[route].send(buffer, offset, length);
+	}
+
+}
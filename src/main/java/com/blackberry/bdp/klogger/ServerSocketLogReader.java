@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,9 +30,10 @@ public class ServerSocketLogReader extends LogReader {
 
 	private InputStream in;
 	private final Socket socket;
+	private int timeoutMs = 0;
 
 	public ServerSocketLogReader(PortSource source, Socket s) throws Exception {
-		super(source.getConf());
+		super(source.getConf(), source.getSink());
 		LOG.info("Created new {} for connection {}", this.getClass().getName(), s.getRemoteSocketAddress());
 		socket = s;
 	}
@@ -43,7 +45,19 @@ public class ServerSocketLogReader extends LogReader {
 
 	@Override
 	protected int readSource() throws Exception {
-		bytesRead = in.read(bytes, start, maxLine - start);
+		// Reads only wait as long as a pending multiline event may, so it is sent on time
+		int waitMs = (int) sendEventIfDue();
+
+		if (waitMs != timeoutMs) {
+			socket.setSoTimeout(waitMs);
+			timeoutMs = waitMs;
+		}
+
+		try {
+			bytesRead = in.read(bytes, getWriteOffset(), getWritableBytes());
+		} catch (SocketTimeoutException ste) {
+			return 0;
+		}
 
 		return bytesRead;
 	}
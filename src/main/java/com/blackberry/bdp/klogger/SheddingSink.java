@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends only one in shed.keep.one.in of a source's messages while LoadShedder's level is at least the source's
+ * shed.priority, and all of them otherwise.
+ *
+ * <p>With shed.sample count every nth message of the topic is kept, counted across all of its readers so that
+ * readers that only send a few messages each, short lived connections say, shed as much as the others.  With shed.sample hash a message is kept when the
+ * hash of its key (see KeyExtractor), or of the whole message if no key is configured or it has none, falls in one of n
+ * buckets, so the same messages (or all the messages of the same keys) are kept wherever and whenever they are read.  The
+ * topic's "shed lines" counter counts the messages dropped and "sampled lines" those kept while shedding, and its "shed
+ * keep one in" gauge is n while the source sheds and 1 when it doesn't, which is what counts downstream have to be
+ * multiplied by.  Each reader has its own shedding sink, which shares the topic's count.</p>
+ */
+public class SheddingSink implements MessageSink {
+
+	private static final Map<String, AtomicLong> counts = new HashMap<>();
+
+	private final MessageSink sink;
+	private final int priority;
+	private final int keepOneIn;
+	private final KeyExtractor extractor;
+	private final boolean hashed;
+	private final int headerBytes;
+	private final Counter shed;
+	private final Counter sampled;
+	private final AtomicLong count;
+
+	/**
+	 * @param sink where the messages kept are sent
+	 * @param topic
+	 * @param priority shed.priority
+	 * @param keepOneIn shed.keep.one.in
+	 * @param hashed whether messages are kept by hash, rather than by count
+	 * @param extractor the key extractor messages are hashed by, or null to hash whole messages
+	 * @param headerBytes how many bytes before the message its key or hash is taken from, the encoded timestamp
+	 */
+	public SheddingSink(MessageSink sink, String topic, final int priority, final int keepOneIn, boolean hashed, KeyExtractor extractor, int headerBytes) {
+		this.sink = sink;
+		this.priority = priority;
+		this.keepOneIn = keepOneIn;
+		this.hashed = hashed;
+		this.extractor = extractor;
+		this.headerBytes = headerBytes;
+
+		synchronized (counts) {
+			AtomicLong topicCount = counts.get(topic);
+
+			if (topicCount == null) {
+				topicCount = new AtomicLong();
+				counts.put(topic, topicCount);
+			}
+
+			count = topicCount;
+		}
+
+		MetricRegistry registry = MetricRegistrySingleton.getInstance().getMetricsRegistry();
+
+		shed = registry.counter("klogger:topics:" + topic + ":shed lines");
+		sampled = registry.counter("klogger:topics:" + topic + ":sampled lines");
+
+		String keepName = "klogger:topics:" + topic + ":shed keep one in";
+
+		synchronized (registry) {
+			if (!registry.getGauges().containsKey(keepName)) {
+				registry.register(keepName, new Gauge<Integer>() {
+					@Override
+					public Integer getValue() {
+						return LoadShedder.getLevel() >= priority ? keepOneIn : 1;
+					}
+
+				});
+			}
+		}
+	}
+
+	@Override
+	public void send(byte[] buffer, int offset, int length) throws Exception {
+		if (LoadShedder.getLevel() < priority) {
+			sink.send(buffer, offset, length);
+			return;
+		}
+
+		if (!keep(buffer, offset + headerBytes, length - headerBytes)) {
+			shed.inc();
+			return;
+		}
+
+		sampled.inc();
+		sink.send(buffer, offset, length);
+	}
+
+	private boolean keep(byte[] buffer, int offset, int length) {
+		if (!hashed) {
+			return count.incrementAndGet() % keepOneIn == 0;
+		}
+
+		int hash = extractor != null && extractor.extract(buffer, offset, length)
+			 ? KeyExtractor.hash(buffer, extractor.getKeyOffset(), extractor.getKeyLength())
+			 : KeyExtractor.hash(buffer, offset, length);
+
+		// Mixed again, KeyedSink picks the producer by the same hash and would otherwise keep the keys of some producers only
+		return ((hash * 0x9E3779B1) >>> 8) % keepOneIn == 0;
+	}
+
+}
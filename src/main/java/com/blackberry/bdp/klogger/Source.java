@@ -24,15 +24,55 @@ public abstract class Source {
 	private static final Logger LOG = LoggerFactory.getLogger(Source.class);
 	private String topic;
 	public Configuration conf;
+	private TopicSinks sinks;
 
 	public Source(String topic) {
 		this.topic = topic;
 	}
 
+	/**
+	 * Creates a source with the topic, configuration and sinks of another, that shares them rather than configuring its own
+	 * @param shared
+	 */
+	protected Source(Source shared) {
+		this.topic = shared.topic;
+		this.conf = shared.conf;
+		this.sinks = shared.sinks;
+	}
+
 	public abstract Runnable getListener();
 
 	public void configure(Properties props) throws ConfigurationException, Exception {
-		setConf(new Configuration(props, topic));
+		configure(props, new Configuration(props, topic), null);
+	}
+
+	/**
+	 * Configures the source with its topic's configuration
+	 * @param props
+	 * @param conf
+	 * @param sinks sinks shared with another source of the topic, or null for sinks of its own
+	 * @throws ConfigurationException
+	 * @throws Exception
+	 */
+	protected void configure(Properties props, Configuration conf, TopicSinks sinks) throws ConfigurationException, Exception {
+		setConf(conf);
+		this.sinks = sinks != null ? sinks : new TopicSinks(props, conf);
+	}
+
+	/**
+	 * Returns the sink a reader of the source sends its messages to, see TopicSinks.getSink()
+	 * @return
+	 * @throws Exception
+	 */
+	public MessageSink getSink() throws Exception {
+		return sinks.getSink();
+	}
+
+	/**
+	 * @return the sinks of the source's topic
+	 */
+	protected TopicSinks getTopicSinks() {
+		return sinks;
 	}
 
 	public String getTopic() {
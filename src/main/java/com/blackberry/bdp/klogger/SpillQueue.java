@@ -0,0 +1,342 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A first in first out queue of messages kept in segment files in a directory, for messages that the producer has no room
+ * for.
+ *
+ * <p>Messages are appended to the newest segment, through a write buffer, as records of their length, the CRC32 of the
+ * message and the message.  A new segment is started when the newest one is full.  Appends are only fsynced every
+ * fsyncMs (and by sync()), so a crash loses at most the messages appended since then.  Segments are deleted once every
+ * message in them has been read, and the oldest are deleted, read or not, when the queue would grow past maxBytes.  A torn
+ * or corrupt record skips the rest of its segment.</p>
+ *
+ * <p>Segments left by a previous run are read first, from their start, so the messages of a segment that was partly read
+ * before a restart are read again.  Appends and reads may come from different threads.</p>
+ */
+public class SpillQueue {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SpillQueue.class);
+	private static final String SUFFIX = ".spill";
+	private static final int HEADER_BYTES = 8;
+	private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+	private final Path directory;
+	private final long maxBytes;
+	private final long segmentBytes;
+	private final long fsyncMs;
+	private final Deque<Long> segments = new ArrayDeque<>();
+	private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+	private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+	private final CRC32 crc = new CRC32();
+	private FileChannel writeChannel;
+	private long writeBytes;
+	private long flushedBytes;
+	private FileChannel readChannel;
+	private long readPosition;
+	private long totalBytes;
+	private long unreadBytes;
+	private long lastSyncMs = System.currentTimeMillis();
+
+	/**
+	 * Opens the queue in a directory, finding the segments left in it
+	 * @param directory
+	 * @param maxBytes the most the segments may take up
+	 * @param segmentBytes how large a segment grows before a new one is started
+	 * @param fsyncMs how often appends are fsynced
+	 * @throws IOException
+	 */
+	public SpillQueue(Path directory, long maxBytes, long segmentBytes, long fsyncMs) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.segmentBytes = segmentBytes;
+		this.fsyncMs = fsyncMs;
+
+		Files.createDirectories(directory);
+
+		List<Long> found = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path segment : stream) {
+				String name = segment.getFileName().toString();
+
+				try {
+					found.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+				} catch (NumberFormatException nfe) {
+					LOG.warn("Ignoring {}, which is not a spill segment", segment);
+				}
+			}
+		}
+
+		Collections.sort(found);
+
+		for (long sequence : found) {
+			long size = Files.size(segment(sequence));
+
+			segments.add(sequence);
+			totalBytes += size;
+			unreadBytes += size;
+		}
+
+		if (!found.isEmpty()) {
+			LOG.info("Found {} spilled bytes in {} segments in {}", totalBytes, found.size(), directory);
+		}
+
+		startSegment(found.isEmpty() ? 0 : found.get(found.size() - 1) + 1);
+	}
+
+	/**
+	 * @param length
+	 * @return how many bytes a message of a length takes up in a segment
+	 */
+	public static long recordBytes(int length) {
+		return HEADER_BYTES + length;
+	}
+
+	private Path segment(long sequence) {
+		return directory.resolve(String.format("%020d%s", sequence, SUFFIX));
+	}
+
+	private void startSegment(long sequence) throws IOException {
+		writeChannel = FileChannel.open(segment(sequence), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		writeBytes = 0;
+		flushedBytes = 0;
+		segments.add(sequence);
+	}
+
+	/**
+	 * @return true if every message appended has been read
+	 */
+	public synchronized boolean isEmpty() {
+		return unreadBytes == 0;
+	}
+
+	/**
+	 * @return how many bytes the segments take up, including the messages of the oldest that have been read
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Appends a message, first deleting the oldest segments if the queue would otherwise grow past its maximum size
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return how many bytes of records (see recordBytes()) that had not been read were deleted to make room
+	 * @throws IOException
+	 */
+	public synchronized long append(byte[] buffer, int offset, int length) throws IOException {
+		long recordBytes = HEADER_BYTES + length;
+		long evicted = 0;
+
+		if (writeBytes > 0 && writeBytes + recordBytes > segmentBytes) {
+			flush();
+			writeChannel.force(false);
+			writeChannel.close();
+			startSegment(segments.getLast() + 1);
+		}
+
+		while (totalBytes + recordBytes > maxBytes && segments.size() > 1) {
+			evicted += deleteOldest();
+		}
+
+		crc.reset();
+		crc.update(buffer, offset, length);
+
+		if (writeBuffer.remaining() < recordBytes) {
+			flush();
+		}
+
+		if (writeBuffer.remaining() >= recordBytes) {
+			writeBuffer.putInt(length).putInt((int) crc.getValue()).put(buffer, offset, length);
+		} else {
+			// Too large for the write buffer, so it is written straight to the segment
+			header.clear();
+			header.putInt(length).putInt((int) crc.getValue()).flip();
+			writeFully(header);
+			writeFully(ByteBuffer.wrap(buffer, offset, length));
+			flushedBytes += recordBytes;
+		}
+
+		writeBytes += recordBytes;
+		totalBytes += recordBytes;
+		unreadBytes += recordBytes;
+
+		if (System.currentTimeMillis() - lastSyncMs >= fsyncMs) {
+			sync();
+		}
+
+		return evicted;
+	}
+
+	/**
+	 * Deletes the oldest segment, which is never the one being written
+	 * @return how many bytes of it had not been read
+	 */
+	private long deleteOldest() throws IOException {
+		long sequence = segments.removeFirst();
+		Path path = segment(sequence);
+		long size = Files.size(path);
+		long unread = size;
+
+		if (readChannel != null) {
+			// The oldest segment is the one being read
+			readChannel.close();
+			readChannel = null;
+			unread -= readPosition;
+			readPosition = 0;
+		}
+
+		Files.delete(path);
+		totalBytes -= size;
+		unreadBytes -= unread;
+
+		return unread;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			writeChannel.write(buffer);
+		}
+	}
+
+	private void flush() throws IOException {
+		writeBuffer.flip();
+		flushedBytes += writeBuffer.remaining();
+		writeFully(writeBuffer);
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Writes and fsyncs every message appended so far
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		flush();
+		writeChannel.force(false);
+		lastSyncMs = System.currentTimeMillis();
+	}
+
+	/**
+	 * Reads the oldest message that has not been read yet, deleting segments that have been read to the end
+	 * @return the message, or null if every message appended has been read
+	 * @throws IOException
+	 */
+	public synchronized byte[] read() throws IOException {
+		while (true) {
+			boolean writing = segments.size() == 1;
+
+			if (writing && readPosition == flushedBytes && writeBuffer.position() > 0) {
+				flush();
+			}
+
+			if (readChannel == null) {
+				readChannel = FileChannel.open(segment(segments.getFirst()), StandardOpenOption.READ);
+			}
+
+			long end = writing ? flushedBytes : readChannel.size();
+
+			if (readPosition >= end) {
+				if (writing) {
+					return null;
+				}
+
+				// Read to the end, so the segment is no longer needed
+				deleteOldest();
+				continue;
+			}
+
+			header.clear();
+			readFully(header, readPosition, end);
+
+			int length = header.getInt(0);
+			int expected = header.getInt(4);
+
+			if (header.hasRemaining() || length < 0 || readPosition + HEADER_BYTES + length > end) {
+				skipSegment(end, "torn");
+				continue;
+			}
+
+			byte[] message = new byte[length];
+
+			readFully(ByteBuffer.wrap(message), readPosition + HEADER_BYTES, end);
+			crc.reset();
+			crc.update(message, 0, length);
+
+			if ((int) crc.getValue() != expected) {
+				skipSegment(end, "corrupt");
+				continue;
+			}
+
+			readPosition += HEADER_BYTES + length;
+			unreadBytes -= HEADER_BYTES + length;
+
+			return message;
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position, long end) throws IOException {
+		while (buffer.hasRemaining() && position < end) {
+			int read = readChannel.read(buffer, position);
+
+			if (read < 0) {
+				break;
+			}
+
+			position += read;
+		}
+	}
+
+	private void skipSegment(long end, String reason) {
+		LOG.warn("Skipping {} bytes of {} after a {} record", end - readPosition, segment(segments.getFirst()), reason);
+		unreadBytes -= end - readPosition;
+		readPosition = end;
+	}
+
+	/**
+	 * Writes and fsyncs every message appended so far, and closes the segments
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		sync();
+
+		if (readChannel != null) {
+			readChannel.close();
+		}
+
+		writeChannel.close();
+	}
+
+}
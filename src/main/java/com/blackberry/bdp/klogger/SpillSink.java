@@ -0,0 +1,252 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sink that spills the messages its producer has no room for to disk, and replays them once the producer catches up.
+ *
+ * <p>Messages are handed to the topic's forwarder thread through a queue of spill.queue.messages, and the forwarder sends
+ * them with a producer that waits for room rather than dropping them.  When the queue is full the producer is saturated,
+ * so messages are appended to a {@link SpillQueue} in spill.dir/&lt;topic&gt; instead, as is every message after them until
+ * the forwarder has read the spill back, which keeps them in order.  The forwarder replays spilled messages as fast as the
+ * producer takes them.</p>
+ *
+ * <p>While nothing is spilled a send only copies the message into a pooled buffer and queues it, without a lock.  The
+ * lock is only taken to spill, and to tell once the forwarder has read the spill back.</p>
+ *
+ * <p>The topic's "spilled bytes", "replayed bytes" and "evicted bytes" meters count what went to disk, what was sent from
+ * it and what was deleted unsent to stay within spill.max.bytes, and its "spill bytes" gauge is how much is on disk, all
+ * in bytes of records (the messages and an eight byte header each).
+ * Messages still in the queue when KLogger stops are lost, as they would be in the producer's buffers.</p>
+ */
+public class SpillSink implements MessageSink, Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SpillSink.class);
+	private static final long POLL_MS = 100;
+	private static final int MIN_BUFFER_BYTES = 64;
+
+	private static final Map<Path, SpillSink> sinks = new HashMap<>();
+	private static ScheduledExecutorService syncer;
+
+	private final String topic;
+	private final MessageSink producer;
+	private final SpillQueue spill;
+	private final BlockingQueue<ByteBuffer> queue;
+	private final BufferPool buffers;
+	// Set with the lock held while there are spilled messages, that later ones have to be spilled after
+	private volatile boolean spilling;
+	private final Meter mSpilled;
+	private final Meter mReplayed;
+	private final Meter mEvicted;
+
+	private SpillSink(String topic, MessageSink producer, SpillQueue spill, int queueMessages) {
+		this.topic = topic;
+		this.producer = producer;
+		this.spill = spill;
+		this.queue = new ArrayBlockingQueue<>(queueMessages);
+		this.buffers = new BufferPool(queueMessages);
+		this.spilling = !spill.isEmpty();
+
+		MetricRegistry registry = MetricRegistrySingleton.getInstance().getMetricsRegistry();
+
+		mSpilled = registry.meter("klogger:topics:" + topic + ":spilled bytes");
+		mReplayed = registry.meter("klogger:topics:" + topic + ":replayed bytes");
+		mEvicted = registry.meter("klogger:topics:" + topic + ":evicted bytes");
+
+		String bytesName = "klogger:topics:" + topic + ":spill bytes";
+
+		if (!registry.getGauges().containsKey(bytesName)) {
+			registry.register(bytesName, new Gauge<Long>() {
+				@Override
+				public Long getValue() {
+					return SpillSink.this.spill.getTotalBytes();
+				}
+
+			});
+		}
+	}
+
+	/**
+	 * Returns the shared spill sink of the configuration's topic, opening its spill and starting its forwarder if needed
+	 * @param conf a configuration with spill.dir set
+	 * @param producerConf the configuration of the producer the forwarder sends with, which should wait for room
+	 * @return
+	 * @throws Exception
+	 */
+	public static SpillSink get(Configuration conf, Configuration producerConf) throws Exception {
+		String topic = conf.getTopicName();
+		Path directory = Paths.get(conf.getSpillDir(), topic).toAbsolutePath().normalize();
+
+		synchronized (sinks) {
+			SpillSink sink = sinks.get(directory);
+
+			if (sink == null) {
+				final SpillQueue spill = new SpillQueue(directory, conf.getSpillMaxBytes(), conf.getSpillSegmentBytes(), conf.getSpillFsyncMs());
+
+				sink = new SpillSink(topic, ProducerSink.getBlocking(producerConf, "spill", -1, -1), spill, conf.getSpillQueueMessages());
+				Threads.start(sink, "klogger-spill-" + topic);
+
+				if (syncer == null) {
+					syncer = Executors.newSingleThreadScheduledExecutor(Threads.factory("klogger-spill-sync"));
+				}
+
+				// Appends fsync when they are due, this catches the last of them once the appends stop
+				syncer.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						syncQuietly(spill);
+					}
+
+				}, conf.getSpillFsyncMs(), conf.getSpillFsyncMs(), TimeUnit.MILLISECONDS);
+
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						syncQuietly(spill);
+					}
+
+				}, "klogger-spill-shutdown"));
+
+				sinks.put(directory, sink);
+				LOG.info("Spilling {} to {}", topic, directory);
+			}
+
+			return sink;
+		}
+	}
+
+	private static void syncQuietly(SpillQueue spill) {
+		try {
+			spill.sync();
+		} catch (IOException ioe) {
+			LOG.error("Unable to sync spilled messages: ", ioe);
+		}
+	}
+
+	@Override
+	public void send(byte[] buffer, int offset, int length) throws Exception {
+		// Nothing can be queued while there are spilled messages, or it would be sent before them
+		if (spilling) {
+			spill(buffer, offset, length, null);
+			return;
+		}
+
+		ByteBuffer message = buffers.take(getCapacity(length));
+
+		message.put(buffer, offset, length);
+		message.flip();
+
+		if (!queue.offer(message)) {
+			spill(buffer, offset, length, message);
+		}
+	}
+
+	/**
+	 * Spills a message, or queues it after all if the forwarder has read the spill back and made room in the queue
+	 */
+	private synchronized void spill(byte[] buffer, int offset, int length, ByteBuffer message) throws Exception {
+		if (!spilling && message != null && queue.offer(message)) {
+			return;
+		}
+
+		if (message != null) {
+			buffers.give(message);
+		}
+
+		spilling = true;
+
+		long evicted = spill.append(buffer, offset, length);
+
+		mSpilled.mark(SpillQueue.recordBytes(length));
+
+		if (evicted > 0) {
+			mEvicted.mark(evicted);
+			LOG.warn("Deleted {} spilled bytes of {} that were never sent, to stay within spill.max.bytes", evicted, topic);
+		}
+	}
+
+	/**
+	 * Messages are copied into buffers of a power of two bytes, so the pool has few sizes of them
+	 */
+	private static int getCapacity(int length) {
+		return length <= MIN_BUFFER_BYTES ? MIN_BUFFER_BYTES : Integer.highestOneBit(length - 1) << 1;
+	}
+
+	/**
+	 * Sends queued messages, and then spilled ones, to the producer
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				ByteBuffer message = queue.poll();
+
+				if (message == null) {
+					byte[] spilled = spill.read();
+
+					if (spilled != null) {
+						producer.send(spilled, 0, spilled.length);
+						mReplayed.mark(SpillQueue.recordBytes(spilled.length));
+						continue;
+					}
+
+					if (spilling) {
+						synchronized (this) {
+							// Sends spill with the lock held, so once the spill is empty here anything sent next is queued
+							spilling = !spill.isEmpty();
+						}
+
+						continue;
+					}
+
+					message = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+
+					if (message == null) {
+						continue;
+					}
+				}
+
+				try {
+					producer.send(message.array(), 0, message.limit());
+				} finally {
+					buffers.give(message);
+				}
+			} catch (Exception e) {
+				LOG.error("Error forwarding a message of {}: ", topic, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds which of a set of byte strings a message contains, in a single pass over it, with an Aho-Corasick automaton
+ * compiled once into a table of transitions, so that searching a message neither allocates nor decodes it.
+ *
+ * <p>Bytes that appear in none of the strings share one column of the table, which keeps it small: a state and a byte
+ * lead to the next state with two array reads.  While the automaton is in its start state, which it is for most bytes of
+ * most messages, it skips the bytes that leave it there without waiting for each to be looked up.  Each state knows the lowest index of the strings that end there, so the
+ * lower a string's index the higher its priority.  An automaton is immutable and may be shared by any number of
+ * threads.</p>
+ */
+public class SubstringMatcher {
+
+	// The column of the table for each byte, 0 for the bytes that appear in no string
+	private final int[] columns = new int[256];
+	private final int width;
+	// Whether each byte leads away from the start state, the first byte of a string
+	private final boolean[] starts = new boolean[256];
+	// States are numbered by the offset of their row, the next state for state s and column c is transitions[s + c], which
+	// is negative (the next state with its sign bit set) when strings end at it
+	private final int[] transitions;
+	// The lowest index of the strings that end at each state, by row, or -1
+	private final int[] matches;
+
+	/**
+	 * Compiles an automaton
+	 * @param strings the strings, whose indexes find() returns
+	 * @throws IllegalArgumentException if a string is empty
+	 */
+	public SubstringMatcher(byte[][] strings) {
+		int used = 1;
+
+		for (byte[] string : strings) {
+			if (string.length == 0) {
+				throw new IllegalArgumentException("empty string");
+			}
+
+			for (byte b : string) {
+				if (columns[b & 0xff] == 0) {
+					columns[b & 0xff] = used++;
+				}
+			}
+		}
+
+		width = used;
+
+		// Build the trie of the strings, -1 for a missing edge
+		List<int[]> edges = new ArrayList<>();
+		List<Integer> ends = new ArrayList<>();
+
+		edges.add(newRow());
+		ends.add(-1);
+
+		for (int i = 0; i < strings.length; i++) {
+			int state = 0;
+
+			for (byte b : strings[i]) {
+				int column = columns[b & 0xff];
+
+				if (edges.get(state)[column] < 0) {
+					edges.get(state)[column] = edges.size();
+					edges.add(newRow());
+					ends.add(-1);
+				}
+
+				state = edges.get(state)[column];
+			}
+
+			if (ends.get(state) < 0) {
+				ends.set(state, i);
+			}
+		}
+
+		// Breadth first, so a state's failure state is complete before it: missing edges follow the failure state's
+		transitions = new int[edges.size() * width];
+		matches = new int[edges.size()];
+
+		int[] failure = new int[edges.size()];
+		int[] queue = new int[edges.size()];
+		int head = 0;
+		int tail = 0;
+
+		matches[0] = ends.get(0);
+
+		for (int column = 0; column < width; column++) {
+			int child = edges.get(0)[column];
+
+			if (child < 0) {
+				transitions[column] = 0;
+			} else {
+				transitions[column] = child;
+				failure[child] = 0;
+				queue[tail++] = child;
+			}
+		}
+
+		while (head < tail) {
+			int state = queue[head++];
+			int fail = failure[state];
+
+			matches[state] = lowest(ends.get(state), matches[fail]);
+
+			for (int column = 0; column < width; column++) {
+				int child = edges.get(state)[column];
+
+				if (child < 0) {
+					transitions[state * width + column] = transitions[fail * width + column];
+				} else {
+					transitions[state * width + column] = child;
+					failure[child] = transitions[fail * width + column];
+					queue[tail++] = child;
+				}
+			}
+		}
+
+		for (int t = 0; t < transitions.length; t++) {
+			int next = transitions[t];
+
+			transitions[t] = next * width | (matches[next] >= 0 ? Integer.MIN_VALUE : 0);
+		}
+
+		for (byte[] string : strings) {
+			starts[string[0] & 0xff] = true;
+		}
+	}
+
+	private int[] newRow() {
+		int[] row = new int[width];
+
+		Arrays.fill(row, -1);
+		return row;
+	}
+
+	private static int lowest(int a, int b) {
+		if (a < 0) {
+			return b;
+		}
+
+		return b < 0 ? a : Math.min(a, b);
+	}
+
+	/**
+	 * Searches a message (which may be split in two, the second part being the first wrappedLength bytes of the array) for
+	 * the strings
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param wrappedLength
+	 * @param stopBelow the search stops at the first string found whose index is lower than this
+	 * @return the index of the first string found below stopBelow, otherwise the lowest index of the strings found, or -1
+	 * if the message contains none of them
+	 */
+	public int find(byte[] bytes, int offset, int length, int wrappedLength, int stopBelow) {
+		long result = find(bytes, offset, offset + length, 0, -1, stopBelow);
+
+		if (wrappedLength > 0 && (int) result >= 0) {
+			result = find(bytes, 0, wrappedLength, (int) result, (int) (result >> 32), stopBelow);
+		}
+
+		return (int) (result >> 32);
+	}
+
+	/**
+	 * Runs the automaton over bytes from start to end from a state
+	 * @return the lowest index found, or the one found below stopBelow, in the high 32 bits, and the state in the low 32
+	 * bits (-1 if a string below stopBelow was found)
+	 */
+	private long find(byte[] bytes, int start, int end, int state, int found, int stopBelow) {
+		int i = start;
+
+		while (i < end) {
+			if (state == 0) {
+				// Most bytes lead from the start back to it, and looking for one that doesn't needs no state
+				while (i < end && !starts[bytes[i] & 0xff]) {
+					i++;
+				}
+
+				if (i == end) {
+					break;
+				}
+			}
+
+			int next = transitions[state + columns[bytes[i++] & 0xff]];
+
+			state = next & Integer.MAX_VALUE;
+
+			if (next < 0) {
+				int match = matches[state / width];
+
+				if (match < stopBelow) {
+					return (long) match << 32 | 0xffffffffL;
+				}
+
+				found = lowest(found, match);
+			}
+		}
+
+		return (long) found << 32 | state;
+	}
+
+	/**
+	 * Searches the remaining bytes of a buffer, which is only accessed by absolute index, for the strings
+	 * @param buffer
+	 * @param stopBelow the search stops at the first string found whose index is lower than this
+	 * @return the index of the first string found below stopBelow, otherwise the lowest index of the strings found, or -1
+	 * if the buffer contains none of them
+	 */
+	public int find(ByteBuffer buffer, int stopBelow) {
+		int state = 0;
+		int found = -1;
+		int i = buffer.position();
+		int end = buffer.limit();
+
+		while (i < end) {
+			if (state == 0) {
+				while (i < end && !starts[buffer.get(i) & 0xff]) {
+					i++;
+				}
+
+				if (i == end) {
+					break;
+				}
+			}
+
+			int next = transitions[state + columns[buffer.get(i++) & 0xff]];
+
+			state = next & Integer.MAX_VALUE;
+
+			if (next < 0) {
+				int match = matches[state / width];
+
+				if (match < stopBelow) {
+					return match;
+				}
+
+				found = lowest(found, match);
+			}
+		}
+
+		return found;
+	}
+
+}
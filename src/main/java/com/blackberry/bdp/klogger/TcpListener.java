@@ -15,43 +15,97 @@
  */
 package com.blackberry.bdp.klogger;
 
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Meter;
+
 public class TcpListener implements Runnable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(TcpListener.class);
 
-	private final PortSource source;
+	protected final PortSource source;
+	protected final int acceptor;
+	private final Meter mConnectionsAccepted;
+	private final Meter mConnectionsAcceptedTotal;
 
 	public TcpListener(PortSource s) {
+		this(s, 0);
+	}
+
+	/**
+	 * Creates one of the server.acceptors listeners of a source, acceptor 0 starts the others
+	 * @param s
+	 * @param acceptor
+	 */
+	protected TcpListener(PortSource s, int acceptor) {
 		this.source = s;
+		this.acceptor = acceptor;
+
+		mConnectionsAccepted = MetricRegistrySingleton.getInstance().getMetricsRegistry().meter("klogger:topics:" + s.getTopic() + ":connections accepted");
+		mConnectionsAcceptedTotal = MetricRegistrySingleton.getInstance().getMetricsRegistry().meter("klogger:total:connections accepted");
 	}
 
 	@Override
 	public void run() {
 		try {
-			ServerSocket ss = new ServerSocket(
-				 source.getPort(),
-				 source.getListenBacklog(),
-				 source.getBindAddr());
-			ss.setReceiveBufferSize(source.getTcpReceiveBufferBytes());
-			LOG.info("Listening on {}:{} (with listen backlog: {})",
-				 source.getBindAddr().getHostAddress(),
-				 source.getPort(),
-				 source.getListenBacklog());
-			while (true) {
-				Socket s = ss.accept();
-				ServerSocketLogReader r = new ServerSocketLogReader(source, s);
-				Thread t = new Thread(r);
-				t.start();
+			if (acceptor == 0) {
+				for (int i = 1; i < source.getAcceptors(); i++) {
+					Threads.start(newAcceptor(i), "klogger-" + source.getTopic() + "-acceptor-" + i);
+				}
 			}
+
+			listen();
 		} catch (Exception e) {
 			LOG.error("An error occured listening on our socket: ", e);
 			System.exit(1);
 		}
 	}
+
+	/**
+	 * Creates another listener for the same source
+	 * @param acceptor
+	 * @return
+	 */
+	protected TcpListener newAcceptor(int acceptor) {
+		return new TcpListener(source, acceptor);
+	}
+
+	/**
+	 * Binds the port and accepts connections until an error occurs
+	 * @throws Exception
+	 */
+	protected void listen() throws Exception {
+		ServerSocket ss = new ServerSocket();
+		ss.setReceiveBufferSize(source.getTcpReceiveBufferBytes());
+		if (source.getAcceptors() > 1) {
+			PortSource.setReusePort(ss);
+		}
+		ss.bind(new InetSocketAddress(source.getBindAddr(), source.getPort()), source.getListenBacklog());
+		LOG.info("Listening on {}:{} (with listen backlog: {}, acceptor {} of {})",
+			 source.getBindAddr().getHostAddress(),
+			 source.getPort(),
+			 source.getListenBacklog(),
+			 acceptor + 1,
+			 source.getAcceptors());
+		while (true) {
+			Socket s = ss.accept();
+			accepted();
+			ServerSocketLogReader r = new ServerSocketLogReader(source, s);
+			Threads.startReader(r, "klogger-" + source.getTopic() + "-" + s.getRemoteSocketAddress());
+		}
+	}
+
+	/**
+	 * Records that a connection has been accepted
+	 */
+	protected void accepted() {
+		mConnectionsAccepted.mark();
+		mConnectionsAcceptedTotal.mark();
+	}
 }
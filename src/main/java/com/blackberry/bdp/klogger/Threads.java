@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates every thread that KLogger starts, so they are all named and LogReaders can be run on virtual threads.
+ *
+ * <p>When klogger.thread.mode is virtual each LogReader (one per TCP connection or tailed file) runs on a virtual thread
+ * while listeners and NIO selectors stay on platform threads.  Virtual threads need Java 21 or later, they are created
+ * reflectively as KLogger is still built for Java 7.</p>
+ */
+public class Threads {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Threads.class);
+
+	private static boolean virtual = false;
+	private static Object virtualBuilder;
+	private static Method builderName;
+	private static Method builderUnstarted;
+
+	/**
+	 * Reads klogger.thread.mode (platform or virtual) from the properties
+	 * @param props
+	 * @throws ConfigurationException when the mode is unknown or virtual threads are not supported by this JVM
+	 */
+	public static synchronized void configure(Properties props) throws ConfigurationException {
+		String mode = props.getProperty("klogger.thread.mode", "platform").trim().toLowerCase();
+
+		switch (mode) {
+			case "platform":
+				virtual = false;
+				break;
+			case "virtual":
+				try {
+					Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+					virtualBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+					builderName = builderClass.getMethod("name", String.class);
+					builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+				} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+					throw new ConfigurationException("klogger.thread.mode=virtual requires Java 21 or later", e);
+				}
+				virtual = true;
+				break;
+			default:
+				throw new ConfigurationException("klogger.thread.mode must be platform or virtual, not " + mode, null);
+		}
+
+		LOG.info("klogger.thread.mode = {}", mode);
+	}
+
+	/**
+	 * Starts a named platform thread
+	 * @param runnable
+	 * @param name
+	 * @return
+	 */
+	public static Thread start(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Returns a factory for the platform threads of an executor, which are named prefix-0, prefix-1, ...
+	 * @param prefix
+	 * @return
+	 */
+	public static ThreadFactory factory(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger next = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, prefix + "-" + next.getAndIncrement());
+			}
+
+		};
+	}
+
+	/**
+	 * Starts a named thread for a LogReader, which is a virtual thread when klogger.thread.mode is virtual
+	 * @param reader
+	 * @param name
+	 * @return
+	 */
+	public static Thread startReader(LogReader reader, String name) {
+		if (!virtual) {
+			return start(reader, name);
+		}
+
+		Thread thread;
+
+		try {
+			// The builder is shared and name() changes it, so naming and creating a thread must not interleave
+			synchronized (Threads.class) {
+				thread = (Thread) builderUnstarted.invoke(builderName.invoke(virtualBuilder, name), reader);
+			}
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Unable to create a virtual thread", e);
+		}
+
+		thread.start();
+		return thread;
+	}
+
+}
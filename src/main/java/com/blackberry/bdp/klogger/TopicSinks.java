@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.util.Properties;
+
+/**
+ * Builds the sinks that the readers of a topic send their messages to, from the topic's configuration: its producers
+ * (which wait for room when the readers are to block), spill, batches, keys and load shedding.  A source has the sinks
+ * of its own topic, and a port source also those of the topics it routes messages to.
+ */
+public class TopicSinks {
+
+	private final Configuration conf;
+	private Configuration spillProducerConf;
+	private Configuration blockingConf;
+	private String blockingName;
+	private long blockingMs;
+
+	/**
+	 * @param props
+	 * @param conf the topic's configuration
+	 * @throws Exception
+	 */
+	public TopicSinks(Properties props, Configuration conf) throws Exception {
+		this.conf = conf;
+
+		if (conf.getSpillDir() != null) {
+			// What the producer has no room for is spilled, so the producer itself never has to drop anything
+			spillProducerConf = getBlockingConf(props, conf.getTopicName(), -1);
+		}
+
+		if (conf.getShedPriority() > 0) {
+			LoadShedder.register(conf);
+		}
+	}
+
+	/**
+	 * Makes readers wait for room in the topic's producers, which are then separate from the ones readers that don't wait
+	 * send to
+	 * @param props
+	 * @param timeoutMs how long to wait, -1 waits as long as it takes
+	 * @param name what the producers' gauges are named after, see ProducerSink.getBlocking()
+	 * @throws Exception
+	 */
+	public void setBlocking(Properties props, long timeoutMs, String name) throws Exception {
+		blockingConf = getBlockingConf(props, conf.getTopicName(), timeoutMs);
+		blockingName = name;
+		blockingMs = timeoutMs;
+	}
+
+	/**
+	 * Returns the sink a reader of the topic sends its messages to, the topic's spill when spill.dir is set, through the
+	 * topic's batches when batch.lines is greater than 1.  With a key extractor and producers.per.topic greater than 1 the
+	 * reader has a sink of its own that sends each message to the producer its key picks, and with shed.priority greater
+	 * than 0 one that sheds its messages under load.
+	 * @return
+	 * @throws Exception
+	 */
+	public MessageSink getSink() throws Exception {
+		KeyExtractor extractor = KeyExtractor.forConfiguration(conf);
+		// The key follows the timestamp, the magic bytes and the time
+		int headerBytes = conf.isEncodeMessageTimestamp() ? 10 : 0;
+		MessageSink sink;
+
+		if (extractor == null || conf.getProducersPerTopic() == 1) {
+			sink = getSink(-1);
+		} else {
+			MessageSink[] sinks = new MessageSink[conf.getProducersPerTopic()];
+
+			for (int i = 0; i < sinks.length; i++) {
+				sinks[i] = getSink(i);
+			}
+
+			sink = new KeyedSink(extractor, sinks, getSink(-1), headerBytes);
+		}
+
+		if (conf.getShedPriority() > 0) {
+			sink = new SheddingSink(sink, conf.getTopicName(), conf.getShedPriority(), conf.getShedKeepOneIn(), conf.isShedSampleHash(), extractor, headerBytes);
+		}
+
+		return sink;
+	}
+
+	private MessageSink getSink(int stripe) throws Exception {
+		MessageSink sink = spillProducerConf != null ? SpillSink.get(conf, spillProducerConf) : getProducerSink(stripe);
+
+		if (conf.getBatchLines() > 1) {
+			return BatchSink.get(conf, sink);
+		}
+
+		return sink;
+	}
+
+	/**
+	 * Returns one of the topic's producers, one that waits for room with setBlocking()
+	 * @param stripe which of the topic's producers.per.topic producers, from 0, or -1 for the next one
+	 */
+	private MessageSink getProducerSink(int stripe) throws Exception {
+		if (blockingConf != null) {
+			return ProducerSink.getBlocking(blockingConf, blockingName, blockingMs, stripe);
+		}
+
+		return ProducerSink.get(conf, stripe);
+	}
+
+	/**
+	 * Returns a configuration for a producer that waits up to timeoutMs for room for a message, rather than dropping it
+	 * straight away, whatever queue.enqueue.timeout.ms is set to
+	 * @param props
+	 * @param topic
+	 * @param timeoutMs how long to wait, -1 waits as long as it takes
+	 * @return
+	 * @throws Exception
+	 */
+	static Configuration getBlockingConf(Properties props, String topic, long timeoutMs) throws Exception {
+		Properties blocking = new Properties();
+
+		blocking.putAll(props);
+		blocking.setProperty("queue.enqueue.timeout.ms", Long.toString(timeoutMs));
+		blocking.setProperty("source." + topic + ".queue.enqueue.timeout.ms", Long.toString(timeoutMs));
+
+		return new Configuration(blocking, topic);
+	}
+
+	/**
+	 * @return the topic's configuration
+	 */
+	public Configuration getConf() {
+		return conf;
+	}
+
+}
@@ -16,96 +16,308 @@
 package com.blackberry.bdp.klogger;
 
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.CoderResult;
-import java.nio.charset.CodingErrorAction;
+import java.nio.ByteOrder;
 
+/**
+ * Validates UTF-8 in place, replacing malformed input with the replacement character (U+FFFD).
+ *
+ * <p>Input is checked with a DFA directly in the caller's array.  Runs of ASCII are skipped eight bytes at a time and a
+ * repaired copy of the input is only written when a malformed sequence is actually found, so valid lines are never
+ * copied.</p>
+ *
+ * <p>The replacements made are identical to decoding with the JDK's UTF-8 CharsetDecoder (using
+ * CodingErrorAction.REPLACE) and encoding the result again, which is how the validator was originally implemented.</p>
+ */
 public class UTF8Validator {
 
-	private final Charset UTF8;
-	private final CharsetDecoder decoder;
-	private final CharsetEncoder encoder;
-	private CoderResult coderResult;
+	private static final long HIGH_BITS = 0x8080808080808080L;
 
-	private byte[] bytes = new byte[0];
-	private ByteBuffer bb = ByteBuffer.wrap(bytes);
+	private static final byte[] REPLACEMENT = new byte[]{(byte) 0xEF, (byte) 0xBF, (byte) 0xBD};
 
-	private char[] outChars = new char[1];
-	private CharBuffer out = CharBuffer.wrap(outChars);
+	// Byte classes
+	private static final int ASCII = 0;
+	private static final int CONT_80_8F = 1;
+	private static final int CONT_90_9F = 2;
+	private static final int CONT_A0_BF = 3;
+	private static final int INVALID = 4;
+	private static final int LEAD_2 = 5;
+	private static final int LEAD_E0 = 6;
+	private static final int LEAD_3 = 7;
+	private static final int LEAD_ED = 8;
+	private static final int LEAD_F0 = 9;
+	private static final int LEAD_4 = 10;
+	private static final int LEAD_F4 = 11;
+	private static final int NUM_CLASSES = 12;
 
-	private byte[] resultBytes = new byte[1];
-	private ByteBuffer resultBuffer = ByteBuffer.wrap(resultBytes);
+	// States, pre-multiplied by the number of classes so they can index straight into the transition table
+	private static final int ACCEPT = 0;
+	private static final int REJECT = NUM_CLASSES;
+	private static final int NEED_1 = 2 * NUM_CLASSES;
+	private static final int NEED_2 = 3 * NUM_CLASSES;
+	private static final int AFTER_E0 = 4 * NUM_CLASSES;
+	private static final int AFTER_ED = 5 * NUM_CLASSES;
+	private static final int NEED_3 = 6 * NUM_CLASSES;
+	private static final int AFTER_F0 = 7 * NUM_CLASSES;
+	private static final int AFTER_F4 = 8 * NUM_CLASSES;
+	private static final int NUM_STATES = 9;
+
+	private static final byte[] CLASSES = new byte[256];
+	private static final byte[] TRANSITIONS = new byte[NUM_STATES * NUM_CLASSES];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			if (b < 0x80) {
+				CLASSES[b] = ASCII;
+			} else if (b < 0x90) {
+				CLASSES[b] = CONT_80_8F;
+			} else if (b < 0xA0) {
+				CLASSES[b] = CONT_90_9F;
+			} else if (b < 0xC0) {
+				CLASSES[b] = CONT_A0_BF;
+			} else if (b < 0xC2) {
+				CLASSES[b] = INVALID;
+			} else if (b < 0xE0) {
+				CLASSES[b] = LEAD_2;
+			} else if (b == 0xE0) {
+				CLASSES[b] = LEAD_E0;
+			} else if (b == 0xED) {
+				CLASSES[b] = LEAD_ED;
+			} else if (b < 0xF0) {
+				CLASSES[b] = LEAD_3;
+			} else if (b == 0xF0) {
+				CLASSES[b] = LEAD_F0;
+			} else if (b < 0xF4) {
+				CLASSES[b] = LEAD_4;
+			} else if (b == 0xF4) {
+				CLASSES[b] = LEAD_F4;
+			} else {
+				CLASSES[b] = INVALID;
+			}
+		}
 
-	public UTF8Validator() {
-		UTF8 = Charset.forName("UTF-8");
+		for (int i = 0; i < TRANSITIONS.length; i++) {
+			TRANSITIONS[i] = REJECT;
+		}
+
+		TRANSITIONS[ACCEPT + ASCII] = ACCEPT;
+		TRANSITIONS[ACCEPT + LEAD_2] = NEED_1;
+		TRANSITIONS[ACCEPT + LEAD_E0] = AFTER_E0;
+		TRANSITIONS[ACCEPT + LEAD_3] = NEED_2;
+		TRANSITIONS[ACCEPT + LEAD_ED] = AFTER_ED;
+		TRANSITIONS[ACCEPT + LEAD_F0] = AFTER_F0;
+		TRANSITIONS[ACCEPT + LEAD_4] = NEED_3;
+		TRANSITIONS[ACCEPT + LEAD_F4] = AFTER_F4;
+
+		for (int cls = CONT_80_8F; cls <= CONT_A0_BF; cls++) {
+			TRANSITIONS[NEED_1 + cls] = ACCEPT;
+			TRANSITIONS[NEED_2 + cls] = NEED_1;
+			TRANSITIONS[NEED_3 + cls] = NEED_2;
+		}
 
-		encoder = UTF8.newEncoder();
+		// E0 must be followed by A0..BF (no overlongs) and ED by 80..9F (no surrogates)
+		TRANSITIONS[AFTER_E0 + CONT_A0_BF] = NEED_1;
+		TRANSITIONS[AFTER_ED + CONT_80_8F] = NEED_1;
+		TRANSITIONS[AFTER_ED + CONT_90_9F] = NEED_1;
 
-		decoder = UTF8.newDecoder();
-		decoder.onMalformedInput(CodingErrorAction.REPLACE);
-		decoder.replaceWith("\uFFFD");
+		// F0 must be followed by 90..BF (no overlongs) and F4 by 80..8F (nothing above U+10FFFF)
+		TRANSITIONS[AFTER_F0 + CONT_90_9F] = NEED_2;
+		TRANSITIONS[AFTER_F0 + CONT_A0_BF] = NEED_2;
+		TRANSITIONS[AFTER_F4 + CONT_80_8F] = NEED_2;
 	}
 
+	private byte[] viewBytes;
+	private ByteBuffer view;
+
+	private byte[] resultBytes = new byte[1];
+	private byte[] result;
+	private int resultOffset;
+	private int resultLength;
+
 	/**
 	 * Validates a byte[] as UTF8, starting at an offset and for a given length
 	 * @param bytesIn The byte array to validate
 	 * @param offset The starting offset within the byte array
 	 * @param length The length from the offset to validate for
+	 * @return true if the input was valid and is itself the result, false if a repaired copy was made
+	 */
+	public boolean validate(byte[] bytesIn, int offset, int length) {
+		// Wrap the array once so eight bytes can be read at a time, callers normally pass the same array every time
+		if (bytesIn != viewBytes) {
+			viewBytes = bytesIn;
+			view = ByteBuffer.wrap(bytesIn).order(ByteOrder.nativeOrder());
+		}
+
+		ByteBuffer view = this.view;
+
+		int end = offset + length;
+		int i = offset;
+		int copied = offset;
+		int written = 0;
+		boolean repaired = false;
+
+		while (i < end) {
+			if (bytesIn[i] >= 0) {
+				i++;
+
+				while (i + 8 <= end && (view.getLong(i) & HIGH_BITS) == 0) {
+					i += 8;
+				}
+
+				continue;
+			}
+
+			int sequenceStart = i;
+			int state = ACCEPT;
+
+			do {
+				state = TRANSITIONS[state + CLASSES[bytesIn[i++] & 0xFF]];
+			} while (state > REJECT && i < end);
+
+			if (state != ACCEPT) {
+				int malformed = malformedLength(bytesIn, sequenceStart, end);
+
+				if (!repaired) {
+					// Worst case every byte is replaced by the three byte replacement character
+					if (resultBytes.length < 3 * length) {
+						resultBytes = new byte[3 * length];
+					}
+
+					repaired = true;
+				}
+
+				System.arraycopy(bytesIn, copied, resultBytes, written, sequenceStart - copied);
+				written += sequenceStart - copied;
+				System.arraycopy(REPLACEMENT, 0, resultBytes, written, REPLACEMENT.length);
+				written += REPLACEMENT.length;
+
+				i = sequenceStart + malformed;
+				copied = i;
+			}
+		}
+
+		if (repaired) {
+			System.arraycopy(bytesIn, copied, resultBytes, written, end - copied);
+			written += end - copied;
+
+			result = resultBytes;
+			resultOffset = 0;
+			resultLength = written;
+		} else {
+			result = bytesIn;
+			resultOffset = offset;
+			resultLength = length;
+		}
+
+		return !repaired;
+	}
+
+	/**
+	 * Returns how many bytes of the malformed sequence starting at offset are replaced by a single replacement character.
+	 * This mirrors the JDK's UTF-8 decoder, which is not always the maximal subpart recommended by Unicode (a surrogate
+	 * encoded in three bytes is replaced as a whole for example).
 	 */
-	public void validate(byte[] bytesIn, int offset, int length) {
-		// Make bytes the size of length if smaller, and adjust he ByteBuffer's wrap
+	private static int malformedLength(byte[] bytes, int offset, int end) {
+		int b1 = bytes[offset] & 0xFF;
+		int remaining = end - offset;
 
-		if (bytes.length < length) {
-			bytes = new byte[length];
-			bb = ByteBuffer.wrap(bytes);
+		if (b1 >= 0xC2 && b1 <= 0xDF) {
+			return 1;
 		}
 
-		// Copy the portion to be validated from bytesIn into our bytes
-		System.arraycopy(bytesIn, offset, bytes, 0, length);
+		if (b1 >= 0xE0 && b1 <= 0xEF) {
+			if (remaining < 3) {
+				if (remaining > 1 && isMalformed3Second(b1, bytes[offset + 1])) {
+					return 1;
+				}
+
+				// A truncated sequence at the end of the input is replaced as a whole
+				return remaining;
+			}
+
+			int b2 = bytes[offset + 1];
+			int b3 = bytes[offset + 2];
 
-		// Clear the buffer and set the length
-		bb.clear();
-		bb.limit(length);
+			if (isMalformed3Second(b1, b2)) {
+				return 1;
+			}
 
-		// Clear the out CharBuffer and decode the bb ByteBuffer into it
-		out.clear();
-		coderResult = decoder.decode(bb, out, true);
+			if (isNotContinuation(b3)) {
+				return 2;
+			}
 
-		// The out CharBuffer starts with being wrapped to char[1], increase until it's large enough (if needed)
-		while (coderResult == CoderResult.OVERFLOW) {
-			bb.rewind();
-			outChars = new char[2 * outChars.length];
-			out = CharBuffer.wrap(outChars);
-			out.clear();
-			coderResult = decoder.decode(bb, out, true);
+			// Surrogates
+			return 3;
 		}
 
-		// Flip the out CharBuffer we just wrote to so we can read it out again from the begginning
-		out.flip();
-		resultBuffer.clear();
-		coderResult = encoder.encode(out, resultBuffer, true);
-
-		while (coderResult == CoderResult.OVERFLOW) {
-			out.rewind();
-			resultBytes = new byte[2 * resultBytes.length];
-			resultBuffer = ByteBuffer.wrap(resultBytes);
-			resultBuffer.clear();
-			coderResult = encoder.encode(out, resultBuffer, true);
+		if (b1 >= 0xF0 && b1 <= 0xF7) {
+			if (remaining < 4) {
+				if (b1 > 0xF4 || (remaining > 1 && isMalformed4Second(b1, bytes[offset + 1] & 0xFF))) {
+					return 1;
+				}
+
+				if (remaining > 2 && isNotContinuation(bytes[offset + 2])) {
+					return 2;
+				}
+
+				return remaining;
+			}
+
+			if (b1 > 0xF4 || isMalformed4Second(b1, bytes[offset + 1] & 0xFF)) {
+				return 1;
+			}
+
+			if (isNotContinuation(bytes[offset + 2])) {
+				return 2;
+			}
+
+			return 3;
 		}
 
-		// Flip the resultBuffer so it can be accessed from the begging the next time it's read from
-		resultBuffer.flip();
+		return 1;
+	}
+
+	private static boolean isNotContinuation(int b) {
+		return (b & 0xC0) != 0x80;
 	}
 
+	private static boolean isMalformed3Second(int b1, int b2) {
+		return (b1 == 0xE0 && (b2 & 0xE0) == 0x80) || isNotContinuation(b2);
+	}
+
+	private static boolean isMalformed4Second(int b1, int b2) {
+		return (b1 == 0xF0 && (b2 < 0x90 || b2 > 0xBF))
+			 || (b1 == 0xF4 && (b2 & 0xF0) != 0x80)
+			 || isNotContinuation(b2);
+	}
+
+	/**
+	 * @return the array holding the result of the last validation, this is the input array itself when it was valid
+	 */
 	public byte[] getResultBytes() {
-		return resultBytes;
+		return result;
 	}
 
+	/**
+	 * @return the offset of the result of the last validation within {@link #getResultBytes()}
+	 */
+	public int getResultOffset() {
+		return resultOffset;
+	}
+
+	/**
+	 * @return the length of the result of the last validation
+	 */
+	public int getResultLength() {
+		return resultLength;
+	}
+
+	/**
+	 * Returns the result of the last validation as a new buffer positioned at the start of the result.  This allocates, so
+	 * use the result bytes, offset and length on hot paths.
+	 * @return
+	 */
 	public ByteBuffer getResultBuffer() {
-		return resultBuffer;
+		return ByteBuffer.wrap(result, resultOffset, resultLength).slice();
 	}
 
 }
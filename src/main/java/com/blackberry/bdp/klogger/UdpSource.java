@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A UDP port that every datagram received on is sent as one message, configured with source.&lt;<i>topic</i>&gt.udp
+ *
+ * <p>The listen address is configured with server.listen.address like a port source.  Additional properties, which can be
+ * overwritten for a specific topic by using source.&lt;<i>topic</i>&gt.&lt;<i>property</i>&gt, are:</p>
+ *
+ * <table border="1">
+ *
+ * <tr>
+ * <th>property</th>
+ * <th>default</th>
+ * <th>description</th>
+ * </tr>
+ *
+ * <tr>
+ * <td>udp.receive.buffer.bytes</td>
+ * <td>1048576</td>
+ * <td>The size of the socket receive buffer, datagrams that arrive while it is full are dropped by the kernel</td>
+ * </tr>
+ *
+ * </table>
+ */
+public class UdpSource extends Source {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UdpSource.class);
+
+	private int port;
+	private InetAddress bindAddr;
+	private int udpReceiveBufferBytes = 1048576;
+
+	public UdpSource(String port, String topic) {
+		super(topic);
+		this.port = Integer.parseInt(port);
+	}
+
+	@Override
+	public Runnable getListener() {
+		try {
+			return new DatagramLogReader(this);
+		} catch (Exception e) {
+			throw new IllegalStateException("Unable to create a reader for " + this, e);
+		}
+	}
+
+	@Override
+	public void configure(Properties props) throws ConfigurationException, Exception {
+		super.configure(props);
+		try {
+			String propUdpReceiveBufferBytes = getConf().getTopicAwarePropName("udp.receive.buffer.bytes");
+			udpReceiveBufferBytes = Integer.parseInt(props.getProperty(
+				 propUdpReceiveBufferBytes, Integer.toString(udpReceiveBufferBytes)).trim());
+			String bindProperty = String.format("server.listen.address.%s", this.getTopic());
+			if (props.containsKey(bindProperty)) {
+				bindAddr = InetAddress.getByName(props.getProperty(bindProperty).trim());
+			} else {
+				bindAddr = InetAddress.getByName(props.getProperty(
+					 "server.listen.address", "127.0.0.1").trim());
+			}
+			LOG.info("Configured UDP source for {}:{} (with {} = {})",
+				 bindAddr.getHostAddress(),
+				 port,
+				 propUdpReceiveBufferBytes,
+				 udpReceiveBufferBytes);
+		} catch (NumberFormatException | UnknownHostException e) {
+			LOG.error("Failed to configure UDP source for topic {}", e);
+			throw new ConfigurationException("failed to configure UDP source", e);
+		}
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public String toString() {
+		return "UdpSource: topic=" + this.getTopic() + ", port=" + this.getPort();
+	}
+
+	/**
+	 * @return the bindAddr
+	 */
+	public InetAddress getBindAddr() {
+		return bindAddr;
+	}
+
+	/**
+	 * @return the udpReceiveBufferBytes
+	 */
+	public int getUdpReceiveBufferBytes() {
+		return udpReceiveBufferBytes;
+	}
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Accepts connections on a Unix domain socket and hands them to the shared NIO selectors.
+ *
+ * <p>A socket file left behind by a previous run is removed unless something is still accepting connections on it, the
+ * socket file is removed again when the JVM shuts down.</p>
+ */
+public class UnixListener implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UnixListener.class);
+
+	private final UnixSource source;
+	private final Meter mConnectionsAccepted;
+	private final Meter mConnectionsAcceptedTotal;
+
+	public UnixListener(UnixSource s) {
+		this.source = s;
+
+		mConnectionsAccepted = MetricRegistrySingleton.getInstance().getMetricsRegistry().meter("klogger:topics:" + s.getTopic() + ":connections accepted");
+		mConnectionsAcceptedTotal = MetricRegistrySingleton.getInstance().getMetricsRegistry().meter("klogger:total:connections accepted");
+	}
+
+	@Override
+	public void run() {
+		try {
+			removeStaleSocket();
+
+			ServerSocketChannel ss = UnixSource.openServerSocketChannel();
+			ss.bind(UnixSource.getSocketAddress(source.getPath()), source.getListenBacklog());
+			Files.setPosixFilePermissions(source.getPath(), PosixFilePermissions.fromString(source.getSocketPermissions()));
+
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Files.deleteIfExists(source.getPath());
+					} catch (IOException e) {
+						LOG.warn("Unable to remove socket file {}: {}", source.getPath(), e);
+					}
+				}
+
+			}, "klogger-" + source.getTopic() + "-cleanup"));
+
+			LOG.info("Listening on {} (with listen backlog: {}, permissions {})",
+				 source.getPath(),
+				 source.getListenBacklog(),
+				 source.getSocketPermissions());
+			while (true) {
+				SocketChannel s = ss.accept();
+				mConnectionsAccepted.mark();
+				mConnectionsAcceptedTotal.mark();
+				ChannelLogReader r = new ChannelLogReader(source, s);
+				NioSelector.next(source.getIoThreads()).register(r);
+			}
+		} catch (Exception e) {
+			LOG.error("An error occured listening on our socket: ", e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Deletes a socket file that nothing is listening on any more
+	 * @throws IOException if the path exists and is not a socket or is still in use
+	 */
+	private void removeStaleSocket() throws IOException {
+		if (!Files.exists(source.getPath(), LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+
+		// Sockets are neither regular files, directories nor links
+		if (!Files.readAttributes(source.getPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+			throw new IOException(source.getPath() + " exists and is not a socket");
+		}
+
+		boolean inUse;
+
+		try (SocketChannel channel = UnixSource.openSocketChannel()) {
+			inUse = channel.connect(UnixSource.getSocketAddress(source.getPath()));
+		} catch (IOException e) {
+			inUse = false;
+		}
+
+		if (inUse) {
+			throw new IOException(source.getPath() + " is in use by another process");
+		}
+
+		LOG.info("Removing stale socket file {}", source.getPath());
+		Files.delete(source.getPath());
+	}
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Unix domain socket that same-host producers connect to instead of loopback TCP, configured with
+ * source.&lt;<i>topic</i>&gt.unix=&lt;<i>path</i>&gt
+ *
+ * <p>Connections are read by the NIO selectors (see tcp.io.threads) with the topic's framing.  Unix domain socket channels
+ * need Java 16 or later, they are created reflectively as KLogger is still built for Java 7.  Additional properties, which
+ * can be overwritten for a specific topic by using source.&lt;<i>topic</i>&gt.&lt;<i>property</i>&gt, are:</p>
+ *
+ * <table border="1">
+ *
+ * <tr>
+ * <th>property</th>
+ * <th>default</th>
+ * <th>description</th>
+ * </tr>
+ *
+ * <tr>
+ * <td>unix.socket.permissions</td>
+ * <td>rw-rw----</td>
+ * <td>The permissions of the socket file, which decide who may connect to it</td>
+ * </tr>
+ *
+ * </table>
+ */
+public class UnixSource extends Source {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UnixSource.class);
+
+	private final Path path;
+	private String socketPermissions = "rw-rw----";
+	private int listenBacklog;
+	private int ioThreads = Runtime.getRuntime().availableProcessors();
+
+	public UnixSource(String path, String topic) {
+		super(topic);
+		this.path = Paths.get(path).toAbsolutePath();
+	}
+
+	@Override
+	public Runnable getListener() {
+		return new UnixListener(this);
+	}
+
+	@Override
+	public void configure(Properties props) throws ConfigurationException, Exception {
+		super.configure(props);
+		try {
+			String propSocketPermissions = getConf().getTopicAwarePropName("unix.socket.permissions");
+			socketPermissions = props.getProperty(propSocketPermissions, socketPermissions).trim();
+			PosixFilePermissions.fromString(socketPermissions);
+			String backlogProperty = String.format("server.listen.backlog.%s", this.getTopic());
+			if (props.containsKey(backlogProperty)) {
+				listenBacklog = Integer.parseInt(props.getProperty(backlogProperty).trim());
+			} else {
+				listenBacklog = Integer.parseInt(props.getProperty(
+					 "server.listen.backlog", "50").trim());
+			}
+			ioThreads = Integer.parseInt(props.getProperty(
+				 "tcp.io.threads", Integer.toString(ioThreads)).trim());
+			LOG.info("Configured Unix domain socket source for {} (with {} = {})",
+				 path,
+				 propSocketPermissions,
+				 socketPermissions);
+		} catch (IllegalArgumentException e) {
+			LOG.error("Failed to configure Unix domain socket source for topic {}", e);
+			throw new ConfigurationException("failed to configure Unix domain socket source", e);
+		}
+	}
+
+	/**
+	 * Returns the UnixDomainSocketAddress of a path
+	 * @param path
+	 * @return
+	 * @throws IOException when this JVM does not support Unix domain sockets
+	 */
+	public static SocketAddress getSocketAddress(Path path) throws IOException {
+		try {
+			return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class).invoke(null, path);
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			throw new IOException("Unix domain sockets require Java 16 or later", e);
+		}
+	}
+
+	/**
+	 * Opens an unbound Unix domain server socket channel
+	 * @return
+	 * @throws IOException when this JVM does not support Unix domain sockets
+	 */
+	public static ServerSocketChannel openServerSocketChannel() throws IOException {
+		try {
+			return (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+		} catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			throw new IOException("Unix domain sockets require Java 16 or later", e);
+		}
+	}
+
+	/**
+	 * Opens an unconnected Unix domain socket channel
+	 * @return
+	 * @throws IOException when this JVM does not support Unix domain sockets
+	 */
+	public static SocketChannel openSocketChannel() throws IOException {
+		try {
+			return (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+		} catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			throw new IOException("Unix domain sockets require Java 16 or later", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "UnixSource: topic=" + this.getTopic() + ", path=" + this.getPath();
+	}
+
+	/**
+	 * @return the path
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the socketPermissions
+	 */
+	public String getSocketPermissions() {
+		return socketPermissions;
+	}
+
+	/**
+	 * @return the listenBacklog
+	 */
+	public int getListenBacklog() {
+		return listenBacklog;
+	}
+
+	/**
+	 * @return the ioThreads
+	 */
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class BatchSinkTest {
+
+	/**
+	 * Keeps a copy of every message sent to it
+	 */
+	private static class RecordingSink implements MessageSink {
+
+		private final List<byte[]> messages = new ArrayList<>();
+
+		@Override
+		public synchronized void send(byte[] buffer, int offset, int length) {
+			messages.add(Arrays.copyOfRange(buffer, offset, offset + length));
+		}
+
+		public synchronized List<byte[]> getMessages() {
+			return new ArrayList<>(messages);
+		}
+
+	}
+
+	private static void send(MessageSink sink, String... lines) throws Exception {
+		for (String line : lines) {
+			byte[] bytes = ("x" + line + "x").getBytes("UTF-8");
+
+			// Only the middle of the array is the message
+			sink.send(bytes, 1, bytes.length - 2);
+		}
+	}
+
+	@Test
+	public void testNewlineBatches() throws Exception {
+		RecordingSink recording = new RecordingSink();
+		BatchSink batches = new BatchSink(recording, "test", 3, 1000, 60000, false, false, 100);
+
+		send(batches, "one", "two", "three", "four", "five", "six", "seven");
+
+		assertEquals(2, recording.getMessages().size());
+		assertEquals("one\ntwo\nthree", new String(recording.getMessages().get(0), "UTF-8"));
+		assertEquals("four\nfive\nsix", new String(recording.getMessages().get(1), "UTF-8"));
+	}
+
+	@Test
+	public void testLengthPrefixedBatchesWithTimestamp() throws Exception {
+		RecordingSink recording = new RecordingSink();
+		BatchSink batches = new BatchSink(recording, "test", 100, 30, 60000, true, true, 100);
+		long before = System.currentTimeMillis();
+
+		// The third line would take the batch over 30 bytes
+		send(batches, "abc", "de", "fghij");
+
+		assertEquals(1, recording.getMessages().size());
+
+		ByteBuffer batch = ByteBuffer.wrap(recording.getMessages().get(0));
+
+		assertEquals((byte) 0xFE, batch.get());
+		assertEquals(0, batch.get());
+		assertTrue(batch.getLong() >= before);
+		assertEquals(3, batch.getInt());
+		assertEquals('a', batch.get());
+		batch.position(batch.position() + 2);
+		assertEquals(2, batch.getInt());
+		batch.position(batch.position() + 2);
+		assertEquals(0, batch.remaining());
+	}
+
+	@Test
+	public void testLinger() throws Exception {
+		RecordingSink recording = new RecordingSink();
+		BatchSink batches = new BatchSink(recording, "test", 100, 1000, 50, false, false, 100);
+
+		send(batches, "one", "two");
+		assertEquals(0, recording.getMessages().size());
+
+		Thread.sleep(500);
+		send(batches, "three");
+
+		assertEquals(1, recording.getMessages().size());
+		assertEquals("one\ntwo", new String(recording.getMessages().get(0), "UTF-8"));
+
+		Thread.sleep(500);
+		assertEquals(2, recording.getMessages().size());
+		assertEquals("three", new String(recording.getMessages().get(1), "UTF-8"));
+	}
+
+	@Test
+	public void testFullBatchesDoNotLinger() throws Exception {
+		RecordingSink recording = new RecordingSink();
+		BatchSink batches = new BatchSink(recording, "full", 2, 1000, 60000, false, false, 100);
+
+		for (int i = 0; i < 1000; i++) {
+			send(batches, "one", "two");
+		}
+
+		send(batches, "three");
+
+		assertEquals(1000, recording.getMessages().size());
+		assertEquals(1, batches.getLingering());
+	}
+
+	@Test(timeout = 10000)
+	public void testLingerWhileAnotherTopicWaits() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		MessageSink stalled = new MessageSink() {
+			@Override
+			public void send(byte[] buffer, int offset, int length) throws Exception {
+				release.await();
+			}
+
+		};
+		RecordingSink recording = new RecordingSink();
+		BatchSink stalledBatches = new BatchSink(stalled, "stalled", 100, 1000, 10, false, false, 100);
+		BatchSink batches = new BatchSink(recording, "flowing", 100, 1000, 50, false, false, 100);
+
+		// The stalled topic's batch lingers first, and its sink never returns until released
+		send(stalledBatches, "one");
+		Thread.sleep(100);
+		send(batches, "two");
+		Thread.sleep(500);
+
+		assertEquals(1, recording.getMessages().size());
+		release.countDown();
+	}
+
+	@Test(timeout = 10000)
+	public void testAddWhileSending() throws Exception {
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final RecordingSink recording = new RecordingSink() {
+			@Override
+			public void send(byte[] buffer, int offset, int length) {
+				sending.countDown();
+
+				try {
+					release.await();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+
+				super.send(buffer, offset, length);
+			}
+
+		};
+		final BatchSink batches = new BatchSink(recording, "sending", 2, 1000, 60000, false, false, 100);
+		Thread first = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					send(batches, "one", "two");
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+		});
+
+		first.start();
+		sending.await();
+
+		// The first batch's send is stalled, but the next batch still fills
+		send(batches, "three");
+
+		Thread second = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					send(batches, "four");
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+		});
+
+		second.start();
+		Thread.sleep(200);
+		assertEquals(0, recording.getMessages().size());
+
+		release.countDown();
+		first.join();
+		second.join();
+
+		assertEquals(2, recording.getMessages().size());
+		assertEquals("one\ntwo", new String(recording.getMessages().get(0), "UTF-8"));
+		assertEquals("three\nfour", new String(recording.getMessages().get(1), "UTF-8"));
+	}
+
+	@Test
+	public void testLongMessage() throws Exception {
+		RecordingSink recording = new RecordingSink();
+		BatchSink batches = new BatchSink(recording, "test", 100, 10, 60000, false, false, 100);
+		String longLine = "0123456789012345678901234567890123456789";
+
+		send(batches, "short", longLine, "next");
+
+		assertEquals(2, recording.getMessages().size());
+		assertEquals("short", new String(recording.getMessages().get(0), "UTF-8"));
+		assertEquals(longLine, new String(recording.getMessages().get(1), "UTF-8"));
+	}
+
+}
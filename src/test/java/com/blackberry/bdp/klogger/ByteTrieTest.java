@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ByteTrieTest {
+
+	private static ByteTrie trie(String... keys) throws Exception {
+		byte[][] bytes = new byte[keys.length][];
+
+		for (int i = 0; i < keys.length; i++) {
+			bytes[i] = keys[i].getBytes("UTF-8");
+		}
+
+		return new ByteTrie(bytes);
+	}
+
+	private static int match(ByteTrie trie, String message) throws Exception {
+		byte[] bytes = ("#" + message + "#").getBytes("UTF-8");
+
+		return trie.match(bytes, 1, bytes.length - 2);
+	}
+
+	@Test
+	public void testLongestMatch() throws Exception {
+		ByteTrie trie = trie("app ", "app1 ", "ap", "<13>");
+
+		assertEquals(0, match(trie, "app hello"));
+		assertEquals(1, match(trie, "app1 hello"));
+		assertEquals(2, match(trie, "app2 hello"));
+		assertEquals(2, match(trie, "ap"));
+		assertEquals(3, match(trie, "<13>Jun  1 12:00:00 host app: hello"));
+		assertEquals(-1, match(trie, "a"));
+		assertEquals(-1, match(trie, ""));
+		assertEquals(-1, match(trie, "hello app "));
+		assertEquals(5, trie.getKeyLength(1));
+	}
+
+	@Test
+	public void testManyKeys() throws Exception {
+		String[] keys = new String[1000];
+
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "app" + i + ":";
+		}
+
+		ByteTrie trie = trie(keys);
+
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(i, match(trie, keys[i] + " message " + i));
+		}
+
+		assertEquals(-1, match(trie, "app1000: message"));
+	}
+
+	@Test
+	public void testHighBytes() throws Exception {
+		ByteTrie trie = new ByteTrie(new byte[][]{{(byte) 0xff}, {(byte) 0x80, 1}, {0x7f}, {0}});
+
+		assertEquals(0, trie.match(new byte[]{(byte) 0xff, 2}, 0, 2));
+		assertEquals(1, trie.match(new byte[]{(byte) 0x80, 1}, 0, 2));
+		assertEquals(-1, trie.match(new byte[]{(byte) 0x80, 2}, 0, 2));
+		assertEquals(2, trie.match(new byte[]{0x7f}, 0, 1));
+		assertEquals(3, trie.match(new byte[]{0}, 0, 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateKey() throws Exception {
+		trie("app ", "web ", "app ");
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCommitAndReopen() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		CheckpointStore store = new CheckpointStore(dir, 1000);
+
+		store.update("/var/log/a.log", 123, "(dev=1,ino=2)");
+		store.update("/var/log/b b.log", 456, null);
+		store.update("/var/log/c.log", 789, null);
+		store.commit();
+		store.remove("/var/log/c.log");
+		store.update("/var/log/a.log", 124, "(dev=1,ino=2)");
+		store.commit();
+
+		// Never committed
+		store.update("/var/log/a.log", 999, "(dev=1,ino=2)");
+
+		CheckpointStore reopened = new CheckpointStore(dir, 1000);
+
+		assertEquals(124, reopened.get("/var/log/a.log").getPosition());
+		assertEquals("(dev=1,ino=2)", reopened.get("/var/log/a.log").getFileKey());
+		assertEquals(456, reopened.get("/var/log/b b.log").getPosition());
+		assertNull(reopened.get("/var/log/b b.log").getFileKey());
+		assertNull(reopened.get("/var/log/c.log"));
+	}
+
+	@Test
+	public void testTornAndCorruptRecords() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		CheckpointStore store = new CheckpointStore(dir, 1000);
+
+		store.update("/var/log/a.log", 10, null);
+		store.commit();
+		store.update("/var/log/a.log", 20, null);
+		store.commit();
+
+		String log = new String(Files.readAllBytes(dir.resolve("checkpoints.log")), "UTF-8");
+
+		try (FileOutputStream out = new FileOutputStream(dir.resolve("checkpoints.log").toFile(), true)) {
+			// A record with a bad checksum, one that isn't a record at all and one torn by a crash
+			out.write(log.substring(log.lastIndexOf('\n', log.length() - 2) + 1).replace(" 20 ", " 30 ").getBytes("UTF-8"));
+			out.write("nonsense\n".getBytes("UTF-8"));
+			out.write(log.substring(0, 12).getBytes("UTF-8"));
+		}
+
+		CheckpointStore reopened = new CheckpointStore(dir, 1000);
+
+		assertEquals(20, reopened.get("/var/log/a.log").getPosition());
+
+		// The log is rewritten without them, so new records are appended after a complete one
+		reopened.update("/var/log/b.log", 5, null);
+		reopened.commit();
+
+		CheckpointStore again = new CheckpointStore(dir, 1000);
+
+		assertEquals(20, again.get("/var/log/a.log").getPosition());
+		assertEquals(5, again.get("/var/log/b.log").getPosition());
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		CheckpointStore store = new CheckpointStore(dir, 1000);
+		String file = "/var/log/" + new String(new char[200]).replace('\0', 'a') + ".log";
+
+		// Each record is over 200 bytes, so the log passes the 1MB it may grow to before being compacted
+		for (int i = 0; i < 10000; i++) {
+			store.update(file, i, null);
+			store.commit();
+		}
+
+		assertTrue(Files.size(dir.resolve("checkpoints.log")) < 1024 * 1024);
+		assertEquals(9999, new CheckpointStore(dir, 1000).get(file).getPosition());
+	}
+
+}
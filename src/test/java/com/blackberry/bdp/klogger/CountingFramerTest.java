@@ -0,0 +1,165 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CountingFramerTest {
+
+	private static String prefixed(String payload) {
+		int length = payload.length();
+
+		return new String(new char[]{(char) (length >>> 24), (char) ((length >>> 16) & 0xFF), (char) ((length >>> 8) & 0xFF), (char) (length & 0xFF)}) + payload;
+	}
+
+	private static String counted(String payload) {
+		return payload.length() + " " + payload;
+	}
+
+	@Test
+	public void testLengthPrefixed() {
+		FramerRing ring = new FramerRing(new LengthPrefixedFramer(), 64);
+		ring.write(prefixed("binary\n\u0000payload") + prefixed("") + prefixed("third"));
+
+		assertEquals("binary\n\u0000payload", ring.next());
+		assertEquals("", ring.next());
+		assertEquals("third", ring.next());
+		assertNull(ring.next());
+	}
+
+	@Test
+	public void testLengthPrefixedPartialHeader() {
+		FramerRing ring = new FramerRing(new LengthPrefixedFramer(), 64);
+		String message = prefixed("split");
+
+		ring.write(message.substring(0, 2));
+		assertNull(ring.next());
+		ring.write(message.substring(2, 7));
+		assertNull(ring.next());
+		ring.write(message.substring(7));
+		assertEquals("split", ring.next());
+	}
+
+	@Test
+	public void testLengthPrefixedTooLong() {
+		FramerRing ring = new FramerRing(new LengthPrefixedFramer(), 16);
+		String payload = "abcdefghijklmnopqrstuvwxyz";
+
+		ring.write(prefixed(payload).substring(0, 16));
+		assertNull(ring.next());
+		assertEquals(payload.substring(0, 12), ring.overflow());
+
+		// The rest of the message is sent once it has arrived, then framing carries on as usual
+		ring.write(payload.substring(12, 20));
+		assertNull(ring.next());
+		ring.write(payload.substring(20));
+		assertEquals(payload.substring(12), ring.next());
+		ring.write(prefixed("next"));
+		assertEquals("next", ring.next());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLengthPrefixedNegativeLength() {
+		FramerRing ring = new FramerRing(new LengthPrefixedFramer(), 64);
+		ring.write("\u00ff\u0000\u0000\u0000abc");
+		ring.next();
+	}
+
+	@Test
+	public void testOctetCounting() {
+		FramerRing ring = new FramerRing(new OctetCountingFramer(new byte[]{'\n'}, false), 128);
+		ring.write(counted("<34>1 2003-10-11T22:14:15.003Z host\nwith newline") + counted("x"));
+
+		assertEquals("<34>1 2003-10-11T22:14:15.003Z host\nwith newline", ring.next());
+		assertEquals("x", ring.next());
+		assertNull(ring.next());
+	}
+
+	@Test
+	public void testOctetCountingFallsBackToLines() {
+		FramerRing ring = new FramerRing(new OctetCountingFramer(new byte[]{'\n'}, false), 128);
+		ring.write("<13>plain line\n" + counted("counted") + "0 is not a length\n1234567890 too many digits\n");
+
+		assertEquals("<13>plain line", ring.next());
+		assertEquals("counted", ring.next());
+		assertEquals("0 is not a length", ring.next());
+		assertEquals("1234567890 too many digits", ring.next());
+	}
+
+	@Test
+	public void testOctetCountingOverflowedLine() {
+		FramerRing ring = new FramerRing(new OctetCountingFramer(new byte[]{'\n'}, false), 16);
+
+		ring.write("<13>a long line ");
+		assertNull(ring.next());
+		assertEquals("<13>a long line ", ring.overflow());
+
+		// The rest of the line starts with digits, but it is not a length
+		ring.write("12 more\n" + counted("ok"));
+		assertEquals("12 more", ring.next());
+		assertEquals("ok", ring.next());
+	}
+
+	@Test
+	public void testRandomChunks() {
+		Random random = new Random(42);
+
+		for (int test = 0; test < 200; test++) {
+			boolean octetCounting = test % 2 == 0;
+			List<String> expected = new ArrayList<>();
+			StringBuilder input = new StringBuilder();
+
+			for (int message = 0; message < 50; message++) {
+				StringBuilder sb = new StringBuilder();
+				// RFC 6587 lengths can not be zero
+				int length = (octetCounting ? 1 : 0) + random.nextInt(40);
+
+				for (int i = 0; i < length; i++) {
+					sb.append((char) random.nextInt(256));
+				}
+
+				expected.add(sb.toString());
+				input.append(octetCounting ? counted(sb.toString()) : prefixed(sb.toString()));
+			}
+
+			Framer framer = octetCounting ? new OctetCountingFramer(new byte[]{'\n'}, false) : new LengthPrefixedFramer();
+			FramerRing ring = new FramerRing(framer, 64);
+			String data = input.toString();
+			List<String> messages = new ArrayList<>();
+			int position = 0;
+
+			while (position < data.length()) {
+				int read = Math.min(Math.min(data.length() - position, 1 + random.nextInt(20)), ring.writable());
+				ring.write(data.substring(position, position + read));
+				position += read;
+
+				for (String message = ring.next(); message != null; message = ring.next()) {
+					messages.add(message);
+				}
+			}
+
+			assertEquals(expected, messages);
+		}
+	}
+
+}
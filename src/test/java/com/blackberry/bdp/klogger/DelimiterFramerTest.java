@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DelimiterFramerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testNewlines() {
+		FramerRing ring = new FramerRing(new DelimiterFramer(new byte[]{'\n'}, false), 64);
+		ring.write("first line\nsecond line that is a little longer\n\nlast");
+
+		assertEquals("first line", ring.next());
+		assertEquals("second line that is a little longer", ring.next());
+		assertEquals("", ring.next());
+		assertNull(ring.next());
+		assertEquals(4, ring.getCount());
+	}
+
+	@Test
+	public void testCarriageReturnStripping() {
+		FramerRing ring = new FramerRing(new DelimiterFramer(new byte[]{'\n'}, true), 64);
+		ring.write("windows\r\nunix\n\r\n");
+
+		assertEquals("windows", ring.next());
+		assertEquals("unix", ring.next());
+		assertEquals("", ring.next());
+	}
+
+	@Test
+	public void testMultiByteDelimiter() {
+		FramerRing ring = new FramerRing(new DelimiterFramer("||".getBytes(UTF8), false), 64);
+		ring.write("a|b||c|||d||");
+
+		assertEquals("a|b", ring.next());
+		assertEquals("c", ring.next());
+		assertEquals("|d", ring.next());
+	}
+
+	@Test
+	public void testDelimiterSplitAcrossReads() {
+		FramerRing ring = new FramerRing(new DelimiterFramer("\r\n\r\n".getBytes(UTF8), false), 64);
+
+		ring.write("header\r\n");
+		assertNull(ring.next());
+		ring.write("\r");
+		assertNull(ring.next());
+		ring.write("\nbody");
+		assertEquals("header", ring.next());
+	}
+
+	@Test
+	public void testWrapAround() {
+		FramerRing ring = new FramerRing(new DelimiterFramer("\r\n".getBytes(UTF8), false), 16);
+
+		ring.write("0123456789\r\n");
+		assertEquals("0123456789", ring.next());
+		ring.write("abc");
+		ring.write("de\r");
+		assertNull(ring.next());
+
+		// The delimiter and the message both wrap around the end of the buffer
+		ring.write("\nxyz\r\n");
+		assertEquals("abcde", ring.next());
+		assertEquals("xyz", ring.next());
+	}
+
+	@Test
+	public void testRandomChunks() {
+		Random random = new Random(42);
+		byte[][] delimiters = new byte[][]{{'\n'}, {0}, "\r\n".getBytes(UTF8), "<EOM>".getBytes(UTF8)};
+
+		for (byte[] delimiter : delimiters) {
+			for (int test = 0; test < 200; test++) {
+				List<String> expected = new ArrayList<>();
+				StringBuilder input = new StringBuilder();
+
+				for (int line = 0; line < 50; line++) {
+					StringBuilder sb = new StringBuilder();
+					int length = random.nextInt(40);
+
+					for (int i = 0; i < length; i++) {
+						sb.append((char) ('a' + random.nextInt(26)));
+					}
+
+					expected.add(sb.toString());
+					input.append(sb).append(new String(delimiter, UTF8));
+				}
+
+				ByteOrder order = test % 2 == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+				FramerRing ring = new FramerRing(new DelimiterFramer(delimiter, false), 64, order);
+				byte[] bytes = input.toString().getBytes(UTF8);
+				List<String> messages = new ArrayList<>();
+				int position = 0;
+
+				// Make the input available a random number of bytes at a time, the way LogReader reads it
+				while (position < bytes.length) {
+					int read = Math.min(Math.min(bytes.length - position, 1 + random.nextInt(20)), ring.writable());
+					ring.write(bytes, position, read);
+					position += read;
+
+					for (String message = ring.next(); message != null; message = ring.next()) {
+						messages.add(message);
+					}
+				}
+
+				assertEquals(expected, messages);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileListenerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Keeps a copy of every message sent to it, as a string, and fails once on the message failOn
+	 */
+	private static class RecordingSink implements MessageSink {
+
+		private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		private String failOn;
+
+		@Override
+		public void send(byte[] buffer, int offset, int length) throws Exception {
+			String message = new String(buffer, offset, length, "UTF-8");
+
+			if (message.equals(failOn)) {
+				failOn = null;
+				throw new IllegalStateException("failing on " + message);
+			}
+
+			messages.add(message);
+		}
+
+	}
+
+	private void listen(File file, final RecordingSink sink) throws Exception {
+		Properties props = new Properties();
+
+		props.setProperty("metadata.broker.list", "localhost:9092");
+		props.setProperty("encode.timestamp", "false");
+		props.setProperty("file.stream.end.read.delay.ms", "50");
+		props.setProperty("file.rotation.drain.ms", "100");
+		props.setProperty("file.positions.persist.cache.dir", folder.newFolder().getPath());
+
+		final FileSource source = new FileSource(file.getPath(), "t");
+
+		source.configure(props);
+
+		new FileListener(source.getConf(), source) {
+			@Override
+			protected FileLogReader newReader() throws Exception {
+				return new FileLogReader(source, sink);
+			}
+
+		}.run();
+	}
+
+	private static void append(File file, String prefix, int from, int to) throws Exception {
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			for (int i = from; i < to; i++) {
+				out.write((prefix + " " + i + "\n").getBytes("UTF-8"));
+			}
+		}
+	}
+
+	private static void awaitMessages(RecordingSink sink, int count) throws InterruptedException {
+		while (sink.messages.size() < count) {
+			Thread.sleep(10);
+		}
+	}
+
+	private static void assertMessages(RecordingSink sink, String prefix, int from, int to, int index) {
+		for (int i = from; i < to; i++) {
+			assertEquals(prefix + " " + i, sink.messages.get(index++));
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testRotation() throws Exception {
+		File file = new File(folder.getRoot(), "app.log");
+		RecordingSink sink = new RecordingSink();
+
+		listen(file, sink);
+
+		append(file, "old", 0, 100);
+		awaitMessages(sink, 100);
+
+		// Lines written to the old file after it was renamed are read before the new file
+		File rotated = new File(folder.getRoot(), "app.log.1");
+
+		file.renameTo(rotated);
+		append(rotated, "old", 100, 150);
+		append(file, "new", 0, 50);
+		awaitMessages(sink, 200);
+
+		Thread.sleep(200);
+		assertEquals(200, sink.messages.size());
+		assertMessages(sink, "old", 0, 150, 0);
+		assertMessages(sink, "new", 0, 50, 150);
+	}
+
+	@Test(timeout = 30000)
+	public void testRestartAfterFailure() throws Exception {
+		File file = new File(folder.getRoot(), "app.log");
+		RecordingSink sink = new RecordingSink();
+
+		append(file, "line", 0, 100);
+		sink.failOn = "line 50";
+		listen(file, sink);
+
+		// The reader stops at the line that failed, and a new one resumes from it once the file is modified
+		awaitMessages(sink, 50);
+		Thread.sleep(200);
+		assertEquals(50, sink.messages.size());
+
+		append(file, "line", 100, 110);
+		awaitMessages(sink, 110);
+
+		Thread.sleep(200);
+		assertEquals(110, sink.messages.size());
+		assertMessages(sink, "line", 0, 110, 0);
+	}
+
+}
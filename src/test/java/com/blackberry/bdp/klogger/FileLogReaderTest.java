@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileLogReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Keeps a copy of every message sent to it, as a string
+	 */
+	private static class RecordingSink implements MessageSink {
+
+		protected final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void send(byte[] buffer, int offset, int length) throws Exception {
+			messages.add(new String(buffer, offset, length, "UTF-8"));
+		}
+
+	}
+
+	private FileSource getSource(File file, String readMode) throws Exception {
+		Properties props = new Properties();
+
+		props.setProperty("metadata.broker.list", "localhost:9092");
+		props.setProperty("encode.timestamp", "false");
+		props.setProperty("file.read.mode", readMode);
+		props.setProperty("file.mmap.window.bytes", "65536");
+		props.setProperty("file.stream.end.read.delay.ms", "10");
+		props.setProperty("file.positions.persist.cache.dir", folder.newFolder().getPath());
+
+		FileSource source = new FileSource(file.getPath(), "t");
+
+		source.configure(props);
+
+		return source;
+	}
+
+	private static void append(File file, String prefix, int lines) throws Exception {
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			for (int i = 0; i < lines; i++) {
+				out.write((prefix + " " + i + "\n").getBytes("UTF-8"));
+			}
+		}
+	}
+
+	private static void awaitMessage(RecordingSink sink, String message) throws InterruptedException {
+		while (!sink.messages.contains(message)) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testTruncatedWhileMapped() throws Exception {
+		final File file = folder.newFile("mapped.log");
+
+		// Several windows' worth, so the file is read through mappings
+		append(file, "before", 50000);
+
+		RecordingSink sink = new RecordingSink() {
+			@Override
+			public void send(byte[] buffer, int offset, int length) throws Exception {
+				super.send(buffer, offset, length);
+
+				// copytruncate, while the rest of the window is still to be read
+				if (messages.size() == 101) {
+					try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+						truncate.setLength(0);
+					}
+				}
+			}
+
+		};
+
+		FileLogReader reader = new FileLogReader(getSource(file, "mmap"), sink);
+		Thread thread = new Thread(reader);
+
+		thread.start();
+		awaitMessage(sink, "before 100");
+		Thread.sleep(200);
+		append(file, "after", 10);
+		awaitMessage(sink, "after 9");
+
+		reader.setFinished(true);
+		reader.wakeUp();
+		thread.join();
+
+		assertEquals(111, sink.messages.size());
+
+		for (int i = 0; i <= 100; i++) {
+			assertEquals("before " + i, sink.messages.get(i));
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("after " + i, sink.messages.get(101 + i));
+		}
+	}
+
+}
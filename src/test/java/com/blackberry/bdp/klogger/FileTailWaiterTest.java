@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FileTailWaiterTest {
+
+	@Test
+	public void testBackoff() throws InterruptedException {
+		FileTailWaiter waiter = new FileTailWaiter(1, 10);
+
+		assertEquals(1, waiter.getDelayMs());
+		assertFalse(waiter.await());
+		assertEquals(2, waiter.getDelayMs());
+		assertFalse(waiter.await());
+		assertFalse(waiter.await());
+		assertEquals(8, waiter.getDelayMs());
+		assertFalse(waiter.await());
+		assertEquals(10, waiter.getDelayMs());
+		assertFalse(waiter.await());
+		assertEquals(10, waiter.getDelayMs());
+
+		waiter.reset();
+		assertEquals(1, waiter.getDelayMs());
+	}
+
+	@Test
+	public void testBackOffWithoutWaiting() {
+		FileTailWaiter waiter = new FileTailWaiter(5, 15);
+
+		assertEquals(5, waiter.backOff());
+		assertEquals(10, waiter.backOff());
+		assertEquals(15, waiter.backOff());
+		assertEquals(15, waiter.backOff());
+
+		waiter.reset();
+		assertEquals(5, waiter.backOff());
+	}
+
+	@Test
+	public void testWakeUpBeforeWaiting() throws InterruptedException {
+		FileTailWaiter waiter = new FileTailWaiter(60000, 60000);
+
+		waiter.wakeUp();
+		assertTrue(waiter.await());
+		assertEquals(60000, waiter.getDelayMs());
+	}
+
+	@Test(timeout = 10000)
+	public void testWakeUpWhileWaiting() throws InterruptedException {
+		final FileTailWaiter waiter = new FileTailWaiter(60000, 60000);
+
+		Thread waker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ie) {
+				}
+				waiter.wakeUp();
+			}
+		});
+
+		waker.start();
+		assertTrue(waiter.await());
+		waker.join();
+	}
+
+}
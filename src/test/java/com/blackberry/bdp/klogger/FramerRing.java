@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * A circular buffer that is framed the way LogReader frames its read buffer.  Payloads are returned as ISO-8859-1 strings
+ * so every byte maps to one char.
+ */
+class FramerRing {
+
+	private static final Charset BYTES = Charset.forName("ISO-8859-1");
+
+	private final Framer framer;
+	private final byte[] bytes;
+	private final ByteBuffer ring;
+	private int head;
+	private int count;
+
+	FramerRing(Framer framer, int capacity) {
+		this(framer, capacity, ByteOrder.BIG_ENDIAN);
+	}
+
+	FramerRing(Framer framer, int capacity, ByteOrder order) {
+		this.framer = framer;
+		this.bytes = new byte[capacity];
+		this.ring = ByteBuffer.wrap(bytes).order(order);
+	}
+
+	int writable() {
+		int tail = head + count;
+
+		return tail < bytes.length ? bytes.length - tail : head - (tail - bytes.length);
+	}
+
+	void write(String value) {
+		byte[] data = value.getBytes(BYTES);
+
+		write(data, 0, data.length);
+	}
+
+	void write(byte[] data, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			bytes[(head + count) % bytes.length] = data[offset + i];
+			count++;
+		}
+	}
+
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the payload of the next complete message, or null if there is none yet
+	 */
+	String next() {
+		if (!framer.next(ring, head, count)) {
+			return null;
+		}
+
+		return consume();
+	}
+
+	/**
+	 * Returns what LogReader would send when the buffer is full without a complete message
+	 */
+	String overflow() {
+		if (count < bytes.length) {
+			throw new IllegalStateException("The buffer is not full");
+		}
+
+		framer.overflow(ring, head, count);
+
+		return consume();
+	}
+
+	private String consume() {
+		byte[] payload = new byte[framer.getPayloadLength()];
+
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = bytes[(head + framer.getPayloadOffset() + i) % bytes.length];
+		}
+
+		head = (head + framer.getFrameLength()) % bytes.length;
+		count -= framer.getFrameLength();
+
+		return new String(payload, BYTES);
+	}
+
+}
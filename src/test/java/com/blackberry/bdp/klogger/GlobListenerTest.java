@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GlobListenerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Keeps a copy of every message sent to it, as a string
+	 */
+	private static class RecordingSink implements MessageSink {
+
+		private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void send(byte[] buffer, int offset, int length) throws Exception {
+			messages.add(new String(buffer, offset, length, "UTF-8"));
+		}
+
+	}
+
+	private void listen(String glob, final RecordingSink sink) throws Exception {
+		Properties props = new Properties();
+
+		props.setProperty("metadata.broker.list", "localhost:9092");
+		props.setProperty("encode.timestamp", "false");
+		props.setProperty("file.stream.end.read.delay.ms", "50");
+		props.setProperty("file.rotation.drain.ms", "100");
+		props.setProperty("file.positions.persist.cache.dir", folder.newFolder().getPath());
+
+		final GlobSource source = new GlobSource(glob, "t");
+
+		source.configure(props);
+
+		new GlobListener(source) {
+			@Override
+			protected PooledFileLogReader newReader(Path file) throws Exception {
+				return new PooledFileLogReader(source.newFileSource(file), sink, FileReaderPool.get(source.getFileReaderThreads()), this);
+			}
+
+		}.run();
+	}
+
+	private static void append(File file, String prefix, int from, int to) throws Exception {
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			for (int i = from; i < to; i++) {
+				out.write((prefix + " " + i + "\n").getBytes("UTF-8"));
+			}
+		}
+	}
+
+	private static void awaitMessages(RecordingSink sink, int count) throws InterruptedException {
+		while (sink.messages.size() < count) {
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Asserts that every line from one number to another was sent exactly once, in order
+	 */
+	private static void assertMessagesOnce(RecordingSink sink, String prefix, int from, int to) {
+		List<String> sent = new ArrayList<>();
+
+		synchronized (sink.messages) {
+			for (String message : sink.messages) {
+				if (message.startsWith(prefix + " ")) {
+					sent.add(message);
+				}
+			}
+		}
+
+		List<String> expected = new ArrayList<>();
+
+		for (int i = from; i < to; i++) {
+			expected.add(prefix + " " + i);
+		}
+
+		assertEquals(expected, sent);
+	}
+
+	@Test(timeout = 30000)
+	public void testRenameToMatchingName() throws Exception {
+		File file = new File(folder.getRoot(), "app.log");
+		RecordingSink sink = new RecordingSink();
+
+		append(file, "old", 0, 100);
+		listen(new File(folder.getRoot(), "app.log*").getPath(), sink);
+		awaitMessages(sink, 100);
+
+		// The renamed file still matches, it is read on by a reader of its new name rather than again from its start
+		File rotated = new File(folder.getRoot(), "app.log.1");
+
+		file.renameTo(rotated);
+		append(rotated, "old", 100, 150);
+		append(file, "new", 0, 50);
+		awaitMessages(sink, 200);
+
+		// Once the old name's reader has let go of it, lines written to it are read under the new name
+		Thread.sleep(300);
+		append(rotated, "old", 150, 160);
+		awaitMessages(sink, 210);
+
+		Thread.sleep(300);
+		assertEquals(210, sink.messages.size());
+		assertMessagesOnce(sink, "old", 0, 160);
+		assertMessagesOnce(sink, "new", 0, 50);
+	}
+
+}
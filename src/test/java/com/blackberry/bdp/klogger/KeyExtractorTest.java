@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class KeyExtractorTest {
+
+	/**
+	 * Extracts the key of a message that is padded on both sides, returning it or null
+	 */
+	private static String extract(KeyExtractor extractor, String message) throws Exception {
+		byte[] bytes = ("##" + message + "##").getBytes("UTF-8");
+
+		if (!extractor.extract(bytes, 2, bytes.length - 4)) {
+			return null;
+		}
+
+		return new String(bytes, extractor.getKeyOffset(), extractor.getKeyLength(), "UTF-8");
+	}
+
+	@Test
+	public void testField() throws Exception {
+		KeyExtractor extractor = KeyExtractor.forField(2, (byte) ' ');
+
+		assertEquals("user42", extract(extractor, "2015-06-01 12:00:00 user42 logged in"));
+		assertEquals("user42", extract(extractor, "a b user42"));
+		assertEquals("", extract(extractor, "a b  c"));
+		assertEquals(null, extract(extractor, "a b"));
+		assertEquals("a", extract(KeyExtractor.forField(0, (byte) ','), "a,b,c"));
+	}
+
+	@Test
+	public void testRange() throws Exception {
+		KeyExtractor extractor = KeyExtractor.forRange(3, 7);
+
+		assertEquals("host", extract(extractor, "id hostname"));
+		assertEquals("ho", extract(extractor, "id ho"));
+		assertEquals(null, extract(extractor, "id"));
+	}
+
+	@Test
+	public void testRegex() throws Exception {
+		KeyExtractor extractor = KeyExtractor.forRegex(Pattern.compile("user=(\\w+)"), 1);
+
+		assertEquals("alice", extract(extractor, "level=INFO user=alice msg=hi"));
+		assertEquals("bob", extract(extractor, "user=bob"));
+		assertEquals(null, extract(extractor, "level=INFO msg=hi"));
+		assertEquals("é", extract(KeyExtractor.forRegex(Pattern.compile("k=(\\S+)"), 1), "k=é"));
+	}
+
+	@Test
+	public void testHash() throws Exception {
+		byte[] a = "xxuser42".getBytes("UTF-8");
+		byte[] b = "user42yy".getBytes("UTF-8");
+
+		assertEquals(KeyExtractor.hash(a, 2, 6), KeyExtractor.hash(b, 0, 6));
+		assertFalse(KeyExtractor.hash(a, 2, 6) == KeyExtractor.hash(b, 0, 5));
+
+		// Sequential keys should spread over a few producers
+		int[] counts = new int[4];
+
+		for (int i = 0; i < 4000; i++) {
+			byte[] key = ("user" + i).getBytes("UTF-8");
+
+			counts[(KeyExtractor.hash(key, 0, key.length) & Integer.MAX_VALUE) % counts.length]++;
+		}
+
+		for (int count : counts) {
+			assertTrue(count > 800);
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class LineFilterTest {
+
+	private static boolean accept(LineFilter filter, String message) throws Exception {
+		byte[] bytes = message.getBytes("UTF-8");
+		boolean array = filter.accept(bytes, 0, bytes.length, 0);
+
+		assertEquals(array, filter.accept(ByteBuffer.wrap(bytes)));
+		return array;
+	}
+
+	private static long hits(String topic, String rule) {
+		// Every message is accepted twice, as an array and as a buffer
+		return MetricRegistrySingleton.getInstance().getMetricsRegistry().counter("klogger:topics:" + topic + ":filter " + rule + " hits").getCount() / 2;
+	}
+
+	@Test
+	public void testDrop() throws Exception {
+		LineFilter filter = new LineFilter("drop",
+			 new String[]{"debug", "health"},
+			 new boolean[]{false, false},
+			 new byte[][]{" DEBUG ".getBytes("UTF-8"), null},
+			 new PrefixMatcher[]{null, new PrefixMatcher("GET /health")});
+
+		assertFalse(accept(filter, "2015-06-01 12:00:00 DEBUG connected"));
+		assertFalse(accept(filter, "GET /health 200"));
+		assertTrue(accept(filter, "2015-06-01 12:00:00 INFO GET /health"));
+		assertTrue(accept(filter, "2015-06-01 12:00:00 INFO connected"));
+		assertEquals(1, hits("drop", "debug"));
+		assertEquals(1, hits("drop", "health"));
+	}
+
+	@Test
+	public void testKeep() throws Exception {
+		LineFilter filter = new LineFilter("keep",
+			 new String[]{"errors", "noisy", "warnings"},
+			 new boolean[]{true, false, true},
+			 new byte[][]{"ERROR".getBytes("UTF-8"), "retrying".getBytes("UTF-8"), null},
+			 new PrefixMatcher[]{null, null, new PrefixMatcher("WARN")});
+
+		assertTrue(accept(filter, "12:00 ERROR disk full"));
+		assertTrue(accept(filter, "WARN slow"));
+		assertFalse(accept(filter, "12:00 ERROR retrying"));
+		assertFalse(accept(filter, "12:00 INFO started"));
+		assertFalse(accept(filter, "12:00 WARN slow"));
+		assertEquals(1, hits("keep", "errors"));
+		assertEquals(1, hits("keep", "warnings"));
+		assertEquals(1, hits("keep", "noisy"));
+		assertEquals(4, MetricRegistrySingleton.getInstance().getMetricsRegistry().counter("klogger:topics:keep:filter unkept").getCount());
+	}
+
+	@Test
+	public void testWrapped() throws Exception {
+		LineFilter filter = new LineFilter("wrapped",
+			 new String[]{"debug"},
+			 new boolean[]{false},
+			 new byte[][]{"DEBUG".getBytes("UTF-8")},
+			 new PrefixMatcher[]{null});
+		byte[] bytes = "BUG x----12:00 DE".getBytes("UTF-8");
+
+		// "12:00 DEBUG x" wraps around the end of the array
+		assertFalse(filter.accept(bytes, 9, 8, 5));
+		assertTrue(filter.accept(bytes, 9, 8, 2));
+	}
+
+}
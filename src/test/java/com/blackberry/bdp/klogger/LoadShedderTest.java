@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LoadShedderTest {
+
+	@Test
+	public void testNextLevel() {
+		// Up one per check at or over the threshold, no higher than the highest priority
+		assertEquals(1, LoadShedder.nextLevel(0, 0.5, 0.5, 3));
+		assertEquals(3, LoadShedder.nextLevel(2, 1.0, 0.5, 3));
+		assertEquals(3, LoadShedder.nextLevel(3, 1.0, 0.5, 3));
+
+		// Held between half the threshold and the threshold
+		assertEquals(2, LoadShedder.nextLevel(2, 0.25, 0.5, 3));
+		assertEquals(0, LoadShedder.nextLevel(0, 0.4, 0.5, 3));
+
+		// Down one per check below half of it, no lower than 0
+		assertEquals(1, LoadShedder.nextLevel(2, 0.2, 0.5, 3));
+		assertEquals(0, LoadShedder.nextLevel(0, 0.0, 0.5, 3));
+	}
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MultilineAggregatorTest {
+
+	/**
+	 * Feeds lines through an aggregator the way LogReader does, returning the events
+	 */
+	private static List<String> aggregate(MultilineAggregator multiline, String... lines) throws Exception {
+		List<String> events = new ArrayList<>();
+
+		for (String line : lines) {
+			byte[] bytes = line.getBytes("UTF-8");
+
+			if (!multiline.joins(bytes, 0, bytes.length, 0) && multiline.isPending()) {
+				events.add(new String(multiline.getEvent(), 0, multiline.getLength(), "UTF-8"));
+				multiline.clear();
+			}
+
+			multiline.append(bytes, 0, bytes.length, 0, 0);
+		}
+
+		if (multiline.isPending()) {
+			events.add(new String(multiline.getEvent(), 0, multiline.getLength(), "UTF-8"));
+		}
+
+		return events;
+	}
+
+	@Test
+	public void testContinuation() throws Exception {
+		MultilineAggregator multiline = new MultilineAggregator(null, new PrefixMatcher("\\s|Caused by: "), 1000, 1000, new byte[]{'\n'});
+
+		List<String> events = aggregate(multiline,
+			 "first",
+			 "java.io.IOException: failed",
+			 "\tat Main.main(Main.java:10)",
+			 "Caused by: java.lang.NullPointerException",
+			 "\tat Main.run(Main.java:20)",
+			 "last");
+
+		assertEquals(3, events.size());
+		assertEquals("first", events.get(0));
+		assertEquals("java.io.IOException: failed\n\tat Main.main(Main.java:10)\nCaused by: java.lang.NullPointerException\n\tat Main.run(Main.java:20)", events.get(1));
+		assertEquals("last", events.get(2));
+	}
+
+	@Test
+	public void testStart() throws Exception {
+		MultilineAggregator multiline = new MultilineAggregator(new PrefixMatcher("\\d\\d:\\d\\d "), null, 1000, 1000, new byte[]{0});
+
+		List<String> events = aggregate(multiline, "orphan", "12:00 one", "two", "12:01 three");
+
+		assertEquals(3, events.size());
+		assertEquals("orphan", events.get(0));
+		assertEquals("12:00 one\0two", events.get(1));
+		assertEquals("12:01 three", events.get(2));
+	}
+
+	@Test
+	public void testMaxBytes() throws Exception {
+		MultilineAggregator multiline = new MultilineAggregator(null, new PrefixMatcher(" "), 10, 1000, new byte[]{'\n'});
+
+		List<String> events = aggregate(multiline, "abcd", " efg", " hij", " k");
+
+		assertEquals(2, events.size());
+		assertEquals("abcd\n efg", events.get(0));
+		assertEquals(" hij\n k", events.get(1));
+		assertTrue(multiline.isAggregatable(10));
+		assertFalse(multiline.isAggregatable(11));
+	}
+
+	@Test
+	public void testBuffersAndFramedBytes() throws Exception {
+		MultilineAggregator multiline = new MultilineAggregator(null, new PrefixMatcher(" "), 100, 250, new byte[]{'\n'});
+		long before = System.currentTimeMillis();
+
+		multiline.append(ByteBuffer.wrap("one".getBytes("UTF-8")), 40);
+
+		ByteBuffer two = ByteBuffer.wrap(" two".getBytes("UTF-8"));
+
+		assertTrue(multiline.joins(two));
+		multiline.append(two, 44);
+		assertFalse(multiline.joins(ByteBuffer.wrap("three".getBytes("UTF-8"))));
+
+		assertEquals("one\n two", new String(multiline.getEvent(), 0, multiline.getLength(), "UTF-8"));
+		assertEquals(40, multiline.getStartFramedBytes());
+		assertTrue(multiline.getDueMs() >= before + 250);
+	}
+
+	@Test
+	public void testBufferOnlyHeldWhilePending() throws Exception {
+		BufferPool buffers = new BufferPool(1);
+		MultilineAggregator multiline = new MultilineAggregator(null, new PrefixMatcher("\\s"), 1000, 1000, new byte[]{'\n'});
+
+		multiline.setBuffers(buffers);
+		assertNull(multiline.getEvent());
+
+		byte[] bytes = "one".getBytes("UTF-8");
+
+		multiline.append(bytes, 0, bytes.length, 0, 0);
+
+		byte[] event = multiline.getEvent();
+
+		multiline.clear();
+		assertNull(multiline.getEvent());
+		assertSame(event, buffers.take(1000).array());
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class PrefixMatcherTest {
+
+	private static boolean matches(String pattern, String message) throws Exception {
+		PrefixMatcher matcher = new PrefixMatcher(pattern);
+		byte[] bytes = message.getBytes("UTF-8");
+
+		boolean array = matcher.matches(bytes, 0, bytes.length, 0);
+		boolean buffer = matcher.matches(ByteBuffer.wrap(bytes));
+
+		assertTrue(array == buffer);
+		return array;
+	}
+
+	@Test
+	public void testClasses() throws Exception {
+		assertTrue(matches("\\d\\d\\d\\d-\\d\\d-\\d\\d ", "2015-06-01 12:00:00 INFO started"));
+		assertFalse(matches("\\d\\d\\d\\d-\\d\\d-\\d\\d ", "2015-06-1 12:00:00"));
+		assertTrue(matches("\\s", "\tat com.example.Main.main(Main.java:10)"));
+		assertTrue(matches("\\s", " more"));
+		assertFalse(matches("\\s", "Caused by: java.io.IOException"));
+		assertTrue(matches("[A-Z][a-z]", "Exception"));
+		assertFalse(matches("[^A-Z]", "Exception"));
+		assertTrue(matches("\\w\\w.\\]", "a_x]"));
+		assertTrue(matches("\\x41\\|", "A|"));
+	}
+
+	@Test
+	public void testAlternativesAndLiterals() throws Exception {
+		String pattern = "\\s|Caused by: |\\.\\.\\.";
+
+		assertTrue(matches(pattern, "Caused by: java.io.IOException"));
+		assertTrue(matches(pattern, "... 12 more"));
+		assertFalse(matches(pattern, "Caused by java.io.IOException"));
+		assertFalse(matches(pattern, ""));
+		assertTrue(matches("é", "école"));
+		assertFalse(matches("é", "ecole"));
+	}
+
+	@Test
+	public void testWrapped() throws Exception {
+		PrefixMatcher matcher = new PrefixMatcher("at ");
+		byte[] bytes = "  ta".getBytes("UTF-8");
+
+		// "a" at the end of the array, then "t " at its start
+		bytes[0] = 't';
+		bytes[1] = ' ';
+		bytes[2] = 'x';
+		bytes[3] = 'a';
+		assertTrue(matcher.matches(bytes, 3, 1, 2));
+		assertFalse(matcher.matches(bytes, 3, 1, 1));
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void testEmptyAlternative() throws Exception {
+		new PrefixMatcher("a||b");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void testUnterminatedClass() throws Exception {
+		new PrefixMatcher("[a-z");
+	}
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RoutingSinkTest {
+
+	/**
+	 * Keeps a copy of every message sent to it, as a string
+	 */
+	private static class RecordingSink implements MessageSink {
+
+		private final List<String> messages = new ArrayList<>();
+
+		@Override
+		public void send(byte[] buffer, int offset, int length) throws Exception {
+			messages.add(new String(buffer, offset, length, "ISO-8859-1"));
+		}
+
+	}
+
+	@Test
+	public void testRoutes() throws Exception {
+		RecordingSink app = new RecordingSink();
+		RecordingSink syslog = new RecordingSink();
+		RecordingSink unrouted = new RecordingSink();
+		ByteTrie routes = new ByteTrie(new byte[][]{"app ".getBytes("UTF-8"), "<".getBytes("UTF-8")});
+		RoutingSink sink = new RoutingSink(routes, new MessageSink[]{app, syslog}, new boolean[]{true, false}, unrouted, 0);
+
+		for (String message : new String[]{"app one", "<13>two", "three", "app", "app four"}) {
+			byte[] bytes = message.getBytes("UTF-8");
+
+			sink.send(bytes, 0, bytes.length);
+		}
+
+		assertEquals("[one, four]", app.messages.toString());
+		assertEquals("[<13>two]", syslog.messages.toString());
+		assertEquals("[three, app]", unrouted.messages.toString());
+	}
+
+	@Test
+	public void testStripBehindTimestamp() throws Exception {
+		RecordingSink app = new RecordingSink();
+		RecordingSink unrouted = new RecordingSink();
+		ByteTrie routes = new ByteTrie(new byte[][]{"app|".getBytes("UTF-8")});
+		RoutingSink sink = new RoutingSink(routes, new MessageSink[]{app}, new boolean[]{true}, unrouted, 2);
+
+		byte[] bytes = "-TSapp|message-".getBytes("UTF-8");
+
+		sink.send(bytes, 1, bytes.length - 2);
+
+		bytes = "-TSapp message-".getBytes("UTF-8");
+
+		sink.send(bytes, 1, bytes.length - 2);
+
+		assertEquals("[TSmessage]", app.messages.toString());
+		assertEquals("[TSapp message]", unrouted.messages.toString());
+	}
+
+}
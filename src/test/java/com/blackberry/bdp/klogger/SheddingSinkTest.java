@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.blackberry.bdp.common.jmx.MetricRegistrySingleton;
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SheddingSinkTest {
+
+	/**
+	 * Keeps a copy of every message sent to it, as a string
+	 */
+	private static class RecordingSink implements MessageSink {
+
+		private final List<String> messages = new ArrayList<>();
+
+		@Override
+		public void send(byte[] buffer, int offset, int length) throws Exception {
+			messages.add(new String(buffer, offset, length, "ISO-8859-1"));
+		}
+
+	}
+
+	private static void send(MessageSink sink, String message) throws Exception {
+		byte[] bytes = message.getBytes("UTF-8");
+
+		sink.send(bytes, 0, bytes.length);
+	}
+
+	@After
+	public void tearDown() {
+		LoadShedder.setLevel(0);
+	}
+
+	@Test
+	public void testCount() throws Exception {
+		RecordingSink recording = new RecordingSink();
+		SheddingSink sink = new SheddingSink(recording, "shedcount", 2, 3, false, null, 0);
+		MetricRegistry registry = MetricRegistrySingleton.getInstance().getMetricsRegistry();
+
+		// Below the source's priority everything is sent
+		LoadShedder.setLevel(1);
+
+		for (int i = 0; i < 3; i++) {
+			send(sink, "a" + i);
+		}
+
+		assertEquals(1, registry.getGauges().get("klogger:topics:shedcount:shed keep one in").getValue());
+
+		LoadShedder.setLevel(2);
+
+		for (int i = 0; i < 7; i++) {
+			send(sink, "b" + i);
+		}
+
+		assertEquals("[a0, a1, a2, b2, b5]", recording.messages.toString());
+		assertEquals(5, registry.counter("klogger:topics:shedcount:shed lines").getCount());
+		assertEquals(2, registry.counter("klogger:topics:shedcount:sampled lines").getCount());
+		assertEquals(3, registry.getGauges().get("klogger:topics:shedcount:shed keep one in").getValue());
+	}
+
+	@Test
+	public void testCountAcrossReaders() throws Exception {
+		RecordingSink recording = new RecordingSink();
+
+		LoadShedder.setLevel(1);
+
+		// Short lived connections, each with a sink of its own that only sends one message
+		for (int i = 0; i < 9; i++) {
+			send(new SheddingSink(recording, "shedreaders", 1, 3, false, null, 0), "c" + i);
+		}
+
+		assertEquals("[c2, c5, c8]", recording.messages.toString());
+	}
+
+	@Test
+	public void testHashByKey() throws Exception {
+		RecordingSink first = new RecordingSink();
+		RecordingSink second = new RecordingSink();
+		SheddingSink firstSink = new SheddingSink(first, "shedhash", 1, 4, true, KeyExtractor.forField(0, (byte) ' '), 2);
+		SheddingSink secondSink = new SheddingSink(second, "shedhash", 1, 4, true, KeyExtractor.forField(0, (byte) ' '), 2);
+
+		LoadShedder.setLevel(1);
+
+		// The same keys are kept by every reader, with all of their messages, whatever comes before the key
+		for (int i = 0; i < 1000; i++) {
+			send(firstSink, "TSuser" + i + " first");
+			send(secondSink, "tsuser" + i + " second");
+			send(firstSink, "TSuser" + i + " again");
+		}
+
+		assertTrue(first.messages.size() > 400 && first.messages.size() < 600);
+		assertEquals(first.messages.size(), second.messages.size() * 2);
+
+		for (int i = 0; i < second.messages.size(); i++) {
+			String user = second.messages.get(i).substring(2, second.messages.get(i).indexOf(' '));
+
+			assertEquals("TS" + user + " first", first.messages.get(i * 2));
+			assertEquals("TS" + user + " again", first.messages.get(i * 2 + 1));
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillQueueTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] message(int i) throws Exception {
+		return String.format("message %04d", i).getBytes("UTF-8");
+	}
+
+	private static String read(SpillQueue spill) throws Exception {
+		byte[] message = spill.read();
+
+		return message == null ? null : new String(message, "UTF-8");
+	}
+
+	private int segments() {
+		return folder.getRoot().list().length;
+	}
+
+	@Test
+	public void testReadsInOrderAcrossSegments() throws Exception {
+		// Every record is 8 + 12 bytes, so each segment holds five
+		SpillQueue spill = new SpillQueue(folder.getRoot().toPath(), 10000, 100, 1000);
+
+		assertTrue(spill.isEmpty());
+		assertNull(spill.read());
+
+		for (int i = 0; i < 23; i++) {
+			assertEquals(0, spill.append(message(i), 0, 12));
+		}
+
+		assertEquals(5, segments());
+		assertEquals(23 * 20, spill.getTotalBytes());
+
+		for (int i = 0; i < 12; i++) {
+			assertEquals(String.format("message %04d", i), read(spill));
+		}
+
+		// The two segments read to the end are deleted
+		assertEquals(3, segments());
+
+		for (int i = 23; i < 30; i++) {
+			spill.append(message(i), 0, 12);
+		}
+
+		for (int i = 12; i < 30; i++) {
+			assertEquals(String.format("message %04d", i), read(spill));
+		}
+
+		assertTrue(spill.isEmpty());
+		assertNull(spill.read());
+	}
+
+	@Test
+	public void testEvictsOldestSegments() throws Exception {
+		SpillQueue spill = new SpillQueue(folder.getRoot().toPath(), 300, 100, 1000);
+		long evicted = 0;
+
+		for (int i = 0; i < 40; i++) {
+			evicted += spill.append(message(i), 0, 12);
+
+			if (i == 0) {
+				assertEquals("message 0000", read(spill));
+			}
+		}
+
+		// Segments of five are deleted, oldest first, to keep within 300 bytes, the first message having been read
+		assertTrue(spill.getTotalBytes() <= 300);
+		assertEquals(40 * 20 - 20 - spill.getTotalBytes(), evicted);
+		assertEquals(String.format("message %04d", 40 - spill.getTotalBytes() / 20), read(spill));
+	}
+
+	@Test
+	public void testReopenAndTornRecord() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		SpillQueue spill = new SpillQueue(dir, 10000, 100, 1000);
+
+		for (int i = 0; i < 8; i++) {
+			spill.append(message(i), 0, 12);
+		}
+
+		spill.close();
+
+		// A crash that tore the last record of the second segment
+		File second = dir.resolve(String.format("%020d.spill", 1)).toFile();
+
+		try (RandomAccessFile file = new RandomAccessFile(second, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+
+		SpillQueue reopened = new SpillQueue(dir, 10000, 100, 1000);
+
+		reopened.append(message(8), 0, 12);
+
+		for (int i = 0; i < 7; i++) {
+			assertEquals(String.format("message %04d", i), read(reopened));
+		}
+
+		assertEquals("message 0008", read(reopened));
+		assertNull(reopened.read());
+	}
+
+}
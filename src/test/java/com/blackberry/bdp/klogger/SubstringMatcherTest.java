@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 BlackBerry, Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackberry.bdp.klogger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SubstringMatcherTest {
+
+	private static SubstringMatcher matcher(String... strings) throws Exception {
+		byte[][] bytes = new byte[strings.length][];
+
+		for (int i = 0; i < strings.length; i++) {
+			bytes[i] = strings[i].getBytes("UTF-8");
+		}
+
+		return new SubstringMatcher(bytes);
+	}
+
+	/**
+	 * Searches a message as an array, as a buffer and wrapped around at every point, checking they all agree
+	 */
+	private static int find(SubstringMatcher matcher, String message, int stopBelow) throws Exception {
+		byte[] bytes = message.getBytes("UTF-8");
+		int found = matcher.find(bytes, 0, bytes.length, 0, stopBelow);
+
+		assertEquals(found, matcher.find(ByteBuffer.wrap(bytes), stopBelow));
+
+		for (int split = 1; split < bytes.length; split++) {
+			// The second part is at the start of the array, the first at the end
+			byte[] wrapped = new byte[bytes.length];
+
+			System.arraycopy(bytes, split, wrapped, 0, bytes.length - split);
+			System.arraycopy(bytes, 0, wrapped, bytes.length - split, split);
+			assertEquals(message + " split at " + split, found, matcher.find(wrapped, bytes.length - split, split, bytes.length - split, stopBelow));
+		}
+
+		return found;
+	}
+
+	@Test
+	public void testFind() throws Exception {
+		SubstringMatcher matcher = matcher("he", "she", "his", "hers");
+
+		// she and he end at the same byte
+		assertEquals(0, find(matcher, "ushers", 1));
+		assertEquals(2, find(matcher, "xhis he", 3));
+		assertEquals(0, find(matcher, "xhis he", 2));
+		assertEquals(2, find(matcher, "this", 4));
+		assertEquals(0, find(matcher, "hxhers", 0));
+		assertEquals(0, find(matcher("hers", "xyz"), "hhers", 2));
+		assertEquals(-1, find(matcher, "hxsxe", 4));
+		assertEquals(-1, find(matcher, "", 4));
+	}
+
+	@Test
+	public void testPriority() throws Exception {
+		SubstringMatcher matcher = matcher("DEBUG", "GET /health", "health");
+
+		// The search stops at the first string below stopBelow, otherwise it finds the lowest
+		assertEquals(0, find(matcher, "12:00 DEBUG GET /health", 1));
+		assertEquals(0, find(matcher, "GET /health DEBUG", 1));
+		assertEquals(1, find(matcher, "GET /health", 1));
+		assertEquals(2, find(matcher, "health", 1));
+		assertEquals(1, find(matcher, "health GET /health", 1));
+		assertEquals(2, find(matcher, "health GET /health", 3));
+	}
+
+	@Test
+	public void testAgainstIndexOf() throws Exception {
+		Random random = new Random(42);
+		String[] strings = {"ab", "abc", "bca", "cab", "aaa", "c"};
+		SubstringMatcher matcher = matcher(strings);
+
+		for (int n = 0; n < 2000; n++) {
+			StringBuilder message = new StringBuilder();
+
+			for (int i = random.nextInt(12); i > 0; i--) {
+				message.append((char) ('a' + random.nextInt(4)));
+			}
+
+			int expected = -1;
+
+			for (int i = 0; i < strings.length && expected < 0; i++) {
+				if (message.indexOf(strings[i]) >= 0) {
+					expected = i;
+				}
+			}
+
+			assertEquals(message.toString(), expected, find(matcher, message.toString(), 0));
+		}
+	}
+
+	@Test
+	public void testHighBytes() throws Exception {
+		SubstringMatcher matcher = new SubstringMatcher(new byte[][]{{(byte) 0xff, 0}, {(byte) 0x80}});
+
+		assertEquals(0, matcher.find(new byte[]{1, (byte) 0xff, 0}, 0, 3, 0, 2));
+		assertEquals(1, matcher.find(new byte[]{1, (byte) 0x80}, 0, 2, 0, 2));
+		assertEquals(-1, matcher.find(new byte[]{(byte) 0xff, 1, 0x7f}, 0, 3, 0, 2));
+	}
+
+}
@@ -16,13 +16,20 @@
 package com.blackberry.bdp.klogger;
 
 import com.blackberry.bdp.klogger.UTF8Validator;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -102,4 +109,87 @@ public class UTF8ValidatorTest {
 		assertTrue(Arrays.equals(exp, result));
 	}
 
+	@Test
+	public void testValidInputIsNotCopied() throws Exception {
+		UTF8Validator validator = new UTF8Validator();
+		byte[] source = "xx\u00e9\u20ac\ud83d\ude00 plain ascii that is long enough for the fast path".getBytes("UTF-8");
+
+		assertTrue(validator.validate(source, 2, source.length - 2));
+		assertSame(source, validator.getResultBytes());
+		assertTrue(validator.getResultOffset() == 2);
+		assertTrue(validator.getResultLength() == source.length - 2);
+	}
+
+	@Test
+	public void testMalformedSequences() throws Exception {
+		byte[][] tests = new byte[][]{
+			// Overlong encodings
+			{(byte) 0xC0, (byte) 0xAF},
+			{(byte) 0xE0, (byte) 0x80, (byte) 0xAF},
+			{(byte) 0xF0, (byte) 0x80, (byte) 0x80, (byte) 0xAF},
+			// Surrogates
+			{(byte) 0xED, (byte) 0xA0, (byte) 0x80, 'a'},
+			{(byte) 0xED, (byte) 0xA0, 'a'},
+			// Above U+10FFFF
+			{(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80},
+			{(byte) 0xF5, (byte) 0x80, (byte) 0x80, (byte) 0x80},
+			// Truncated sequences, in the middle and at the end of the input
+			{(byte) 0xF1, (byte) 0x80, (byte) 0x80, 'a'},
+			{'a', (byte) 0xE3, (byte) 0x81},
+			{'a', (byte) 0xF0, (byte) 0x9F, (byte) 0x98},
+			// Stray continuation bytes
+			{(byte) 0x80, (byte) 0xBF, 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', (byte) 0xFF}
+		};
+
+		UTF8Validator validator = new UTF8Validator();
+
+		for (byte[] test : tests) {
+			assertTrue(!validator.validate(test, 0, test.length));
+			assertTrue(Arrays.equals(decodeAndEncode(test, 0, test.length), result(validator)));
+		}
+	}
+
+	@Test
+	public void testMatchesCharsetDecoder() throws Exception {
+		int[] interesting = new int[]{0x00, 0x41, 0x7F, 0x80, 0x8F, 0x90, 0x9F, 0xA0, 0xBF, 0xC0, 0xC1, 0xC2, 0xDF,
+			0xE0, 0xE1, 0xEC, 0xED, 0xEE, 0xEF, 0xF0, 0xF1, 0xF3, 0xF4, 0xF5, 0xF7, 0xF8, 0xFF};
+		Random random = new Random(42);
+		UTF8Validator validator = new UTF8Validator();
+
+		for (int i = 0; i < 100000; i++) {
+			byte[] source = new byte[random.nextInt(100) + 4];
+			int offset = random.nextInt(4);
+			int length = source.length - offset - random.nextInt(source.length - offset);
+
+			for (int j = 0; j < source.length; j++) {
+				source[j] = (byte) (random.nextBoolean() ? 'a' : interesting[random.nextInt(interesting.length)]);
+			}
+
+			validator.validate(source, offset, length);
+
+			assertTrue(Arrays.equals(decodeAndEncode(source, offset, length), result(validator)));
+		}
+	}
+
+	private static byte[] result(UTF8Validator validator) {
+		return Arrays.copyOfRange(validator.getResultBytes(), validator.getResultOffset(),
+			 validator.getResultOffset() + validator.getResultLength());
+	}
+
+	/**
+	 * The reference behaviour: decode with the JDK's decoder replacing malformed input and encode again
+	 */
+	private static byte[] decodeAndEncode(byte[] bytes, int offset, int length) throws CharacterCodingException {
+		CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+		decoder.onMalformedInput(CodingErrorAction.REPLACE);
+		decoder.replaceWith(REPLACEMENT);
+
+		CharBuffer chars = decoder.decode(ByteBuffer.wrap(bytes, offset, length));
+		ByteBuffer encoded = Charset.forName("UTF-8").newEncoder().encode(chars);
+		byte[] result = new byte[encoded.remaining()];
+		encoded.get(result);
+
+		return result;
+	}
+
 }